@@ -0,0 +1,784 @@
+package cn.lyf.tools.crypto;
+
+import cn.lyf.tools.core.builder.Builder;
+import cn.lyf.tools.io.BufferPool;
+import cn.lyf.tools.io.IoUtil;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.DESKeySpec;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * @author lyf
+ * @description 对称加密服务，密钥只派生一次，Cipher按线程缓存，支持AES-GCM、AES-CTR，DES只用于解密旧数据
+ * <pre>
+ *     1. 通过builder()指定模式以及密钥(key)或者口令(password + salt，PBKDF2WithHmacSHA256派生)，构建后线程安全，应当长期复用
+ *     2. 短消息: encrypt/decrypt，格式为 iv + 密文(GCM还包括16字节的tag)，每次随机生成iv；
+ *        encryptString/decryptString在此基础上做UTF-8和Base64转换，解码时忽略换行
+ *     3. 大数据: encryptingStream/decryptingStream以及encrypt(Path, Path)/decrypt(Path, Path)，
+ *        格式为 格式标记(1) + 随机数，之后是密文
+ *        GCM按64K密文分段，每段独立认证，nonce = 随机前缀(8) + 段序号(4)，最后一段的附加数据不同，
+ *        截断、重排、篡改都会在解密时抛出IOException，解密时内存占用与文件大小无关；
+ *        CTR没有认证，只适合另有完整性校验(比如md5)的场景
+ *     4. GCM每条消息随机生成12字节的iv，同一个密钥不要加密超过2^32条短消息
+ *     5. DES_LEGACY(DES/ECB/PKCS5Padding)只能解密，加密时抛出UnsupportedOperationException
+ * </pre>
+ * @since 2023/5/22 9:31:46
+ */
+public final class CipherService {
+    /**
+     * 派生密钥时默认的迭代次数
+     */
+    public static final int DEFAULT_ITERATIONS = 100_000;
+
+    /**
+     * 分段加密时每段密文的长度，正好是BufferPool的最大级别
+     */
+    private static final int SEGMENT_SIZE = BufferPool.MAX_POOLED_SIZE;
+
+    private static final int TAG_LENGTH = 16;
+
+    private static final int PLAIN_SEGMENT_SIZE = SEGMENT_SIZE - TAG_LENGTH;
+
+    private static final int NONCE_PREFIX_LENGTH = 8;
+
+    private static final byte[] AAD_LAST = {1};
+
+    private static final byte[] AAD_NOT_LAST = {0};
+
+    private static final ThreadLocal<SecureRandom> RANDOM = ThreadLocal.withInitial(SecureRandom::new);
+
+    private final Mode mode;
+
+    private final SecretKey key;
+
+    private final ThreadLocal<Cipher> ciphers;
+
+    private CipherService(Mode mode, SecretKey key) {
+        this.mode = mode;
+        this.key = key;
+        this.ciphers = ThreadLocal.withInitial(this::newCipher);
+    }
+
+    public static CipherServiceBuilder builder() {
+        return new CipherServiceBuilder();
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * 加密短消息
+     *
+     * @param plain 明文
+     * @return iv + 密文
+     */
+    public byte[] encrypt(byte[] plain) {
+        if (plain == null) {
+            throw new IllegalArgumentException("plain can't be null");
+        }
+        requireEncryptable();
+        byte[] iv = randomBytes(mode.ivLength);
+        try {
+            Cipher cipher = ciphers.get();
+            cipher.init(Cipher.ENCRYPT_MODE, key, parameters(iv));
+            byte[] result = Arrays.copyOf(iv, iv.length + cipher.getOutputSize(plain.length));
+            int length = cipher.doFinal(plain, 0, plain.length, result, iv.length);
+            return length == result.length - iv.length ? result : Arrays.copyOf(result, iv.length + length);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalArgumentException("encrypt failed: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 解密encrypt的结果
+     *
+     * @param data iv + 密文
+     * @return 明文
+     * @throws IllegalArgumentException 数据被篡改、密钥不对或者格式不正确
+     */
+    public byte[] decrypt(byte[] data) {
+        if (data == null || data.length < mode.ivLength + mode.tagLength) {
+            throw new IllegalArgumentException("data is too short");
+        }
+        try {
+            Cipher cipher = ciphers.get();
+            if (mode == Mode.DES_LEGACY) {
+                cipher.init(Cipher.DECRYPT_MODE, key);
+            } else {
+                cipher.init(Cipher.DECRYPT_MODE, key, parameters(Arrays.copyOf(data, mode.ivLength)));
+            }
+            return cipher.doFinal(data, mode.ivLength, data.length - mode.ivLength);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalArgumentException("decrypt failed: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 加密字符串
+     *
+     * @param plain 明文
+     * @return Base64编码的 iv + 密文
+     */
+    public String encryptString(String plain) {
+        if (plain == null) {
+            throw new IllegalArgumentException("plain can't be null");
+        }
+        return Base64.getEncoder().encodeToString(encrypt(plain.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * 解密encryptString的结果，也兼容带换行的Base64(sun.misc.BASE64Encoder的输出)
+     *
+     * @param data Base64编码的 iv + 密文
+     * @return 明文
+     */
+    public String decryptString(String data) {
+        if (data == null) {
+            throw new IllegalArgumentException("data can't be null");
+        }
+        return new String(decrypt(Base64.getMimeDecoder().decode(data)), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 写入的数据加密后写入out，关闭时写入最后一段并关闭out
+     *
+     * @param out 输出流
+     * @return 加密输出流
+     * @throws IOException 写入头部失败
+     */
+    public OutputStream encryptingStream(OutputStream out) throws IOException {
+        if (out == null) {
+            throw new IllegalArgumentException("out can't be null");
+        }
+        requireStreamable();
+        requireEncryptable();
+        byte[] nonce = randomBytes(mode == Mode.AES_GCM ? NONCE_PREFIX_LENGTH : mode.ivLength);
+        out.write(mode.streamMarker);
+        out.write(nonce);
+        return mode == Mode.AES_GCM ? new GcmOutputStream(out, nonce) : new CtrOutputStream(out, nonce);
+    }
+
+    /**
+     * 从in读取encryptingStream写入的数据并解密，关闭时关闭in
+     *
+     * @param in 输入流
+     * @return 解密输入流
+     * @throws IOException 读取头部失败或者格式不正确
+     */
+    public InputStream decryptingStream(InputStream in) throws IOException {
+        if (in == null) {
+            throw new IllegalArgumentException("in can't be null");
+        }
+        requireStreamable();
+        int marker = in.read();
+        if (marker != mode.streamMarker) {
+            throw new IOException("not a " + mode + " stream, marker: " + marker);
+        }
+        byte[] nonce = new byte[mode == Mode.AES_GCM ? NONCE_PREFIX_LENGTH : mode.ivLength];
+        new DataInputStream(in).readFully(nonce);
+        return mode == Mode.AES_GCM ? new GcmInputStream(in, nonce) : new CtrInputStream(in, nonce);
+    }
+
+    /**
+     * 加密文件，先写入target所在目录的临时文件，完成后再覆盖target，失败时target保持不变；source和target可以是同一个文件
+     *
+     * @param source 明文文件
+     * @param target 密文文件
+     * @return 明文的字节数
+     * @throws IOException IOException
+     */
+    public long encrypt(Path source, Path target) throws IOException {
+        return transformFile(source, target, true);
+    }
+
+    /**
+     * 解密encrypt(Path, Path)或者encryptingStream生成的文件，与encrypt(Path, Path)一样经过临时文件，失败时target保持不变
+     *
+     * @param source 密文文件
+     * @param target 明文文件
+     * @return 明文的字节数
+     * @throws IOException 读写失败或者数据被篡改
+     */
+    public long decrypt(Path source, Path target) throws IOException {
+        return transformFile(source, target, false);
+    }
+
+    private long transformFile(Path source, Path target, boolean encrypt) throws IOException {
+        if (source == null || target == null) {
+            throw new IllegalArgumentException("source and target can't be null");
+        }
+        if (!Files.isRegularFile(source)) {
+            throw new IllegalArgumentException("source not exists: " + source);
+        }
+        // 直接写target时，source和target是同一个文件会在读取之前被截断
+        Path tempFile = IoUtil.createTempSibling(target);
+        byte[] buffer = BufferPool.acquireBytes(SEGMENT_SIZE);
+        boolean success = false;
+        try {
+            long total = 0L;
+            try (FileChannel sourceChannel = FileChannel.open(source, StandardOpenOption.READ);
+                 FileChannel targetChannel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+                InputStream in = Channels.newInputStream(sourceChannel);
+                OutputStream out = Channels.newOutputStream(targetChannel);
+                if (encrypt) {
+                    out = encryptingStream(out);
+                } else {
+                    in = decryptingStream(in);
+                }
+                int count;
+                try (InputStream input = in; OutputStream output = out) {
+                    while ((count = input.read(buffer)) != -1) {
+                        output.write(buffer, 0, count);
+                        total += count;
+                    }
+                }
+            }
+            IoUtil.moveAtomically(tempFile, target);
+            success = true;
+            return total;
+        } finally {
+            BufferPool.release(buffer);
+            if (!success) {
+                Files.deleteIfExists(tempFile);
+            }
+        }
+    }
+
+    private void requireEncryptable() {
+        if (mode == Mode.DES_LEGACY) {
+            throw new UnsupportedOperationException("DES is only supported for decrypting legacy data");
+        }
+    }
+
+    private void requireStreamable() {
+        if (mode == Mode.DES_LEGACY) {
+            throw new UnsupportedOperationException("DES doesn't support streaming");
+        }
+    }
+
+    private Cipher newCipher() {
+        try {
+            return Cipher.getInstance(mode.transformation);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalArgumentException("no cipher found: " + mode.transformation, e);
+        }
+    }
+
+    private AlgorithmParameterSpec parameters(byte[] iv) {
+        return mode == Mode.AES_GCM ? new GCMParameterSpec(TAG_LENGTH * 8, iv) : new IvParameterSpec(iv);
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        RANDOM.get().nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * 加密或者解密GCM的一段，nonce = 前缀 + 段序号，最后一段的附加数据不同，防止截断
+     */
+    private int gcmSegment(Cipher cipher, int opMode, byte[] prefix, long index, boolean last,
+                           byte[] input, int length, byte[] output) throws IOException {
+        if (index > Integer.MAX_VALUE) {
+            throw new IOException("too many segments");
+        }
+        byte[] nonce = Arrays.copyOf(prefix, NONCE_PREFIX_LENGTH + 4);
+        nonce[8] = (byte) (index >>> 24);
+        nonce[9] = (byte) (index >>> 16);
+        nonce[10] = (byte) (index >>> 8);
+        nonce[11] = (byte) index;
+        try {
+            cipher.init(opMode, key, new GCMParameterSpec(TAG_LENGTH * 8, nonce));
+            cipher.updateAAD(last ? AAD_LAST : AAD_NOT_LAST);
+            return cipher.doFinal(input, 0, length, output, 0);
+        } catch (AEADBadTagException e) {
+            throw new IOException("segment " + index + " was tampered or truncated", e);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("cipher failed at segment " + index, e);
+        }
+    }
+
+    /**
+     * 加密模式
+     */
+    public enum Mode {
+        /**
+         * AES/GCM/NoPadding，带认证，推荐
+         */
+        AES_GCM("AES/GCM/NoPadding", "AES", 12, TAG_LENGTH, 32, 1),
+
+        /**
+         * AES/CTR/NoPadding，不带认证，密文与明文等长
+         */
+        AES_CTR("AES/CTR/NoPadding", "AES", 16, 0, 32, 2),
+
+        /**
+         * DES/ECB/PKCS5Padding，与DesUtil的格式一致，只能解密
+         */
+        DES_LEGACY("DES/ECB/PKCS5Padding", "DES", 0, 0, 8, 0);
+
+        private final String transformation;
+
+        private final String algorithm;
+
+        private final int ivLength;
+
+        private final int tagLength;
+
+        private final int derivedKeyLength;
+
+        private final int streamMarker;
+
+        Mode(String transformation, String algorithm, int ivLength, int tagLength, int derivedKeyLength, int streamMarker) {
+            this.transformation = transformation;
+            this.algorithm = algorithm;
+            this.ivLength = ivLength;
+            this.tagLength = tagLength;
+            this.derivedKeyLength = derivedKeyLength;
+            this.streamMarker = streamMarker;
+        }
+    }
+
+    /**
+     * 按64K密文分段加密，缓冲一整段明文，有后续数据时才确定当前段不是最后一段
+     */
+    private final class GcmOutputStream extends OutputStream {
+        private final OutputStream out;
+
+        private final byte[] prefix;
+
+        private final Cipher cipher = newCipher();
+
+        private byte[] plain = BufferPool.acquireBytes(PLAIN_SEGMENT_SIZE);
+
+        private byte[] encrypted = BufferPool.acquireBytes(SEGMENT_SIZE);
+
+        private int length;
+
+        private long index;
+
+        GcmOutputStream(OutputStream out, byte[] prefix) {
+            this.out = out;
+            this.prefix = prefix;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (plain == null) {
+                throw new IOException("stream closed");
+            }
+            if (off < 0 || len < 0 || len > b.length - off) {
+                throw new IndexOutOfBoundsException();
+            }
+            while (len > 0) {
+                if (length == PLAIN_SEGMENT_SIZE) {
+                    writeSegment(false);
+                }
+                int count = Math.min(len, PLAIN_SEGMENT_SIZE - length);
+                System.arraycopy(b, off, plain, length, count);
+                length += count;
+                off += count;
+                len -= count;
+            }
+        }
+
+        private void writeSegment(boolean last) throws IOException {
+            int count = gcmSegment(cipher, Cipher.ENCRYPT_MODE, prefix, index++, last, plain, length, encrypted);
+            out.write(encrypted, 0, count);
+            length = 0;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (plain == null) {
+                return;
+            }
+            try {
+                writeSegment(true);
+            } finally {
+                BufferPool.release(plain);
+                BufferPool.release(encrypted);
+                plain = null;
+                encrypted = null;
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * 逐段解密，多读一个字节判断当前段是否为最后一段
+     */
+    private final class GcmInputStream extends InputStream {
+        private final InputStream in;
+
+        private final byte[] prefix;
+
+        private final Cipher cipher = newCipher();
+
+        private byte[] encrypted = BufferPool.acquireBytes(SEGMENT_SIZE);
+
+        private byte[] plain = BufferPool.acquireBytes(SEGMENT_SIZE);
+
+        /**
+         * 预读的下一段的第一个字节，-1表示没有
+         */
+        private int lookahead = -1;
+
+        private int position;
+
+        private int limit;
+
+        private long index;
+
+        private boolean finished;
+
+        GcmInputStream(InputStream in, byte[] prefix) {
+            this.in = in;
+            this.prefix = prefix;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (plain == null) {
+                throw new IOException("stream closed");
+            }
+            if (off < 0 || len < 0 || len > b.length - off) {
+                throw new IndexOutOfBoundsException();
+            }
+            if (len == 0) {
+                return 0;
+            }
+            while (position == limit) {
+                if (finished) {
+                    return -1;
+                }
+                readSegment();
+            }
+            int count = Math.min(len, limit - position);
+            System.arraycopy(plain, position, b, off, count);
+            position += count;
+            return count;
+        }
+
+        private void readSegment() throws IOException {
+            int length = 0;
+            if (lookahead >= 0) {
+                encrypted[length++] = (byte) lookahead;
+                lookahead = -1;
+            }
+            int count;
+            while (length < SEGMENT_SIZE && (count = in.read(encrypted, length, SEGMENT_SIZE - length)) != -1) {
+                length += count;
+            }
+            boolean last = length < SEGMENT_SIZE || (lookahead = in.read()) == -1;
+            if (length < TAG_LENGTH) {
+                throw new IOException("segment " + index + " was truncated");
+            }
+            limit = gcmSegment(cipher, Cipher.DECRYPT_MODE, prefix, index++, last, encrypted, length, plain);
+            position = 0;
+            finished = last;
+        }
+
+        @Override
+        public int available() {
+            return limit - position;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (plain == null) {
+                return;
+            }
+            BufferPool.release(plain);
+            BufferPool.release(encrypted);
+            plain = null;
+            encrypted = null;
+            in.close();
+        }
+    }
+
+    /**
+     * CTR加密，密文与明文等长，用池中的缓冲区避免CipherOutputStream每次write都分配数组
+     */
+    private final class CtrOutputStream extends FilterOutputStream {
+        private final Cipher cipher = newCipher();
+
+        private byte[] buffer = BufferPool.acquireBytes(SEGMENT_SIZE);
+
+        CtrOutputStream(OutputStream out, byte[] iv) throws IOException {
+            super(out);
+            try {
+                cipher.init(Cipher.ENCRYPT_MODE, key, new IvParameterSpec(iv));
+            } catch (GeneralSecurityException e) {
+                throw new IOException("init cipher failed", e);
+            }
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (buffer == null) {
+                throw new IOException("stream closed");
+            }
+            if (off < 0 || len < 0 || len > b.length - off) {
+                throw new IndexOutOfBoundsException();
+            }
+            try {
+                while (len > 0) {
+                    int count = Math.min(len, buffer.length);
+                    int encrypted = cipher.update(b, off, count, buffer, 0);
+                    out.write(buffer, 0, encrypted);
+                    off += count;
+                    len -= count;
+                }
+            } catch (GeneralSecurityException e) {
+                throw new IOException("encrypt failed", e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (buffer == null) {
+                return;
+            }
+            try (OutputStream output = out) {
+                int count = cipher.doFinal(buffer, 0);
+                output.write(buffer, 0, count);
+            } catch (GeneralSecurityException e) {
+                throw new IOException("encrypt failed", e);
+            } finally {
+                BufferPool.release(buffer);
+                buffer = null;
+            }
+        }
+    }
+
+    /**
+     * CTR解密，密文先读入池中的缓冲区再解密到调用方的数组，避免CipherInputStream的512字节中转缓冲区
+     */
+    private final class CtrInputStream extends FilterInputStream {
+        private final Cipher cipher = newCipher();
+
+        private byte[] buffer = BufferPool.acquireBytes(SEGMENT_SIZE);
+
+        CtrInputStream(InputStream in, byte[] iv) throws IOException {
+            super(in);
+            try {
+                cipher.init(Cipher.DECRYPT_MODE, key, new IvParameterSpec(iv));
+            } catch (GeneralSecurityException e) {
+                throw new IOException("init cipher failed", e);
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (buffer == null) {
+                throw new IOException("stream closed");
+            }
+            if (off < 0 || len < 0 || len > b.length - off) {
+                throw new IndexOutOfBoundsException();
+            }
+            int count = in.read(buffer, 0, Math.min(len, buffer.length));
+            if (count <= 0) {
+                return count;
+            }
+            try {
+                int decrypted = cipher.update(buffer, 0, count, b, off);
+                if (decrypted != count) {
+                    throw new IOException("unexpected output length of CTR: " + decrypted + "/" + count);
+                }
+            } catch (GeneralSecurityException e) {
+                throw new IOException("decrypt failed", e);
+            }
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            byte[] skipped = BufferPool.acquireBytes(SEGMENT_SIZE);
+            try {
+                long total = 0L;
+                int count;
+                while (total < n && (count = read(skipped, 0, (int) Math.min(skipped.length, n - total))) > 0) {
+                    total += count;
+                }
+                return total;
+            } finally {
+                BufferPool.release(skipped);
+            }
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (buffer == null) {
+                return;
+            }
+            BufferPool.release(buffer);
+            buffer = null;
+            in.close();
+        }
+    }
+
+    /**
+     * CipherService的构建器，密钥和口令不参与序列化
+     */
+    public static final class CipherServiceBuilder implements Builder<CipherService> {
+        private static final long serialVersionUID = 1L;
+
+        private Mode mode = Mode.AES_GCM;
+
+        private transient byte[] key;
+
+        private transient char[] password;
+
+        private transient byte[] salt;
+
+        private int iterations = DEFAULT_ITERATIONS;
+
+        private CipherServiceBuilder() {
+        }
+
+        /**
+         * 加密模式，默认AES_GCM
+         *
+         * @param mode mode
+         * @return CipherServiceBuilder
+         */
+        public CipherServiceBuilder mode(Mode mode) {
+            this.mode = mode;
+            return this;
+        }
+
+        /**
+         * 原始密钥，AES为16、24或者32字节，DES至少8字节(只用前8字节)，与password二选一
+         *
+         * @param key key
+         * @return CipherServiceBuilder
+         */
+        public CipherServiceBuilder key(byte[] key) {
+            this.key = key == null ? null : key.clone();
+            return this;
+        }
+
+        /**
+         * 口令，用PBKDF2WithHmacSHA256派生密钥，AES派生32字节，与key二选一
+         *
+         * @param password 口令
+         * @param salt     盐，至少8字节
+         * @return CipherServiceBuilder
+         */
+        public CipherServiceBuilder password(char[] password, byte[] salt) {
+            this.password = password == null ? null : password.clone();
+            this.salt = salt == null ? null : salt.clone();
+            return this;
+        }
+
+        /**
+         * 派生密钥的迭代次数，默认100000
+         *
+         * @param iterations iterations
+         * @return CipherServiceBuilder
+         */
+        public CipherServiceBuilder iterations(int iterations) {
+            this.iterations = iterations;
+            return this;
+        }
+
+        @Override
+        public CipherService build() {
+            if (mode == null) {
+                throw new IllegalArgumentException("mode can't be null");
+            }
+            if ((key == null) == (password == null)) {
+                throw new IllegalArgumentException("exactly one of key and password must be set");
+            }
+            byte[] rawKey = key != null ? key : derive();
+            try {
+                if (mode == Mode.DES_LEGACY) {
+                    if (rawKey.length < DESKeySpec.DES_KEY_LEN) {
+                        throw new IllegalArgumentException("DES key must be at least 8 bytes");
+                    }
+                    return new CipherService(mode, SecretKeyFactory.getInstance("DES").generateSecret(new DESKeySpec(rawKey)));
+                }
+                if (rawKey.length != 16 && rawKey.length != 24 && rawKey.length != 32) {
+                    throw new IllegalArgumentException("AES key must be 16, 24 or 32 bytes");
+                }
+                return new CipherService(mode, new SecretKeySpec(rawKey, mode.algorithm));
+            } catch (GeneralSecurityException e) {
+                throw new IllegalArgumentException("invalid key: " + e.getMessage(), e);
+            } finally {
+                if (rawKey != key) {
+                    Arrays.fill(rawKey, (byte) 0);
+                }
+            }
+        }
+
+        private byte[] derive() {
+            if (salt == null || salt.length < 8) {
+                throw new IllegalArgumentException("salt must be at least 8 bytes");
+            }
+            if (iterations <= 0) {
+                throw new IllegalArgumentException("iterations must be greater than 0");
+            }
+            PBEKeySpec spec = new PBEKeySpec(password, salt, iterations, mode.derivedKeyLength * 8);
+            try {
+                return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+            } catch (GeneralSecurityException e) {
+                throw new IllegalArgumentException("derive key failed: " + e.getMessage(), e);
+            } finally {
+                spec.clearPassword();
+            }
+        }
+    }
+}
@@ -1,27 +1,52 @@
 package cn.lyf.tools.crypto;
 
-import java.io.IOException;
-import java.security.SecureRandom;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.crypto.Cipher;
 import javax.crypto.SecretKey;
 import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.DESKeySpec;
 
-import sun.misc.BASE64Decoder;
-import sun.misc.BASE64Encoder;
-
 /**
  * DES加密 解密算法
+ * <p>
+ * DES已经不安全，只用于兼容旧数据，新数据请使用CipherService(AES_GCM)；
+ * 解密委托给CipherService.Mode.DES_LEGACY，加密结果与原来的实现逐字节相同(包括sun.misc.BASE64Encoder的换行)，
+ * 密钥和Cipher都会缓存，不再每次调用都重新创建
  *
  * @author lifq
  * @date 2015-3-17 上午10:12:11
+ * @deprecated 使用 {@link CipherService}
  */
+@Deprecated
 public class DesUtil {
     private final static String DES = "DES";
-    private final static String ENCODE = "UTF-8";
     private final static String defaultKey = "test1234";
 
+    /**
+     * sun.misc.BASE64Encoder每行57字节(76个字符)，满行后追加系统换行符
+     */
+    private final static int BYTES_PER_LINE = 57;
+
+    private final static byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+
+    private final static Map<String, SecretKey> ENCRYPT_KEYS = new ConcurrentHashMap<>();
+
+    private final static Map<String, CipherService> DECRYPT_SERVICES = new ConcurrentHashMap<>();
+
+    private final static ThreadLocal<Cipher> ENCRYPT_CIPHER = ThreadLocal.withInitial(() -> {
+        try {
+            return Cipher.getInstance(DES);
+        } catch (Exception e) {
+            throw new IllegalArgumentException("no des found", e);
+        }
+    });
+
     /**
      * 加密算法
      *
@@ -73,9 +98,7 @@ public class DesUtil {
      * @date 2015-3-17 下午02:46:43
      */
     public static String encrypt(String data) throws Exception {
-        byte[] bt = encrypt(data.getBytes(ENCODE), defaultKey.getBytes(ENCODE));
-        String strs = new BASE64Encoder().encode(bt);
-        return strs;
+        return encrypt(data, defaultKey);
     }
 
     /**
@@ -85,101 +108,60 @@ public class DesUtil {
      * @author lifq
      * @date 2015-3-17 下午02:49:52
      */
-    public static String decrypt(String data) throws IOException, Exception {
-        if (data == null)
-            return null;
-        BASE64Decoder decoder = new BASE64Decoder();
-        byte[] buf = decoder.decodeBuffer(data);
-        byte[] bt = decrypt(buf, defaultKey.getBytes(ENCODE));
-        return new String(bt, ENCODE);
+    public static String decrypt(String data) throws Exception {
+        return decrypt(data, defaultKey);
     }
 
     /**
      * Description 根据键值进行加密
      *
      * @param data
-     * @param key  加密键byte数组
+     * @param key  加密键
      * @return
      * @throws Exception
      */
     public static String encrypt(String data, String key) throws Exception {
-        byte[] bt = encrypt(data.getBytes(ENCODE), defaultKey.getBytes(ENCODE));
-        String strs = new BASE64Encoder().encode(bt);
-        return strs;
+        SecretKey secretKey = ENCRYPT_KEYS.get(key);
+        if (secretKey == null) {
+            secretKey = SecretKeyFactory.getInstance(DES).generateSecret(new DESKeySpec(key.getBytes(StandardCharsets.UTF_8)));
+            ENCRYPT_KEYS.putIfAbsent(key, secretKey);
+        }
+        Cipher cipher = ENCRYPT_CIPHER.get();
+        cipher.init(Cipher.ENCRYPT_MODE, secretKey);
+        return encodeBase64(cipher.doFinal(data.getBytes(StandardCharsets.UTF_8)));
     }
 
     /**
      * Description 根据键值进行解密
      *
      * @param data
-     * @param key  加密键byte数组
+     * @param key  加密键
      * @return
-     * @throws IOException
      * @throws Exception
      */
-    public static String decrypt(String data, String key) throws IOException,
-            Exception {
+    public static String decrypt(String data, String key) throws Exception {
         if (data == null)
             return null;
-        BASE64Decoder decoder = new BASE64Decoder();
-        byte[] buf = decoder.decodeBuffer(data);
-        byte[] bt = decrypt(buf, key.getBytes(ENCODE));
-        return new String(bt, ENCODE);
+        return DECRYPT_SERVICES.computeIfAbsent(key, k -> CipherService.builder()
+                .mode(CipherService.Mode.DES_LEGACY)
+                .key(k.getBytes(StandardCharsets.UTF_8))
+                .build()).decryptString(data);
     }
 
     /**
-     * Description 根据键值进行加密
-     *
-     * @param data
-     * @param key  加密键byte数组
-     * @return
-     * @throws Exception
+     * 与sun.misc.BASE64Encoder.encode的输出相同
      */
-    private static byte[] encrypt(byte[] data, byte[] key) throws Exception {
-        // 生成一个可信任的随机数源
-        SecureRandom sr = new SecureRandom();
-
-        // 从原始密钥数据创建DESKeySpec对象
-        DESKeySpec dks = new DESKeySpec(key);
-
-        // 创建一个密钥工厂，然后用它把DESKeySpec转换成SecretKey对象
-        SecretKeyFactory keyFactory = SecretKeyFactory.getInstance(DES);
-        SecretKey securekey = keyFactory.generateSecret(dks);
-
-        // Cipher对象实际完成加密操作
-        Cipher cipher = Cipher.getInstance(DES);
-
-        // 用密钥初始化Cipher对象
-        cipher.init(Cipher.ENCRYPT_MODE, securekey, sr);
-
-        return cipher.doFinal(data);
-    }
-
-    /**
-     * Description 根据键值进行解密
-     *
-     * @param data
-     * @param key  加密键byte数组
-     * @return
-     * @throws Exception
-     */
-    private static byte[] decrypt(byte[] data, byte[] key) throws Exception {
-        // 生成一个可信任的随机数源
-        SecureRandom sr = new SecureRandom();
-
-        // 从原始密钥数据创建DESKeySpec对象
-        DESKeySpec dks = new DESKeySpec(key);
-
-        // 创建一个密钥工厂，然后用它把DESKeySpec转换成SecretKey对象
-        SecretKeyFactory keyFactory = SecretKeyFactory.getInstance(DES);
-        SecretKey securekey = keyFactory.generateSecret(dks);
-
-        // Cipher对象实际完成解密操作
-        Cipher cipher = Cipher.getInstance(DES);
-
-        // 用密钥初始化Cipher对象
-        cipher.init(Cipher.DECRYPT_MODE, securekey, sr);
-
-        return cipher.doFinal(data);
+    private static String encodeBase64(byte[] bytes) {
+        Base64.Encoder encoder = Base64.getEncoder();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length * 4 / 3 + 8);
+        for (int offset = 0; offset < bytes.length; offset += BYTES_PER_LINE) {
+            int length = Math.min(BYTES_PER_LINE, bytes.length - offset);
+            byte[] line = encoder.encode(Arrays.copyOfRange(bytes, offset, offset + length));
+            out.write(line, 0, line.length);
+            if (length == BYTES_PER_LINE) {
+                out.write(LINE_SEPARATOR, 0, LINE_SEPARATOR.length);
+            }
+        }
+        return new String(out.toByteArray(), StandardCharsets.US_ASCII);
     }
 }
@@ -0,0 +1,595 @@
+package cn.lyf.tools.crypto;
+
+import cn.lyf.tools.io.BufferPool;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.zip.Checksum;
+
+/**
+ * @author lyf
+ * @description 多算法的流式摘要计算，Md5Util的通用版本
+ * <pre>
+ *     1. 支持MD5、SHA-1、SHA-256、CRC32C以及非加密的xxHash64、MurmurHash3_128，后两者只适合做去重的key
+ *     2. 每个线程每种算法缓存一个计算器(MessageDigest等)，hasher借出，close归还，避免每次getInstance
+ *     3. digest(InputStream/File, Algorithm...)一次读取同时计算多种摘要
+ *     4. 文件通过FileChannel读入BufferPool中的直接缓冲区，MessageDigest、xxHash64和MurmurHash3直接消费直接缓冲区，
+ *        CRC32C使用一次复制到堆内数组的数据
+ *     5. CRC32C在java 9+使用java.util.zip.CRC32C(硬件加速)，java 8使用查表实现
+ *     6. CRC32C和xxHash64的结果按大端排列，与十六进制的数值一致
+ * </pre>
+ * @since 2023/5/19 10:25:37
+ */
+public final class Digests {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final Supplier<Checksum> CRC32C_FACTORY = crc32cFactory();
+
+    private static final ThreadLocal<Hasher[]> CACHE = ThreadLocal.withInitial(() -> new Hasher[Algorithm.values().length]);
+
+    private Digests() {
+    }
+
+    /**
+     * 支持的算法
+     */
+    public enum Algorithm {
+        MD5(16),
+        SHA1(20),
+        SHA256(32),
+        CRC32C(4),
+        XXHASH64(8),
+        MURMUR3_128(16);
+
+        /**
+         * 结果的字节数
+         */
+        private final int length;
+
+        Algorithm(int length) {
+            this.length = length;
+        }
+
+        public int getLength() {
+            return length;
+        }
+    }
+
+    /**
+     * 借出当前线程缓存的计算器，用完后close归还，建议使用try-with-resources
+     *
+     * @param algorithm 算法
+     * @return 已经重置的Hasher
+     */
+    public static Hasher hasher(Algorithm algorithm) {
+        if (algorithm == null) {
+            throw new IllegalArgumentException("algorithm can't be null");
+        }
+        Hasher[] cache = CACHE.get();
+        Hasher hasher = cache[algorithm.ordinal()];
+        if (hasher == null) {
+            return newHasher(algorithm);
+        }
+        cache[algorithm.ordinal()] = null;
+        return hasher;
+    }
+
+    /**
+     * 计算字节数组的摘要
+     *
+     * @param algorithm 算法
+     * @param bytes     bytes
+     * @return 摘要
+     */
+    public static byte[] digest(Algorithm algorithm, byte[] bytes) {
+        try (Hasher hasher = hasher(algorithm)) {
+            hasher.update(bytes, 0, bytes.length);
+            return hasher.digest();
+        }
+    }
+
+    /**
+     * 计算字节数组的摘要
+     *
+     * @param algorithm 算法
+     * @param bytes     bytes
+     * @return 小写的十六进制摘要
+     */
+    public static String digestHex(Algorithm algorithm, byte[] bytes) {
+        return toHex(digest(algorithm, bytes));
+    }
+
+    /**
+     * 读取一次输入流，同时计算多种摘要
+     *
+     * @param inputStream 输入流，不会被关闭
+     * @param algorithms  算法
+     * @return 计算结果
+     * @throws IOException IOException
+     */
+    public static Result digest(InputStream inputStream, Algorithm... algorithms) throws IOException {
+        if (inputStream == null) {
+            throw new IllegalArgumentException("inputStream can't be null");
+        }
+        Hasher[] hashers = borrow(algorithms);
+        byte[] buffer = BufferPool.acquireBytes(BUFFER_SIZE);
+        try {
+            long length = 0L;
+            int count;
+            while ((count = inputStream.read(buffer)) != -1) {
+                for (Hasher hasher : hashers) {
+                    hasher.update(buffer, 0, count);
+                }
+                length += count;
+            }
+            return toResult(hashers, length);
+        } finally {
+            BufferPool.release(buffer);
+            giveBack(hashers);
+        }
+    }
+
+    /**
+     * 读取一次文件，同时计算多种摘要
+     *
+     * @param file       文件
+     * @param algorithms 算法
+     * @return 计算结果
+     * @throws IOException IOException
+     */
+    public static Result digest(File file, Algorithm... algorithms) throws IOException {
+        if (file == null || !file.isFile()) {
+            throw new IllegalArgumentException("file not exists: " + file);
+        }
+        Hasher[] hashers = borrow(algorithms);
+        boolean needsArray = false;
+        for (Hasher hasher : hashers) {
+            needsArray |= !hasher.acceptsDirect();
+        }
+        ByteBuffer buffer = BufferPool.acquireDirect(BUFFER_SIZE);
+        byte[] array = needsArray ? BufferPool.acquireBytes(BUFFER_SIZE) : null;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long length = 0L;
+            int count;
+            while ((count = channel.read(buffer)) != -1) {
+                if (count == 0) {
+                    continue;
+                }
+                buffer.flip();
+                if (array != null) {
+                    buffer.get(array, 0, count);
+                    buffer.flip();
+                }
+                for (Hasher hasher : hashers) {
+                    if (hasher.acceptsDirect()) {
+                        hasher.update(buffer);
+                        buffer.flip();
+                    } else {
+                        hasher.update(array, 0, count);
+                    }
+                }
+                buffer.clear();
+                length += count;
+            }
+            return toResult(hashers, length);
+        } finally {
+            BufferPool.release(buffer);
+            BufferPool.release(array);
+            giveBack(hashers);
+        }
+    }
+
+    /**
+     * 转成小写的十六进制字符串
+     *
+     * @param bytes bytes
+     * @return hex
+     */
+    public static String toHex(byte[] bytes) {
+        return Md5Util.encodeHex(bytes);
+    }
+
+    private static Hasher[] borrow(Algorithm... algorithms) {
+        if (algorithms == null || algorithms.length == 0) {
+            throw new IllegalArgumentException("algorithms can't be empty");
+        }
+        Hasher[] hashers = new Hasher[algorithms.length];
+        for (int i = 0; i < algorithms.length; i++) {
+            for (int j = 0; j < i; j++) {
+                if (algorithms[j] == algorithms[i]) {
+                    giveBack(hashers);
+                    throw new IllegalArgumentException("duplicate algorithm: " + algorithms[i]);
+                }
+            }
+            hashers[i] = hasher(algorithms[i]);
+        }
+        return hashers;
+    }
+
+    private static void giveBack(Hasher[] hashers) {
+        for (Hasher hasher : hashers) {
+            if (hasher != null) {
+                hasher.close();
+            }
+        }
+    }
+
+    private static Result toResult(Hasher[] hashers, long length) {
+        Map<Algorithm, byte[]> digests = new EnumMap<>(Algorithm.class);
+        for (Hasher hasher : hashers) {
+            digests.put(hasher.algorithm, hasher.digest());
+        }
+        return new Result(length, digests);
+    }
+
+    private static Hasher newHasher(Algorithm algorithm) {
+        switch (algorithm) {
+            case MD5:
+                return new MessageDigestHasher(algorithm, "MD5");
+            case SHA1:
+                return new MessageDigestHasher(algorithm, "SHA-1");
+            case SHA256:
+                return new MessageDigestHasher(algorithm, "SHA-256");
+            case CRC32C:
+                return new ChecksumHasher(algorithm, CRC32C_FACTORY.get());
+            case XXHASH64:
+                return new XxHash64Hasher(algorithm);
+            case MURMUR3_128:
+                return new Murmur3Hasher(algorithm);
+            default:
+                throw new IllegalArgumentException("unsupported algorithm: " + algorithm);
+        }
+    }
+
+    private static Supplier<Checksum> crc32cFactory() {
+        try {
+            Constructor<? extends Checksum> constructor = Class.forName("java.util.zip.CRC32C")
+                    .asSubclass(Checksum.class).getConstructor();
+            constructor.newInstance();
+            return () -> {
+                try {
+                    return constructor.newInstance();
+                } catch (ReflectiveOperationException e) {
+                    throw new IllegalStateException("create CRC32C failed", e);
+                }
+            };
+        } catch (ReflectiveOperationException e) {
+            // java 8
+            return Crc32c::new;
+        }
+    }
+
+    private static void putLong(byte[] bytes, int offset, long value, int length) {
+        for (int i = 0; i < length; i++) {
+            bytes[offset + i] = (byte) (value >>> ((length - 1 - i) * 8));
+        }
+    }
+
+    /**
+     * 一种算法的流式计算器，非线程安全
+     */
+    public abstract static class Hasher implements AutoCloseable {
+        private final Algorithm algorithm;
+
+        Hasher(Algorithm algorithm) {
+            this.algorithm = algorithm;
+        }
+
+        public Algorithm getAlgorithm() {
+            return algorithm;
+        }
+
+        public abstract void update(byte[] bytes, int offset, int length);
+
+        /**
+         * 消费buffer中position到limit的数据
+         *
+         * @param buffer buffer
+         */
+        public void update(ByteBuffer buffer) {
+            if (buffer.hasArray()) {
+                update(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                buffer.position(buffer.limit());
+                return;
+            }
+            byte[] array = BufferPool.acquireBytes(Math.min(buffer.remaining(), BUFFER_SIZE));
+            try {
+                while (buffer.hasRemaining()) {
+                    int count = Math.min(buffer.remaining(), array.length);
+                    buffer.get(array, 0, count);
+                    update(array, 0, count);
+                }
+            } finally {
+                BufferPool.release(array);
+            }
+        }
+
+        /**
+         * 计算摘要并重置，之后可以继续计算下一段数据
+         *
+         * @return 摘要
+         */
+        public abstract byte[] digest();
+
+        public String digestHex() {
+            return toHex(digest());
+        }
+
+        abstract void reset();
+
+        /**
+         * 是否可以直接消费直接缓冲区，不需要复制到堆内数组
+         */
+        boolean acceptsDirect() {
+            return false;
+        }
+
+        /**
+         * 重置并归还到当前线程的缓存
+         */
+        @Override
+        public void close() {
+            reset();
+            Hasher[] cache = CACHE.get();
+            if (cache[algorithm.ordinal()] == null) {
+                cache[algorithm.ordinal()] = this;
+            }
+        }
+    }
+
+    private static final class MessageDigestHasher extends Hasher {
+        private final MessageDigest messageDigest;
+
+        MessageDigestHasher(Algorithm algorithm, String name) {
+            super(algorithm);
+            try {
+                this.messageDigest = MessageDigest.getInstance(name);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalArgumentException("no " + name + " found");
+            }
+        }
+
+        @Override
+        public void update(byte[] bytes, int offset, int length) {
+            messageDigest.update(bytes, offset, length);
+        }
+
+        @Override
+        public void update(ByteBuffer buffer) {
+            messageDigest.update(buffer);
+        }
+
+        @Override
+        public byte[] digest() {
+            return messageDigest.digest();
+        }
+
+        @Override
+        void reset() {
+            messageDigest.reset();
+        }
+
+        @Override
+        boolean acceptsDirect() {
+            return true;
+        }
+    }
+
+    private static final class ChecksumHasher extends Hasher {
+        private final Checksum checksum;
+
+        ChecksumHasher(Algorithm algorithm, Checksum checksum) {
+            super(algorithm);
+            this.checksum = checksum;
+        }
+
+        @Override
+        public void update(byte[] bytes, int offset, int length) {
+            checksum.update(bytes, offset, length);
+        }
+
+        @Override
+        public byte[] digest() {
+            byte[] result = new byte[4];
+            putLong(result, 0, checksum.getValue(), 4);
+            checksum.reset();
+            return result;
+        }
+
+        @Override
+        void reset() {
+            checksum.reset();
+        }
+    }
+
+    private static final class XxHash64Hasher extends Hasher {
+        private final XxHash64.Streaming streaming = XxHash64.newStreaming(0L);
+
+        XxHash64Hasher(Algorithm algorithm) {
+            super(algorithm);
+        }
+
+        @Override
+        public void update(byte[] bytes, int offset, int length) {
+            streaming.update(bytes, offset, length);
+        }
+
+        @Override
+        public void update(ByteBuffer buffer) {
+            streaming.update(buffer);
+        }
+
+        @Override
+        public byte[] digest() {
+            byte[] result = new byte[8];
+            putLong(result, 0, streaming.getValue(), 8);
+            streaming.reset();
+            return result;
+        }
+
+        @Override
+        void reset() {
+            streaming.reset();
+        }
+
+        @Override
+        boolean acceptsDirect() {
+            return true;
+        }
+    }
+
+    private static final class Murmur3Hasher extends Hasher {
+        private final Murmur3.Streaming streaming = Murmur3.newStreaming(0);
+
+        Murmur3Hasher(Algorithm algorithm) {
+            super(algorithm);
+        }
+
+        @Override
+        public void update(byte[] bytes, int offset, int length) {
+            streaming.update(bytes, offset, length);
+        }
+
+        @Override
+        public void update(ByteBuffer buffer) {
+            streaming.update(buffer);
+        }
+
+        @Override
+        public byte[] digest() {
+            byte[] result = streaming.digest();
+            streaming.reset();
+            return result;
+        }
+
+        @Override
+        void reset() {
+            streaming.reset();
+        }
+
+        @Override
+        boolean acceptsDirect() {
+            return true;
+        }
+    }
+
+    /**
+     * java 8没有java.util.zip.CRC32C，使用slicing-by-8查表实现，多项式0x82F63B78(反射)
+     */
+    private static final class Crc32c implements Checksum {
+        private static final int[][] TABLE = new int[8][256];
+
+        static {
+            for (int i = 0; i < 256; i++) {
+                int crc = i;
+                for (int j = 0; j < 8; j++) {
+                    crc = (crc & 1) != 0 ? (crc >>> 1) ^ 0x82F63B78 : crc >>> 1;
+                }
+                TABLE[0][i] = crc;
+            }
+            for (int i = 0; i < 256; i++) {
+                for (int k = 1; k < 8; k++) {
+                    TABLE[k][i] = (TABLE[k - 1][i] >>> 8) ^ TABLE[0][TABLE[k - 1][i] & 0xFF];
+                }
+            }
+        }
+
+        private int crc = 0xFFFFFFFF;
+
+        @Override
+        public void update(int b) {
+            crc = (crc >>> 8) ^ TABLE[0][(crc ^ b) & 0xFF];
+        }
+
+        @Override
+        public void update(byte[] b, int off, int len) {
+            int c = crc;
+            int end = off + len;
+            int[] t0 = TABLE[0];
+            int[] t1 = TABLE[1];
+            int[] t2 = TABLE[2];
+            int[] t3 = TABLE[3];
+            int[] t4 = TABLE[4];
+            int[] t5 = TABLE[5];
+            int[] t6 = TABLE[6];
+            int[] t7 = TABLE[7];
+            while (end - off >= 8) {
+                c ^= (b[off] & 0xFF) | (b[off + 1] & 0xFF) << 8 | (b[off + 2] & 0xFF) << 16 | (b[off + 3] & 0xFF) << 24;
+                int hi = (b[off + 4] & 0xFF) | (b[off + 5] & 0xFF) << 8 | (b[off + 6] & 0xFF) << 16 | (b[off + 7] & 0xFF) << 24;
+                c = t7[c & 0xFF] ^ t6[(c >>> 8) & 0xFF] ^ t5[(c >>> 16) & 0xFF] ^ t4[c >>> 24]
+                        ^ t3[hi & 0xFF] ^ t2[(hi >>> 8) & 0xFF] ^ t1[(hi >>> 16) & 0xFF] ^ t0[hi >>> 24];
+                off += 8;
+            }
+            while (off < end) {
+                c = (c >>> 8) ^ t0[(c ^ b[off++]) & 0xFF];
+            }
+            crc = c;
+        }
+
+        @Override
+        public long getValue() {
+            return ~crc & 0xFFFFFFFFL;
+        }
+
+        @Override
+        public void reset() {
+            crc = 0xFFFFFFFF;
+        }
+    }
+
+    /**
+     * 一次多摘要计算的结果
+     */
+    public static final class Result {
+        /**
+         * 读取的字节数
+         */
+        private final long length;
+
+        private final Map<Algorithm, byte[]> digests;
+
+        Result(long length, Map<Algorithm, byte[]> digests) {
+            this.length = length;
+            this.digests = digests;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        /**
+         * @param algorithm 算法
+         * @return 摘要，没有计算该算法时返回null
+         */
+        public byte[] get(Algorithm algorithm) {
+            byte[] digest = digests.get(algorithm);
+            return digest == null ? null : digest.clone();
+        }
+
+        /**
+         * @param algorithm 算法
+         * @return 小写的十六进制摘要，没有计算该算法时返回null
+         */
+        public String hex(Algorithm algorithm) {
+            byte[] digest = digests.get(algorithm);
+            return digest == null ? null : toHex(digest);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("Result{length=").append(length);
+            digests.forEach((algorithm, digest) -> sb.append(", ").append(algorithm).append('=').append(toHex(digest)));
+            return sb.append('}').toString();
+        }
+    }
+}
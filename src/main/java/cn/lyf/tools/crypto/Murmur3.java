@@ -0,0 +1,235 @@
+package cn.lyf.tools.crypto;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * @author lyf
+ * @description MurmurHash3 x64 128位，非加密的快速哈希，适合做去重的key，不能用于安全场景
+ * <pre>
+ *     1. 与官方实现(MurmurHash3_x64_128)的结果一致，结果按h1、h2的小端字节排列，与Guava的Hashing.murmur3_128()相同
+ *     2. 数据分多次到达时使用Streaming，结果与一次性计算相同
+ * </pre>
+ * @since 2023/5/19 9:42:18
+ */
+public final class Murmur3 {
+    /**
+     * 结果的字节数
+     */
+    public static final int HASH_LENGTH = 16;
+
+    private static final long C1 = 0x87C37B91114253D5L;
+
+    private static final long C2 = 0x4CF5AD432745937FL;
+
+    private Murmur3() {
+    }
+
+    /**
+     * 计算字节数组的MurmurHash3 x64 128位，seed为0
+     *
+     * @param bytes bytes
+     * @return 16字节的hash
+     */
+    public static byte[] hash128(byte[] bytes) {
+        return hash128(bytes, 0, bytes.length, 0);
+    }
+
+    /**
+     * 计算字节数组指定区间的MurmurHash3 x64 128位
+     *
+     * @param bytes  bytes
+     * @param offset 起始位置
+     * @param length 长度
+     * @param seed   种子
+     * @return 16字节的hash
+     */
+    public static byte[] hash128(byte[] bytes, int offset, int length, int seed) {
+        Streaming streaming = new Streaming(seed);
+        streaming.update(bytes, offset, length);
+        return streaming.digest();
+    }
+
+    /**
+     * 创建流式计算器
+     *
+     * @param seed 种子
+     * @return Streaming
+     */
+    public static Streaming newStreaming(int seed) {
+        return new Streaming(seed);
+    }
+
+    private static long mixK1(long k1) {
+        k1 *= C1;
+        k1 = Long.rotateLeft(k1, 31);
+        return k1 * C2;
+    }
+
+    private static long mixK2(long k2) {
+        k2 *= C2;
+        k2 = Long.rotateLeft(k2, 33);
+        return k2 * C1;
+    }
+
+    private static long fmix(long k) {
+        k ^= k >>> 33;
+        k *= 0xFF51AFD7ED558CCDL;
+        k ^= k >>> 33;
+        k *= 0xC4CEB9FE1A85EC53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    private static long getLong(byte[] b, int i) {
+        return (b[i] & 0xFFL)
+                | (b[i + 1] & 0xFFL) << 8
+                | (b[i + 2] & 0xFFL) << 16
+                | (b[i + 3] & 0xFFL) << 24
+                | (b[i + 4] & 0xFFL) << 32
+                | (b[i + 5] & 0xFFL) << 40
+                | (b[i + 6] & 0xFFL) << 48
+                | (b[i + 7] & 0xFFL) << 56;
+    }
+
+    private static void putLong(byte[] b, int i, long value) {
+        for (int j = 0; j < 8; j++) {
+            b[i + j] = (byte) (value >>> (j * 8));
+        }
+    }
+
+    /**
+     * 流式计算，非线程安全，可以reset后复用
+     */
+    public static final class Streaming {
+        private final int seed;
+
+        /**
+         * 不足16字节的数据先缓存起来
+         */
+        private final byte[] pending = new byte[16];
+
+        private int pendingLength;
+
+        private long totalLength;
+
+        private long h1;
+
+        private long h2;
+
+        private Streaming(int seed) {
+            this.seed = seed;
+            reset();
+        }
+
+        public void reset() {
+            h1 = seed & 0xFFFFFFFFL;
+            h2 = seed & 0xFFFFFFFFL;
+            pendingLength = 0;
+            totalLength = 0L;
+        }
+
+        public void update(byte[] bytes, int offset, int length) {
+            if (offset < 0 || length < 0 || offset > bytes.length - length) {
+                throw new IllegalArgumentException("offset or length out of range");
+            }
+            totalLength += length;
+            int p = offset;
+            int end = offset + length;
+            if (pendingLength > 0) {
+                int count = Math.min(16 - pendingLength, length);
+                System.arraycopy(bytes, p, pending, pendingLength, count);
+                pendingLength += count;
+                p += count;
+                if (pendingLength < 16) {
+                    return;
+                }
+                block(getLong(pending, 0), getLong(pending, 8));
+                pendingLength = 0;
+            }
+            while (p + 16 <= end) {
+                block(getLong(bytes, p), getLong(bytes, p + 8));
+                p += 16;
+            }
+            if (p < end) {
+                System.arraycopy(bytes, p, pending, 0, end - p);
+                pendingLength = end - p;
+            }
+        }
+
+        /**
+         * 消费buffer中position到limit的数据，直接缓冲区按小端直接读取long，不需要复制到堆内数组
+         *
+         * @param buffer buffer
+         */
+        public void update(ByteBuffer buffer) {
+            ByteBuffer b = buffer.order() == ByteOrder.LITTLE_ENDIAN ? buffer : buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            int p = buffer.position();
+            int end = buffer.limit();
+            totalLength += end - p;
+            if (pendingLength > 0) {
+                while (pendingLength < 16 && p < end) {
+                    pending[pendingLength++] = b.get(p++);
+                }
+                if (pendingLength < 16) {
+                    buffer.position(end);
+                    return;
+                }
+                block(getLong(pending, 0), getLong(pending, 8));
+                pendingLength = 0;
+            }
+            while (p + 16 <= end) {
+                block(b.getLong(p), b.getLong(p + 8));
+                p += 16;
+            }
+            while (p < end) {
+                pending[pendingLength++] = b.get(p++);
+            }
+            buffer.position(end);
+        }
+
+        /**
+         * 计算当前的哈希值，不影响后续的update
+         *
+         * @return 16字节的hash
+         */
+        public byte[] digest() {
+            long k1 = 0L;
+            long k2 = 0L;
+            for (int i = pendingLength - 1; i >= 8; i--) {
+                k2 ^= (pending[i] & 0xFFL) << ((i - 8) * 8);
+            }
+            for (int i = Math.min(pendingLength, 8) - 1; i >= 0; i--) {
+                k1 ^= (pending[i] & 0xFFL) << (i * 8);
+            }
+            long r1 = h1 ^ mixK1(k1);
+            long r2 = h2 ^ mixK2(k2);
+
+            r1 ^= totalLength;
+            r2 ^= totalLength;
+            r1 += r2;
+            r2 += r1;
+            r1 = fmix(r1);
+            r2 = fmix(r2);
+            r1 += r2;
+            r2 += r1;
+
+            byte[] result = new byte[HASH_LENGTH];
+            putLong(result, 0, r1);
+            putLong(result, 8, r2);
+            return result;
+        }
+
+        private void block(long k1, long k2) {
+            h1 ^= mixK1(k1);
+            h1 = Long.rotateLeft(h1, 27);
+            h1 += h2;
+            h1 = h1 * 5 + 0x52DCE729;
+
+            h2 ^= mixK2(k2);
+            h2 = Long.rotateLeft(h2, 31);
+            h2 += h1;
+            h2 = h2 * 5 + 0x38495AB5;
+        }
+    }
+}
@@ -2,18 +2,44 @@ package cn.lyf.tools.crypto;
 
 import cn.lyf.tools.str.StringUtil;
 
+import java.nio.charset.StandardCharsets;
+
 /**
  * @author lyf
  * @description: 密码工具类
+ * <pre>
+ *     1. 新加密的密码格式为 PREFIX + CipherService(AES_GCM)的Base64结果，每次加密的结果都不同
+ *     2. 密钥由-Dcn.lyf.crypto.password.secret指定的口令经PBKDF2派生，只在第一次使用时派生一次，
+ *        未指定时新格式的加密和解密都抛出IllegalStateException，不会退回到内置的口令
+ *     3. 没有PREFIX的是旧格式: 20字符的BCrypt片段 + 20轮DES，解密时通过CipherService.Mode.DES_LEGACY兼容，
+ *        旧版的DES密钥只用于解密旧数据，不需要指定口令
+ * </pre>
  * @version: v1.0
  * @since 2022-03-30 19:46
  */
 public final class PasswordUtil {
+    /**
+     * 派生密钥的口令
+     */
+    public static final String SECRET_PROPERTY = "cn.lyf.crypto.password.secret";
+
+    /**
+     * 新格式的前缀
+     */
+    private static final String PREFIX = "{aes}";
+
     /**
      * 加解密的次数
      */
     private static final int ENCRYPT_DECRYPT_TIMES = 20;
 
+    /**
+     * 旧版DesUtil的密钥，只用于解密旧格式
+     */
+    private static final String LEGACY_KEY = "test1234";
+
+    private static final byte[] SALT = "cn.lyf.tools.crypto.PasswordUtil".getBytes(StandardCharsets.UTF_8);
+
     private PasswordUtil() {
     }
 
@@ -27,14 +53,11 @@ public final class PasswordUtil {
         if (StringUtil.isEmpty(password)) {
             throw new IllegalArgumentException("password not be null");
         }
-        String passwordPart1 = BCrypt.hashpw(password, BCrypt.gensalt()).substring(0, ENCRYPT_DECRYPT_TIMES);
-        String passwordPart2 = DesUtil.encrypt(password, ENCRYPT_DECRYPT_TIMES);
-
-        return passwordPart1 + passwordPart2;
+        return PREFIX + aes().encryptString(password);
     }
 
     /**
-     * 对密码进行解密
+     * 对密码进行解密，兼容旧的DES格式
      *
      * @param password password
      * @return 解密后的密码
@@ -43,7 +66,50 @@ public final class PasswordUtil {
         if (StringUtil.isEmpty(password)) {
             throw new IllegalArgumentException("password not be null");
         }
+        if (password.startsWith(PREFIX)) {
+            return aes().decryptString(password.substring(PREFIX.length()));
+        }
 
-        return DesUtil.decrypt(password.substring(ENCRYPT_DECRYPT_TIMES), ENCRYPT_DECRYPT_TIMES);
+        String decryptData = password.substring(ENCRYPT_DECRYPT_TIMES);
+        for (int i = 0; i < ENCRYPT_DECRYPT_TIMES; i++) {
+            decryptData = Services.LEGACY.decryptString(decryptData);
+        }
+        return decryptData;
+    }
+
+    private static CipherService aes() {
+        if (Services.AES == null) {
+            throw new IllegalStateException("-D" + SECRET_PROPERTY + " is not set, can't encrypt or decrypt " + PREFIX + " passwords");
+        }
+        return Services.AES;
+    }
+
+    /**
+     * 第一次使用时才派生密钥
+     */
+    private static final class Services {
+        /**
+         * 未指定口令时为null
+         */
+        private static final CipherService AES = createAes();
+
+        private static final CipherService LEGACY = CipherService.builder()
+                .mode(CipherService.Mode.DES_LEGACY)
+                .key(LEGACY_KEY.getBytes(StandardCharsets.UTF_8))
+                .build();
+
+        private Services() {
+        }
+
+        private static CipherService createAes() {
+            String secret = System.getProperty(SECRET_PROPERTY);
+            if (StringUtil.isEmpty(secret)) {
+                return null;
+            }
+            return CipherService.builder()
+                    .mode(CipherService.Mode.AES_GCM)
+                    .password(secret.toCharArray(), SALT)
+                    .build();
+        }
     }
 }
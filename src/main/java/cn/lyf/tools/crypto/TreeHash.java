@@ -0,0 +1,396 @@
+package cn.lyf.tools.crypto;
+
+import cn.lyf.tools.io.BufferPool;
+import cn.lyf.tools.io.IoUtil;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * @author lyf
+ * @description 文件的Merkle树哈希，大文件按固定大小分成叶子，在ForkJoinPool中并行计算，用于校验多G的大文件
+ * <pre>
+ *     1. 叶子哈希 = H(0x00 + 叶子数据)，父节点 = H(0x01 + 左 + 右)，落单的节点直接提升到上一层(与RFC 6962的区分前缀一致)
+ *     2. 每个叶子由一个任务通过FileChannel的定位读读入BufferPool中的直接缓冲区，多个任务互不影响文件位置
+ *     3. 保存了所有叶子的哈希，verify(file)找出内容变化的叶子，verifyRange只重新计算与区间重叠的叶子，
+ *        update在原地修改一段数据之后只重新计算这些叶子并得到新的根
+ *     4. 二进制格式(大端): magic(4) + version(1) + 算法(1) + 叶子大小(4) + 文件长度(8) + 叶子数(4) + 叶子哈希...
+ *     5. 根哈希与MD5等整文件摘要不同，两端必须使用相同的算法和叶子大小
+ * </pre>
+ * @since 2023/5/19 16:08:51
+ */
+public final class TreeHash {
+    /**
+     * 默认的叶子大小，4M
+     */
+    public static final int DEFAULT_LEAF_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * "LYFT"
+     */
+    private static final int MAGIC = 0x4C594654;
+
+    private static final byte VERSION = 1;
+
+    private static final byte[] LEAF_PREFIX = {0};
+
+    private static final byte[] NODE_PREFIX = {1};
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final Digests.Algorithm algorithm;
+
+    private final int leafSize;
+
+    private final long length;
+
+    private final byte[][] leaves;
+
+    private final byte[] root;
+
+    private TreeHash(Digests.Algorithm algorithm, int leafSize, long length, byte[][] leaves) {
+        this.algorithm = algorithm;
+        this.leafSize = leafSize;
+        this.length = length;
+        this.leaves = leaves;
+        this.root = computeRoot(algorithm, leaves);
+    }
+
+    /**
+     * 使用SHA-256、默认叶子大小和ForkJoinPool.commonPool()计算
+     *
+     * @param file 文件
+     * @return TreeHash
+     * @throws IOException IOException
+     */
+    public static TreeHash compute(File file) throws IOException {
+        return compute(file, Digests.Algorithm.SHA256, DEFAULT_LEAF_SIZE, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * 并行计算文件的树哈希
+     *
+     * @param file      文件
+     * @param algorithm 叶子和节点使用的算法
+     * @param leafSize  叶子大小
+     * @param pool      并行计算的线程池，并行度即同时读取的叶子数
+     * @return TreeHash
+     * @throws IOException IOException
+     */
+    public static TreeHash compute(File file, Digests.Algorithm algorithm, int leafSize, ForkJoinPool pool) throws IOException {
+        if (algorithm == null || pool == null) {
+            throw new IllegalArgumentException("algorithm and pool can't be null");
+        }
+        if (leafSize <= 0) {
+            throw new IllegalArgumentException("leafSize must be greater than 0");
+        }
+        checkFile(file);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long length = channel.size();
+            byte[][] leaves = new byte[leafCount(length, leafSize)][];
+            hashLeaves(channel, algorithm, leafSize, length, leaves, 0, leaves.length, pool);
+            return new TreeHash(algorithm, leafSize, length, leaves);
+        }
+    }
+
+    /**
+     * 重新计算所有叶子，找出内容变化的叶子
+     *
+     * @param file 文件
+     * @param pool 并行计算的线程池
+     * @return 变化的叶子序号(从0开始)，文件长度变化时多出或者缺少的叶子也算变化
+     * @throws IOException IOException
+     */
+    public List<Integer> verify(File file, ForkJoinPool pool) throws IOException {
+        TreeHash current = compute(file, algorithm, leafSize, pool);
+        List<Integer> changed = new ArrayList<>();
+        int count = Math.max(leaves.length, current.leaves.length);
+        for (int i = 0; i < count; i++) {
+            if (i >= leaves.length || i >= current.leaves.length || !Arrays.equals(leaves[i], current.leaves[i])) {
+                changed.add(i);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * 只重新计算与[position, position + count)重叠的叶子，找出其中内容变化的叶子
+     *
+     * @param file     文件，长度必须与计算时相同
+     * @param position 起始位置
+     * @param count    字节数
+     * @return 变化的叶子序号(从0开始)
+     * @throws IOException IOException
+     */
+    public List<Integer> verifyRange(File file, long position, long count) throws IOException {
+        byte[][] rehashed = rehash(file, position, count);
+        List<Integer> changed = new ArrayList<>();
+        for (int i = 0; i < leaves.length; i++) {
+            if (rehashed[i] != leaves[i] && !Arrays.equals(rehashed[i], leaves[i])) {
+                changed.add(i);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * 文件的[position, position + count)被原地修改之后，只重新计算这些叶子，得到新的树哈希
+     *
+     * @param file     文件，长度必须与计算时相同
+     * @param position 起始位置
+     * @param count    字节数
+     * @return 新的TreeHash，当前对象不变
+     * @throws IOException IOException
+     */
+    public TreeHash update(File file, long position, long count) throws IOException {
+        return new TreeHash(algorithm, leafSize, length, rehash(file, position, count));
+    }
+
+    /**
+     * 写入文件，先写临时文件再重命名
+     *
+     * @param treeHashFile 目标文件
+     * @throws IOException IOException
+     */
+    public void write(File treeHashFile) throws IOException {
+        IoUtil.writeAtomically(treeHashFile, outputStream -> {
+            DataOutputStream out = new DataOutputStream(outputStream);
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeByte(algorithm.ordinal());
+            out.writeInt(leafSize);
+            out.writeLong(length);
+            out.writeInt(leaves.length);
+            for (byte[] leaf : leaves) {
+                out.write(leaf);
+            }
+        });
+    }
+
+    /**
+     * 读取write写入的文件，根哈希由叶子重新计算
+     *
+     * @param treeHashFile 文件
+     * @return TreeHash
+     * @throws IOException 文件不存在或者格式不正确
+     */
+    public static TreeHash read(File treeHashFile) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(treeHashFile)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(treeHashFile + ", 不是树哈希文件");
+            }
+            byte version = in.readByte();
+            if (version != VERSION) {
+                throw new IOException(treeHashFile + ", 不支持的版本: " + version);
+            }
+            int ordinal = in.readByte();
+            Digests.Algorithm[] algorithms = Digests.Algorithm.values();
+            if (ordinal < 0 || ordinal >= algorithms.length) {
+                throw new IOException(treeHashFile + ", 未知的算法: " + ordinal);
+            }
+            Digests.Algorithm algorithm = algorithms[ordinal];
+            int leafSize = in.readInt();
+            long length = in.readLong();
+            int leafCount = in.readInt();
+            if (leafSize <= 0 || length < 0 || leafCount != leafCount(length, leafSize)) {
+                throw new IOException(treeHashFile + ", 叶子信息非法");
+            }
+            byte[][] leaves = new byte[leafCount][];
+            for (int i = 0; i < leafCount; i++) {
+                leaves[i] = new byte[algorithm.getLength()];
+                in.readFully(leaves[i]);
+            }
+            return new TreeHash(algorithm, leafSize, length, leaves);
+        }
+    }
+
+    public Digests.Algorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    public int getLeafSize() {
+        return leafSize;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public int getLeafCount() {
+        return leaves.length;
+    }
+
+    public byte[] getLeaf(int index) {
+        return leaves[index].clone();
+    }
+
+    public byte[] getRoot() {
+        return root.clone();
+    }
+
+    public String getRootHex() {
+        return Digests.toHex(root);
+    }
+
+    @Override
+    public String toString() {
+        return "TreeHash{algorithm=" + algorithm + ", leafSize=" + leafSize + ", length=" + length
+                + ", leafCount=" + leaves.length + ", root=" + getRootHex() + '}';
+    }
+
+    /**
+     * 复制叶子数组，重新计算与区间重叠的叶子，其余叶子与当前对象共享
+     */
+    private byte[][] rehash(File file, long position, long count) throws IOException {
+        if (position < 0 || count < 0) {
+            throw new IllegalArgumentException("position and count can't be negative");
+        }
+        checkFile(file);
+        byte[][] rehashed = leaves.clone();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() != length) {
+                throw new IllegalArgumentException("file length changed from " + length + " to " + channel.size() + ", compute again");
+            }
+            if (count == 0 || position >= length) {
+                return rehashed;
+            }
+            int from = (int) (position / leafSize);
+            int to = (int) ((Math.min(length, position + count) - 1) / leafSize) + 1;
+            // 区间通常只有几个叶子，在调用线程中计算即可
+            for (int i = from; i < to; i++) {
+                rehashed[i] = hashLeaf(channel, algorithm, leafSize, length, i);
+            }
+        }
+        return rehashed;
+    }
+
+    private static void hashLeaves(FileChannel channel, Digests.Algorithm algorithm, int leafSize, long length,
+                                   byte[][] leaves, int from, int to, ForkJoinPool pool) throws IOException {
+        if (to - from <= 0) {
+            return;
+        }
+        LeafTask task = new LeafTask(channel, algorithm, leafSize, length, leaves, from, to);
+        try {
+            pool.invoke(task);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static byte[] hashLeaf(FileChannel channel, Digests.Algorithm algorithm, int leafSize, long length, int index) throws IOException {
+        long start = (long) index * leafSize;
+        long end = Math.min(length, start + leafSize);
+        ByteBuffer buffer = BufferPool.acquireDirect(READ_BUFFER_SIZE);
+        try (Digests.Hasher hasher = Digests.hasher(algorithm)) {
+            hasher.update(LEAF_PREFIX, 0, 1);
+            long position = start;
+            while (position < end) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), end - position));
+                int count = channel.read(buffer, position);
+                if (count < 0) {
+                    throw new EOFException("file was truncated while hashing");
+                }
+                buffer.flip();
+                hasher.update(buffer);
+                position += count;
+            }
+            return hasher.digest();
+        } finally {
+            BufferPool.release(buffer);
+        }
+    }
+
+    private static byte[] computeRoot(Digests.Algorithm algorithm, byte[][] leaves) {
+        if (leaves.length == 0) {
+            // 空文件的根为H(0x00)
+            return Digests.digest(algorithm, LEAF_PREFIX);
+        }
+        byte[][] level = leaves;
+        try (Digests.Hasher hasher = Digests.hasher(algorithm)) {
+            while (level.length > 1) {
+                byte[][] parent = new byte[(level.length + 1) / 2][];
+                for (int i = 0; i < parent.length; i++) {
+                    int left = i * 2;
+                    if (left + 1 == level.length) {
+                        parent[i] = level[left];
+                        continue;
+                    }
+                    hasher.update(NODE_PREFIX, 0, 1);
+                    hasher.update(level[left], 0, level[left].length);
+                    hasher.update(level[left + 1], 0, level[left + 1].length);
+                    parent[i] = hasher.digest();
+                }
+                level = parent;
+            }
+        }
+        return level[0].clone();
+    }
+
+    private static int leafCount(long length, int leafSize) {
+        long count = (length + leafSize - 1) / leafSize;
+        if (count > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("leafSize is too small for file length " + length);
+        }
+        return (int) count;
+    }
+
+    private static void checkFile(File file) {
+        if (file == null || !file.isFile()) {
+            throw new IllegalArgumentException("file not exists: " + file);
+        }
+    }
+
+    /**
+     * 二分叶子区间，只剩一个叶子时读取并计算
+     */
+    private static final class LeafTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final transient FileChannel channel;
+
+        private final Digests.Algorithm algorithm;
+
+        private final int leafSize;
+
+        private final long length;
+
+        private final byte[][] leaves;
+
+        private final int from;
+
+        private final int to;
+
+        LeafTask(FileChannel channel, Digests.Algorithm algorithm, int leafSize, long length, byte[][] leaves, int from, int to) {
+            this.channel = channel;
+            this.algorithm = algorithm;
+            this.leafSize = leafSize;
+            this.length = length;
+            this.leaves = leaves;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                try {
+                    leaves[from] = hashLeaf(channel, algorithm, leafSize, length, from);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new LeafTask(channel, algorithm, leafSize, length, leaves, from, middle),
+                    new LeafTask(channel, algorithm, leafSize, length, leaves, middle, to));
+        }
+    }
+}
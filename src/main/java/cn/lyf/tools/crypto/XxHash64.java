@@ -0,0 +1,287 @@
+package cn.lyf.tools.crypto;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * @author lyf
+ * @description xxHash64，非加密的快速哈希，适合做分片指纹、去重等完整性校验，不能用于安全场景
+ * <pre>
+ *     1. 与官方实现(XXH64)的结果一致，多字节按小端读取
+ *     2. 数据分多次到达时使用Streaming，结果与一次性计算相同
+ * </pre>
+ * @since 2023/5/15 15:40:12
+ */
+public final class XxHash64 {
+    private static final long PRIME64_1 = 0x9E3779B185EBCA87L;
+
+    private static final long PRIME64_2 = 0xC2B2AE3D27D4EB4FL;
+
+    private static final long PRIME64_3 = 0x165667B19E3779F9L;
+
+    private static final long PRIME64_4 = 0x85EBCA77C2B2AE63L;
+
+    private static final long PRIME64_5 = 0x27D4EB2F165667C5L;
+
+    private XxHash64() {
+    }
+
+    /**
+     * 计算字节数组的xxHash64，seed为0
+     *
+     * @param bytes bytes
+     * @return hash
+     */
+    public static long hash(byte[] bytes) {
+        return hash(bytes, 0, bytes.length, 0L);
+    }
+
+    /**
+     * 计算字节数组指定区间的xxHash64
+     *
+     * @param bytes  bytes
+     * @param offset 起始位置
+     * @param length 长度
+     * @param seed   种子
+     * @return hash
+     */
+    public static long hash(byte[] bytes, int offset, int length, long seed) {
+        if (offset < 0 || length < 0 || offset > bytes.length - length) {
+            throw new IllegalArgumentException("offset or length out of range");
+        }
+        int end = offset + length;
+        int p = offset;
+        long h;
+        if (length >= 32) {
+            long v1 = seed + PRIME64_1 + PRIME64_2;
+            long v2 = seed + PRIME64_2;
+            long v3 = seed;
+            long v4 = seed - PRIME64_1;
+            int limit = end - 32;
+            do {
+                v1 = round(v1, getLong(bytes, p));
+                v2 = round(v2, getLong(bytes, p + 8));
+                v3 = round(v3, getLong(bytes, p + 16));
+                v4 = round(v4, getLong(bytes, p + 24));
+                p += 32;
+            } while (p <= limit);
+            h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            h = mergeRound(h, v1);
+            h = mergeRound(h, v2);
+            h = mergeRound(h, v3);
+            h = mergeRound(h, v4);
+        } else {
+            h = seed + PRIME64_5;
+        }
+        h += length;
+
+        while (p + 8 <= end) {
+            h ^= round(0L, getLong(bytes, p));
+            h = Long.rotateLeft(h, 27) * PRIME64_1 + PRIME64_4;
+            p += 8;
+        }
+        if (p + 4 <= end) {
+            h ^= (getInt(bytes, p) & 0xFFFFFFFFL) * PRIME64_1;
+            h = Long.rotateLeft(h, 23) * PRIME64_2 + PRIME64_3;
+            p += 4;
+        }
+        while (p < end) {
+            h ^= (bytes[p] & 0xFFL) * PRIME64_5;
+            h = Long.rotateLeft(h, 11) * PRIME64_1;
+            p++;
+        }
+        return avalanche(h);
+    }
+
+    /**
+     * 创建流式计算器
+     *
+     * @param seed 种子
+     * @return Streaming
+     */
+    public static Streaming newStreaming(long seed) {
+        return new Streaming(seed);
+    }
+
+    private static long round(long acc, long input) {
+        acc += input * PRIME64_2;
+        acc = Long.rotateLeft(acc, 31);
+        return acc * PRIME64_1;
+    }
+
+    private static long mergeRound(long acc, long val) {
+        acc ^= round(0L, val);
+        return acc * PRIME64_1 + PRIME64_4;
+    }
+
+    private static long avalanche(long h) {
+        h ^= h >>> 33;
+        h *= PRIME64_2;
+        h ^= h >>> 29;
+        h *= PRIME64_3;
+        h ^= h >>> 32;
+        return h;
+    }
+
+    private static long getLong(byte[] b, int i) {
+        return (b[i] & 0xFFL)
+                | (b[i + 1] & 0xFFL) << 8
+                | (b[i + 2] & 0xFFL) << 16
+                | (b[i + 3] & 0xFFL) << 24
+                | (b[i + 4] & 0xFFL) << 32
+                | (b[i + 5] & 0xFFL) << 40
+                | (b[i + 6] & 0xFFL) << 48
+                | (b[i + 7] & 0xFFL) << 56;
+    }
+
+    private static int getInt(byte[] b, int i) {
+        return (b[i] & 0xFF)
+                | (b[i + 1] & 0xFF) << 8
+                | (b[i + 2] & 0xFF) << 16
+                | (b[i + 3] & 0xFF) << 24;
+    }
+
+    /**
+     * 流式计算，非线程安全，可以reset后复用
+     */
+    public static final class Streaming {
+        private final long seed;
+
+        /**
+         * 不足32字节的数据先缓存起来
+         */
+        private final byte[] pending = new byte[32];
+
+        private int pendingLength;
+
+        private long totalLength;
+
+        private long v1;
+
+        private long v2;
+
+        private long v3;
+
+        private long v4;
+
+        private Streaming(long seed) {
+            this.seed = seed;
+            reset();
+        }
+
+        public void reset() {
+            v1 = seed + PRIME64_1 + PRIME64_2;
+            v2 = seed + PRIME64_2;
+            v3 = seed;
+            v4 = seed - PRIME64_1;
+            pendingLength = 0;
+            totalLength = 0L;
+        }
+
+        public void update(byte[] bytes, int offset, int length) {
+            if (offset < 0 || length < 0 || offset > bytes.length - length) {
+                throw new IllegalArgumentException("offset or length out of range");
+            }
+            totalLength += length;
+            int p = offset;
+            int end = offset + length;
+            if (pendingLength > 0) {
+                int count = Math.min(32 - pendingLength, length);
+                System.arraycopy(bytes, p, pending, pendingLength, count);
+                pendingLength += count;
+                p += count;
+                if (pendingLength < 32) {
+                    return;
+                }
+                stripe(pending, 0);
+                pendingLength = 0;
+            }
+            while (p + 32 <= end) {
+                stripe(bytes, p);
+                p += 32;
+            }
+            if (p < end) {
+                System.arraycopy(bytes, p, pending, 0, end - p);
+                pendingLength = end - p;
+            }
+        }
+
+        /**
+         * 消费buffer中position到limit的数据，直接缓冲区按小端直接读取long，不需要复制到堆内数组
+         *
+         * @param buffer buffer
+         */
+        public void update(ByteBuffer buffer) {
+            ByteBuffer b = buffer.order() == ByteOrder.LITTLE_ENDIAN ? buffer : buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            int p = buffer.position();
+            int end = buffer.limit();
+            totalLength += end - p;
+            if (pendingLength > 0) {
+                while (pendingLength < 32 && p < end) {
+                    pending[pendingLength++] = b.get(p++);
+                }
+                if (pendingLength < 32) {
+                    buffer.position(end);
+                    return;
+                }
+                stripe(pending, 0);
+                pendingLength = 0;
+            }
+            while (p + 32 <= end) {
+                v1 = round(v1, b.getLong(p));
+                v2 = round(v2, b.getLong(p + 8));
+                v3 = round(v3, b.getLong(p + 16));
+                v4 = round(v4, b.getLong(p + 24));
+                p += 32;
+            }
+            while (p < end) {
+                pending[pendingLength++] = b.get(p++);
+            }
+            buffer.position(end);
+        }
+
+        /**
+         * 计算当前的哈希值，不影响后续的update
+         *
+         * @return hash
+         */
+        public long getValue() {
+            long h;
+            if (totalLength >= 32) {
+                h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+                h = mergeRound(h, v1);
+                h = mergeRound(h, v2);
+                h = mergeRound(h, v3);
+                h = mergeRound(h, v4);
+            } else {
+                h = seed + PRIME64_5;
+            }
+            h += totalLength;
+
+            int p = 0;
+            while (p + 8 <= pendingLength) {
+                h ^= round(0L, getLong(pending, p));
+                h = Long.rotateLeft(h, 27) * PRIME64_1 + PRIME64_4;
+                p += 8;
+            }
+            if (p + 4 <= pendingLength) {
+                h ^= (getInt(pending, p) & 0xFFFFFFFFL) * PRIME64_1;
+                h = Long.rotateLeft(h, 23) * PRIME64_2 + PRIME64_3;
+                p += 4;
+            }
+            while (p < pendingLength) {
+                h ^= (pending[p] & 0xFFL) * PRIME64_5;
+                h = Long.rotateLeft(h, 11) * PRIME64_1;
+                p++;
+            }
+            return avalanche(h);
+        }
+
+        private void stripe(byte[] bytes, int p) {
+            v1 = round(v1, getLong(bytes, p));
+            v2 = round(v2, getLong(bytes, p + 8));
+            v3 = round(v3, getLong(bytes, p + 16));
+            v4 = round(v4, getLong(bytes, p + 24));
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package cn.lyf.tools.id;
+
+import cn.lyf.tools.thread.ExecutorBuilder;
+import cn.lyf.tools.thread.ThreadPoolUtils;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author lyf
+ * @description 预生成ID的环形缓冲区，包装IdWorker
+ * <pre>
+ *     1. 后台批量预留ID(IdWorker.reserveRange)填满环形缓冲区，补充在专用的id-buffer-refill线程中执行，
+ *        共享的定时线程池只做巡检，不会被一次补充阻塞
+ *     2. 调用方获取ID时只需要一次CAS移动读游标，不再读取时钟
+ *     3. 剩余ID数低于refillThreshold时触发后台补充，同时定时巡检补充
+ *     4. 缓冲区被取空时回退为同步调用IdWorker.nextId()，并记录回退次数
+ * </pre>
+ * 注意: 缓冲区中的ID是提前生成的，ID中的时间戳会略早于实际取用时间，且多线程下取到的ID不保证全局严格递增
+ * @since 2023/5/9 9:52:08
+ */
+@Slf4j
+public final class BufferedIdWorker implements IdGenerator, AutoCloseable {
+    /**
+     * 默认的缓冲区大小
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+    /**
+     * 默认的定时巡检间隔，毫秒
+     */
+    public static final long DEFAULT_REFILL_INTERVAL_MILLIS = 10L;
+
+    private final IdWorker delegate;
+
+    private final long[] slots;
+
+    private final int mask;
+
+    /**
+     * 剩余ID数低于该值时触发补充
+     */
+    private final int refillThreshold;
+
+    /**
+     * 读游标，下一个可取的位置
+     */
+    private final PaddedAtomicLong head = new PaddedAtomicLong(0L);
+
+    /**
+     * 写游标，已发布的ID的下一个位置，只有补充任务会写
+     */
+    private final PaddedAtomicLong tail = new PaddedAtomicLong(0L);
+
+    /**
+     * 保证同一时刻只有一个补充任务在运行
+     */
+    private final AtomicBoolean refilling = new AtomicBoolean(false);
+
+    /**
+     * 缓冲区为空，回退为同步生成的次数
+     */
+    private final AtomicLong fallbackCount = new AtomicLong();
+
+    /**
+     * 补充任务执行次数
+     */
+    private final AtomicLong refillCount = new AtomicLong();
+
+    private final ScheduledFuture<?> refillFuture;
+
+    private final Runnable refillTask = this::refill;
+
+    private volatile boolean closed;
+
+    public BufferedIdWorker(IdWorker delegate) {
+        this(delegate, DEFAULT_BUFFER_SIZE, DEFAULT_BUFFER_SIZE / 2, DEFAULT_REFILL_INTERVAL_MILLIS);
+    }
+
+    /**
+     * @param delegate             实际生成ID的IdWorker
+     * @param bufferSize           缓冲区大小，会向上取整为2的幂
+     * @param refillThreshold      剩余ID数低于该值时触发补充
+     * @param refillIntervalMillis 定时巡检补充的间隔，毫秒
+     */
+    public BufferedIdWorker(IdWorker delegate, int bufferSize, int refillThreshold, long refillIntervalMillis) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("delegate can't be null");
+        }
+        if (bufferSize < 2 || bufferSize > (1 << 30)) {
+            throw new IllegalArgumentException("bufferSize must be in [2, 2^30]");
+        }
+        if (refillThreshold < 0 || refillThreshold >= bufferSize) {
+            throw new IllegalArgumentException("refillThreshold must be in [0, bufferSize)");
+        }
+        if (refillIntervalMillis <= 0) {
+            throw new IllegalArgumentException("refillIntervalMillis must be greater than 0");
+        }
+        int capacity = Integer.highestOneBit(bufferSize - 1) << 1;
+        this.delegate = delegate;
+        this.slots = new long[capacity];
+        this.mask = capacity - 1;
+        this.refillThreshold = refillThreshold;
+
+        // 先同步填满一次，避免刚启动时全部回退
+        refilling.set(true);
+        refill();
+        this.refillFuture = ThreadPoolUtils.getScheduledThreadPool()
+                .scheduleWithFixedDelay(this::triggerRefill, refillIntervalMillis, refillIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public long nextId() {
+        while (true) {
+            long current = head.get();
+            long available = tail.get() - current;
+            if (available <= 0) {
+                // 缓冲区已空，回退为同步生成
+                fallbackCount.incrementAndGet();
+                triggerRefill();
+                return delegate.nextId();
+            }
+            // 先读再CAS: CAS成功前该槽位不会被补充任务覆盖
+            long id = slots[(int) (current & mask)];
+            if (head.compareAndSet(current, current + 1)) {
+                if (available <= refillThreshold) {
+                    triggerRefill();
+                }
+                return id;
+            }
+        }
+    }
+
+    /**
+     * 缓冲区中剩余的ID个数
+     *
+     * @return remaining
+     */
+    public int remaining() {
+        return (int) Math.max(0L, tail.get() - head.get());
+    }
+
+    /**
+     * 缓冲区为空，回退为同步生成的次数
+     *
+     * @return fallbackCount
+     */
+    public long getFallbackCount() {
+        return fallbackCount.get();
+    }
+
+    /**
+     * 补充任务执行次数
+     *
+     * @return refillCount
+     */
+    public long getRefillCount() {
+        return refillCount.get();
+    }
+
+    /**
+     * 停止后台补充，之后缓冲区取空后全部回退为同步生成
+     */
+    @Override
+    public void close() {
+        closed = true;
+        refillFuture.cancel(false);
+    }
+
+    private void triggerRefill() {
+        if (closed || tail.get() - head.get() > refillThreshold) {
+            return;
+        }
+        if (refilling.compareAndSet(false, true)) {
+            try {
+                RefillExecutorHolder.REFILL_EXECUTOR.execute(refillTask);
+            } catch (RuntimeException e) {
+                refilling.set(false);
+                log.error("submit refill task failed", e);
+            }
+        }
+    }
+
+    /**
+     * 单生产者补充: 按IdWorker单次可预留的最大区间批量填充空闲槽位
+     */
+    private void refill() {
+        try {
+            refillCount.incrementAndGet();
+            long maxRange = delegate.getLayout().getSequenceMask() + 1;
+            long position = tail.get();
+            long free;
+            while ((free = slots.length - (position - head.get())) > 0) {
+                int count = (int) Math.min(free, maxRange);
+                long firstId = delegate.reserveRange(count);
+                for (int i = 0; i < count; i++) {
+                    slots[(int) ((position + i) & mask)] = firstId + i;
+                }
+                position += count;
+                // 发布，volatile写保证槽位的写入对读游标可见
+                tail.set(position);
+            }
+        } catch (RuntimeException e) {
+            log.error("refill id buffer failed", e);
+        } finally {
+            refilling.set(false);
+        }
+    }
+
+    /**
+     * 所有BufferedIdWorker共用的补充线程，每个实例同一时刻最多排队一个补充任务，首次使用时才创建
+     */
+    private static final class RefillExecutorHolder {
+        private static final Executor REFILL_EXECUTOR = ExecutorBuilder.create()
+                .corePoolSize(1)
+                .maximumPoolSize(1)
+                .workQueue(new LinkedBlockingQueue<>())
+                .threadFactory(new ThreadFactoryBuilder().setNameFormat("id-buffer-refill-%d").setDaemon(true).build())
+                .build();
+    }
+}
@@ -0,0 +1,179 @@
+package cn.lyf.tools.id;
+
+import java.util.Arrays;
+
+/**
+ * @author lyf
+ * @description Crockford Base32编解码，直接在char数组上按5位分组读写，不产生中间对象
+ * <pre>
+ *     字符表: 0123456789ABCDEFGHJKMNPQRSTVWXYZ，解码时不区分大小写，I/L按1处理，O按0处理
+ *     64位数值编码为13个字符，128位数值编码为26个字符，编码结果的字典序与数值（无符号）大小顺序一致
+ * </pre>
+ * @since 2023/5/8 10:30:02
+ */
+public final class Crockford32 {
+    /**
+     * 64位数值编码后的长度
+     */
+    public static final int LONG_ENCODED_LENGTH = 13;
+
+    /**
+     * 128位数值编码后的长度
+     */
+    public static final int UINT128_ENCODED_LENGTH = 26;
+
+    private static final char[] ENCODE_CHARS = "0123456789ABCDEFGHJKMNPQRSTVWXYZ".toCharArray();
+
+    private static final byte[] DECODE_TABLE = new byte[128];
+
+    static {
+        Arrays.fill(DECODE_TABLE, (byte) -1);
+        for (int i = 0; i < ENCODE_CHARS.length; i++) {
+            char c = ENCODE_CHARS[i];
+            DECODE_TABLE[c] = (byte) i;
+            DECODE_TABLE[Character.toLowerCase(c)] = (byte) i;
+        }
+        DECODE_TABLE['I'] = 1;
+        DECODE_TABLE['i'] = 1;
+        DECODE_TABLE['L'] = 1;
+        DECODE_TABLE['l'] = 1;
+        DECODE_TABLE['O'] = 0;
+        DECODE_TABLE['o'] = 0;
+    }
+
+    private Crockford32() {
+    }
+
+    /**
+     * 将64位数值编码为13位字符串
+     *
+     * @param value 数值，按无符号处理
+     * @return 编码后的字符串
+     */
+    public static String encode(long value) {
+        char[] chars = new char[LONG_ENCODED_LENGTH];
+        encode(value, chars, 0);
+        return new String(chars);
+    }
+
+    /**
+     * 将64位数值编码写入目标数组
+     *
+     * @param value  数值，按无符号处理
+     * @param dest   目标数组
+     * @param offset 写入的起始位置，需要预留13个字符
+     */
+    public static void encode(long value, char[] dest, int offset) {
+        for (int i = LONG_ENCODED_LENGTH - 1; i >= 0; i--) {
+            dest[offset + i] = ENCODE_CHARS[(int) (value & 0x1f)];
+            value >>>= 5;
+        }
+    }
+
+    /**
+     * 将128位数值编码为26位字符串
+     *
+     * @param high 高64位
+     * @param low  低64位
+     * @return 编码后的字符串
+     */
+    public static String encode(long high, long low) {
+        char[] chars = new char[UINT128_ENCODED_LENGTH];
+        encode(high, low, chars, 0);
+        return new String(chars);
+    }
+
+    /**
+     * 将128位数值编码写入目标数组
+     *
+     * @param high   高64位
+     * @param low    低64位
+     * @param dest   目标数组
+     * @param offset 写入的起始位置，需要预留26个字符
+     */
+    public static void encode(long high, long low, char[] dest, int offset) {
+        for (int group = 0; group < UINT128_ENCODED_LENGTH; group++) {
+            // 第group组(从低位开始)覆盖[5 * group, 5 * group + 4]位
+            int bit = group * 5;
+            int index;
+            if (bit + 4 < 64) {
+                index = (int) ((low >>> bit) & 0x1f);
+            } else if (bit >= 64) {
+                index = (int) ((high >>> (bit - 64)) & 0x1f);
+            } else {
+                // 跨越高低64位的分组
+                index = (int) (((low >>> bit) | (high << (64 - bit))) & 0x1f);
+            }
+            dest[offset + UINT128_ENCODED_LENGTH - 1 - group] = ENCODE_CHARS[index];
+        }
+    }
+
+    /**
+     * 将13位字符串解码为64位数值
+     *
+     * @param encoded 编码后的字符串
+     * @return 数值
+     */
+    public static long decode(CharSequence encoded) {
+        if (encoded == null || encoded.length() != LONG_ENCODED_LENGTH) {
+            throw new IllegalArgumentException("encoded length must be " + LONG_ENCODED_LENGTH);
+        }
+        if (digit(encoded.charAt(0)) > 15) {
+            throw new IllegalArgumentException("encoded value overflows 64 bits: " + encoded);
+        }
+        return decode(encoded, 0, LONG_ENCODED_LENGTH);
+    }
+
+    /**
+     * 解码128位数值的高64位
+     *
+     * @param encoded 26位编码字符串
+     * @return 高64位
+     */
+    public static long decodeHigh(CharSequence encoded) {
+        checkUint128(encoded);
+        // 前13个字符覆盖第129~65位，再拼上第14个字符的最高位(第64位)
+        long head = decode(encoded, 0, LONG_ENCODED_LENGTH);
+        int next = digit(encoded.charAt(LONG_ENCODED_LENGTH));
+        return (head << 1) | (next >>> 4);
+    }
+
+    /**
+     * 解码128位数值的低64位
+     *
+     * @param encoded 26位编码字符串
+     * @return 低64位
+     */
+    public static long decodeLow(CharSequence encoded) {
+        checkUint128(encoded);
+        long tail = decode(encoded, LONG_ENCODED_LENGTH + 1, UINT128_ENCODED_LENGTH);
+        int prev = digit(encoded.charAt(LONG_ENCODED_LENGTH));
+        // 第14个字符的低4位为第63~60位，后12个字符为第59~0位
+        return ((long) (prev & 0xf) << 60) | tail;
+    }
+
+    private static void checkUint128(CharSequence encoded) {
+        if (encoded == null || encoded.length() != UINT128_ENCODED_LENGTH) {
+            throw new IllegalArgumentException("encoded length must be " + UINT128_ENCODED_LENGTH);
+        }
+        if (digit(encoded.charAt(0)) > 7) {
+            throw new IllegalArgumentException("encoded value overflows 128 bits: " + encoded);
+        }
+    }
+
+    private static long decode(CharSequence encoded, int start, int end) {
+        long value = 0L;
+        for (int i = start; i < end; i++) {
+            value = (value << 5) | digit(encoded.charAt(i));
+        }
+        return value;
+    }
+
+    private static int digit(char c) {
+        int digit = c < DECODE_TABLE.length ? DECODE_TABLE[c] : -1;
+        if (digit < 0) {
+            throw new IllegalArgumentException("invalid crockford base32 char: " + c);
+        }
+        return digit;
+    }
+}
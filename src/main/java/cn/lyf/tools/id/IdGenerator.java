@@ -0,0 +1,41 @@
+package cn.lyf.tools.id;
+
+/**
+ * @author lyf
+ * @description 64位ID生成器接口定义
+ * @since 2023/5/8 10:05:21
+ */
+public interface IdGenerator {
+    /**
+     * 获取下一个ID
+     *
+     * @return id
+     */
+    long nextId();
+
+    /**
+     * 批量获取ID
+     *
+     * @param n 需要的ID个数
+     * @return ID数组
+     */
+    default long[] nextIds(int n) {
+        if (n < 0) {
+            throw new IllegalArgumentException("n can't be less than 0");
+        }
+        long[] ids = new long[n];
+        for (int i = 0; i < n; i++) {
+            ids[i] = nextId();
+        }
+        return ids;
+    }
+
+    /**
+     * 获取下一个ID的Crockford Base32字符串形式，字符串的字典序与ID的大小顺序一致
+     *
+     * @return 13位的Base32字符串
+     */
+    default String nextIdStr() {
+        return Crockford32.encode(nextId());
+    }
+}
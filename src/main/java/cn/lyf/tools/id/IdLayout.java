@@ -0,0 +1,151 @@
+package cn.lyf.tools.id;
+
+import lombok.Getter;
+
+/**
+ * @author lyf
+ * @description Snowflake类ID的位布局，包括时间起始点、数据中心位数、机器位数和毫秒内序列号位数，
+ * 剩余的位（最高位符号位除外）全部用于毫秒时间戳
+ * <pre>
+ *     0 --- 时间戳 --- datacenterId --- workerId --- sequence
+ * </pre>
+ * 时间戳为相对epoch的毫秒数，超过getMaxTimestamp()后IdWorker拒绝生成ID
+ * @since 2023/5/8 10:12:40
+ */
+@Getter
+public final class IdLayout {
+    /**
+     * 默认布局: 41位时间戳 + 5位数据中心 + 5位机器 + 12位序列号，与原IdWorker保持一致
+     */
+    public static final IdLayout DEFAULT = new IdLayout(1683163818593L, 5, 5, 12);
+
+    /**
+     * 时间戳至少需要的位数，31位约可用24天，再小就没有意义了
+     */
+    private static final int MIN_TIMESTAMP_BITS = 31;
+
+    /**
+     * 时间起始标记点（一旦确定不能变动）
+     */
+    private final long epoch;
+
+    /**
+     * 数据中心标识位数
+     */
+    private final int datacenterIdBits;
+
+    /**
+     * 机器标识位数
+     */
+    private final int workerIdBits;
+
+    /**
+     * 毫秒内自增位数
+     */
+    private final int sequenceBits;
+
+    /**
+     * 时间戳位数
+     */
+    private final int timestampBits;
+
+    /**
+     * @param epoch            时间起始标记点，毫秒
+     * @param datacenterIdBits 数据中心标识位数
+     * @param workerIdBits     机器标识位数
+     * @param sequenceBits     毫秒内自增位数
+     */
+    public IdLayout(long epoch, int datacenterIdBits, int workerIdBits, int sequenceBits) {
+        if (epoch < 0 || epoch > System.currentTimeMillis()) {
+            throw new IllegalArgumentException("epoch must be in [0, now]");
+        }
+        if (datacenterIdBits < 0 || workerIdBits < 0 || sequenceBits < 1) {
+            throw new IllegalArgumentException("datacenterIdBits and workerIdBits can't be less than 0, sequenceBits can't be less than 1");
+        }
+        int timestampBits = 63 - datacenterIdBits - workerIdBits - sequenceBits;
+        if (timestampBits < MIN_TIMESTAMP_BITS) {
+            throw new IllegalArgumentException(String.format("timestamp bits can't be less than %d, current is %d", MIN_TIMESTAMP_BITS, timestampBits));
+        }
+        if (System.currentTimeMillis() - epoch > ~(-1L << timestampBits)) {
+            throw new IllegalArgumentException(String.format("%d timestamp bits since epoch %d are already used up", timestampBits, epoch));
+        }
+        this.epoch = epoch;
+        this.datacenterIdBits = datacenterIdBits;
+        this.workerIdBits = workerIdBits;
+        this.sequenceBits = sequenceBits;
+        this.timestampBits = timestampBits;
+    }
+
+    /**
+     * 机器ID最大值
+     *
+     * @return maxWorkerId
+     */
+    public long getMaxWorkerId() {
+        return ~(-1L << workerIdBits);
+    }
+
+    /**
+     * 数据中心ID最大值
+     *
+     * @return maxDatacenterId
+     */
+    public long getMaxDatacenterId() {
+        return ~(-1L << datacenterIdBits);
+    }
+
+    /**
+     * 毫秒内序列号掩码
+     *
+     * @return sequenceMask
+     */
+    public long getSequenceMask() {
+        return ~(-1L << sequenceBits);
+    }
+
+    /**
+     * 可以表示的最大时间戳，相对epoch的毫秒数
+     *
+     * @return maxTimestamp
+     */
+    public long getMaxTimestamp() {
+        return ~(-1L << timestampBits);
+    }
+
+    /**
+     * 机器ID左移位数
+     *
+     * @return workerIdShift
+     */
+    public int getWorkerIdShift() {
+        return sequenceBits;
+    }
+
+    /**
+     * 数据中心ID左移位数
+     *
+     * @return datacenterIdShift
+     */
+    public int getDatacenterIdShift() {
+        return sequenceBits + workerIdBits;
+    }
+
+    /**
+     * 时间戳左移位数
+     *
+     * @return timestampLeftShift
+     */
+    public int getTimestampLeftShift() {
+        return sequenceBits + workerIdBits + datacenterIdBits;
+    }
+
+    /**
+     * 从ID中解析出生成时的毫秒时间戳
+     *
+     * @param id id
+     * @return 毫秒时间戳
+     */
+    public long extractTimestamp(long id) {
+        return (id >>> getTimestampLeftShift()) + epoch;
+    }
+}
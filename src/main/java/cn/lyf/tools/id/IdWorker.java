@@ -4,6 +4,8 @@ import java.lang.management.ManagementFactory;
 import java.net.InetAddress;
 import java.net.NetworkInterface;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * <p>名称：IdWorker.java</p>
@@ -23,41 +25,85 @@ import java.util.concurrent.atomic.AtomicInteger;
  *
  * @author Polim
  */
-public final class IdWorker {
+public final class IdWorker implements IdGenerator {
     // 时间起始标记点，作为基准，一般取系统的最近时间（一旦确定不能变动）
-    private final static long twepoch = 1683163818593L;
-    // 机器标识位数
-    private final static long workerIdBits = 5L;
-    // 数据中心标识位数
-    private final static long datacenterIdBits = 5L;
+    private final long twepoch;
     // 机器ID最大值
-    private final static long maxWorkerId = ~(-1L << workerIdBits);
+    private final long maxWorkerId;
     // 数据中心ID最大值
-    private final static long maxDatacenterId = ~(-1L << datacenterIdBits);
+    private final long maxDatacenterId;
     // 毫秒内自增位
-    private final static long sequenceBits = 12L;
-    // 机器ID偏左移12位
-    private final static long workerIdShift = sequenceBits;
-    // 数据中心ID左移17位
-    private final static long datacenterIdShift = sequenceBits + workerIdBits;
-    // 时间毫秒左移22位
-    private final static long timestampLeftShift = sequenceBits + workerIdBits + datacenterIdBits;
-
-    private final static long sequenceMask = ~(-1L << sequenceBits);
-    /* 上次生产id时间戳 */
-    private static long lastTimestamp = -1L;
-    // 0，并发控制
-    private long sequence = 0L;
+    private final long sequenceBits;
+    // 机器ID偏左移位数，默认12位
+    private final long workerIdShift;
+    // 数据中心ID左移位数，默认17位
+    private final long datacenterIdShift;
+    // 时间毫秒左移位数，默认22位
+    private final long timestampLeftShift;
+
+    private final long sequenceMask;
+    // 可以表示的最大时间戳(相对twepoch)
+    private final long maxTimestamp;
+    // ID的位布局
+    private final IdLayout layout;
+    /*
+     * 上次生产id的时间戳(相对twepoch)与毫秒内序列号，打包在同一个long中: 高位为时间戳，低sequenceBits位为序列号，
+     * 通过CAS更新，替代synchronized，每个实例独立维护自己的时钟状态
+     */
+    private final AtomicLong lastState = new AtomicLong(0L);
 
     private final long workerId;
     // 数据标识id部分
     private final long datacenterId;
 
+    /*
+     * 时钟回拨容忍模式下，允许向未来借用的最大毫秒数，0表示不开启容忍模式
+     */
+    private final long maxBorrowMillis;
+    /* 容忍模式下以System.nanoTime()为锚点推算毫秒时间，锚点的墙上时间 */
+    private final long baseMillis;
+    /* 锚点对应的nanoTime */
+    private final long baseNanos;
+    /* 累计借用的未来毫秒数 */
+    private final AtomicLong borrowedMillis = new AtomicLong();
+    /* 因序列号耗尽而park等待下一毫秒的次数 */
+    private final AtomicLong parkCount = new AtomicLong();
+    /* WorkerIdAllocator分配的workerId需要检查租约，为null时不检查 */
+    private final WorkerIdAllocator lease;
+
     private static final AtomicInteger STAND_ALONE_SAFE_ID_WORKER = new AtomicInteger();
 
+    /**
+     * 优先使用系统属性或环境变量显式指定的workerId和datacenterId(见WorkerIdAllocator)，
+     * 否则由MAC和PID推算，同一台机器上多个JVM可能冲突，这种场景请使用WorkerIdAllocator分配
+     */
     public IdWorker() {
-        this.datacenterId = getDatacenterId(maxDatacenterId);
-        this.workerId = getMaxWorkerId(datacenterId, maxWorkerId);
+        this.layout = IdLayout.DEFAULT;
+        this.twepoch = layout.getEpoch();
+        this.maxWorkerId = layout.getMaxWorkerId();
+        this.maxDatacenterId = layout.getMaxDatacenterId();
+        this.sequenceBits = layout.getSequenceBits();
+        this.workerIdShift = layout.getWorkerIdShift();
+        this.datacenterIdShift = layout.getDatacenterIdShift();
+        this.timestampLeftShift = layout.getTimestampLeftShift();
+        this.sequenceMask = layout.getSequenceMask();
+        this.maxTimestamp = layout.getMaxTimestamp();
+        long[] override = WorkerIdAllocator.getOverride();
+        if (override != null) {
+            // 显式指定时不再读取MAC和PID，启动更快，也不会冲突
+            if (override[0] > maxWorkerId || override[1] > maxDatacenterId || override[0] < 0 || override[1] < 0) {
+                throw new IllegalArgumentException(String.format("override worker Id %d or datacenter Id %d out of range", override[0], override[1]));
+            }
+            this.workerId = override[0];
+            this.datacenterId = override[1];
+        } else {
+            this.datacenterId = getDatacenterId(maxDatacenterId);
+            this.workerId = getMaxWorkerId(datacenterId, maxWorkerId);
+        }
+        this.maxBorrowMillis = 0L;
+        this.baseMillis = 0L;
+        this.baseNanos = 0L;
+        this.lease = null;
     }
 
     /**
@@ -65,6 +111,57 @@ public final class IdWorker {
      * @param datacenterId 序列号
      */
     public IdWorker(long workerId, long datacenterId) {
+        this(workerId, datacenterId, 0L);
+    }
+
+    /**
+     * 时钟回拨容忍模式:
+     * <pre>
+     *     1. 时间以构造时的System.currentTimeMillis()为基准，之后按System.nanoTime()单调推进，不受NTP回拨影响
+     *     2. 时间出现小幅回退，或者当前毫秒内序列号耗尽时，向未来借用毫秒继续发号，最多领先当前时间maxBorrowMillis毫秒
+     *     3. 超出借用上限时park等待，而不是自旋
+     * </pre>
+     *
+     * @param workerId        工作机器ID
+     * @param datacenterId    序列号
+     * @param maxBorrowMillis 最多可向未来借用的毫秒数，0表示不开启容忍模式
+     */
+    public IdWorker(long workerId, long datacenterId, long maxBorrowMillis) {
+        this(IdLayout.DEFAULT, workerId, datacenterId, maxBorrowMillis);
+    }
+
+    /**
+     * 自定义位布局，比如单机每毫秒需要超过4096个ID时，可以减少机器位数来增加序列号位数
+     *
+     * @param layout          ID的位布局
+     * @param workerId        工作机器ID
+     * @param datacenterId    序列号
+     * @param maxBorrowMillis 最多可向未来借用的毫秒数，0表示不开启容忍模式
+     */
+    public IdWorker(IdLayout layout, long workerId, long datacenterId, long maxBorrowMillis) {
+        this(layout, workerId, datacenterId, maxBorrowMillis, null);
+    }
+
+    /**
+     * WorkerIdAllocator.newIdWorker使用，每个ID的时间戳都必须在租约有效期内
+     */
+    IdWorker(IdLayout layout, long workerId, long datacenterId, long maxBorrowMillis, WorkerIdAllocator lease) {
+        if (layout == null) {
+            throw new IllegalArgumentException("layout can't be null");
+        }
+        this.layout = layout;
+        this.twepoch = layout.getEpoch();
+        this.maxWorkerId = layout.getMaxWorkerId();
+        this.maxDatacenterId = layout.getMaxDatacenterId();
+        this.sequenceBits = layout.getSequenceBits();
+        this.workerIdShift = layout.getWorkerIdShift();
+        this.datacenterIdShift = layout.getDatacenterIdShift();
+        this.timestampLeftShift = layout.getTimestampLeftShift();
+        this.sequenceMask = layout.getSequenceMask();
+        this.maxTimestamp = layout.getMaxTimestamp();
+        if (maxBorrowMillis < 0) {
+            throw new IllegalArgumentException("maxBorrowMillis can't be less than 0");
+        }
         if (workerId > maxWorkerId || workerId < 0) {
             throw new IllegalArgumentException(String.format("worker Id can't be greater than %d or less than 0", maxWorkerId));
         }
@@ -73,6 +170,10 @@ public final class IdWorker {
         }
         this.workerId = workerId;
         this.datacenterId = datacenterId;
+        this.maxBorrowMillis = maxBorrowMillis;
+        this.baseMillis = System.currentTimeMillis();
+        this.baseNanos = System.nanoTime();
+        this.lease = lease;
     }
 
     /**
@@ -80,43 +181,163 @@ public final class IdWorker {
      *
      * @return
      */
-    public synchronized long nextId() {
-        long timestamp = timeGen();
-        if (timestamp < lastTimestamp) {
-            throw new RuntimeException(String.format("Clock moved backwards.  Refusing to generate id for %d milliseconds", lastTimestamp - timestamp));
-        }
+    @Override
+    public long nextId() {
+        return reserveRange(1);
+    }
 
-        if (lastTimestamp == timestamp) {
-            // 当前毫秒内，则+1
-            sequence = (sequence + 1) & sequenceMask;
-            if (sequence == 0) {
-                // 当前毫秒内计数满了，则等待下一秒
-                timestamp = tilNextMillis(lastTimestamp);
+    /**
+     * 批量获取ID
+     *
+     * @param n 需要的ID个数
+     * @return ID数组，按生成顺序递增
+     */
+    @Override
+    public long[] nextIds(int n) {
+        if (n < 0) {
+            throw new IllegalArgumentException("n can't be less than 0");
+        }
+        long[] ids = new long[n];
+        int index = 0;
+        while (index < n) {
+            // 单次最多预留一个毫秒内的全部序列号
+            int count = (int) Math.min(n - index, sequenceMask + 1);
+            long firstId = reserveRange(count);
+            for (int i = 0; i < count; i++) {
+                ids[index++] = firstId + i;
             }
-        } else {
-            sequence = 0L;
         }
-        lastTimestamp = timestamp;
-        // ID偏移组合生成最终的ID，并返回ID
-        long nextId = ((timestamp - twepoch) << timestampLeftShift)
-                | (datacenterId << datacenterIdShift)
-                | (workerId << workerIdShift) | sequence;
+        return ids;
+    }
 
-        return nextId;
+    /**
+     * 一次CAS预留同一毫秒内连续的n个序列号，[firstId, firstId + n) 区间内的ID均可直接使用
+     *
+     * @param n 预留的ID个数，范围为[1, sequenceMask + 1]，默认布局下为[1, 4096]
+     * @return 区间内的第一个ID
+     */
+    public long reserveRange(int n) {
+        if (n < 1 || n > sequenceMask + 1) {
+            throw new IllegalArgumentException(String.format("range size can't be greater than %d or less than 1", sequenceMask + 1));
+        }
+        while (true) {
+            long state = lastState.get();
+            long lastTimestamp = state >>> sequenceBits;
+            long lastSequence = state & sequenceMask;
+
+            long now = timeGen() - twepoch;
+            long timestamp = now;
+            if (timestamp < lastTimestamp) {
+                if (lastTimestamp - timestamp > maxBorrowMillis) {
+                    throw new RuntimeException(String.format("Clock moved backwards.  Refusing to generate id for %d milliseconds", lastTimestamp - timestamp));
+                }
+                // 容忍模式下的小幅回退，继续沿用上次的毫秒
+                timestamp = lastTimestamp;
+            }
+
+            long firstSequence;
+            boolean borrow = false;
+            if (lastTimestamp == timestamp) {
+                // 当前毫秒内，则从上一个序列号+1开始
+                firstSequence = lastSequence + 1;
+                if (firstSequence + n - 1 > sequenceMask) {
+                    if (lastTimestamp + 1 - now > maxBorrowMillis) {
+                        // 当前毫秒内计数不够了，且不能再借用，则等待到可以借用下一毫秒的时刻
+                        tilNextMillis(lastTimestamp + 1 - maxBorrowMillis + twepoch);
+                        continue;
+                    }
+                    // 向未来借用一毫秒
+                    timestamp = lastTimestamp + 1;
+                    firstSequence = 0L;
+                    borrow = true;
+                }
+            } else {
+                firstSequence = 0L;
+            }
+
+            if (timestamp > maxTimestamp) {
+                throw new IllegalStateException(String.format("timestamp bits of the id layout are used up since %d, refusing to generate id", twepoch + maxTimestamp));
+            }
+
+            if (lease != null && !lease.isValidAt(timestamp + twepoch)) {
+                // 租约已失效，同一个workerId可能已经被其他进程使用
+                throw new IllegalStateException(String.format("worker Id lease of %d-%d is lost or expired, refusing to generate id", datacenterId, workerId));
+            }
+
+            long newState = (timestamp << sequenceBits) | (firstSequence + n - 1);
+            if (lastState.compareAndSet(state, newState)) {
+                if (borrow && timestamp > now) {
+                    borrowedMillis.incrementAndGet();
+                }
+                // ID偏移组合生成最终的ID，并返回ID
+                return (timestamp << timestampLeftShift)
+                        | (datacenterId << datacenterIdShift)
+                        | (workerId << workerIdShift) | firstSequence;
+            }
+        }
     }
 
-    private long tilNextMillis(final long lastTimestamp) {
-        long timestamp = this.timeGen();
-        while (timestamp <= lastTimestamp) {
-            timestamp = this.timeGen();
+    /**
+     * park等待到指定的毫秒，而不是自旋读取时钟
+     * <pre>
+     *     1. 容忍模式下时间由nanoTime推算，直接park到目标毫秒的起点
+     *     2. 否则当前毫秒已经过去了多少未知，只park剩余的整毫秒数，不足1毫秒的部分yield等待
+     * </pre>
+     *
+     * @param targetMillis 目标毫秒，墙上时间
+     */
+    private void tilNextMillis(final long targetMillis) {
+        parkCount.incrementAndGet();
+        if (maxBorrowMillis > 0) {
+            long remainingNanos = baseNanos + (targetMillis - baseMillis) * 1_000_000L - System.nanoTime();
+            if (remainingNanos > 0) {
+                LockSupport.parkNanos(remainingNanos);
+            }
+            return;
+        }
+        long remainingMillis = targetMillis - timeGen();
+        if (remainingMillis > 1) {
+            LockSupport.parkNanos((remainingMillis - 1) * 1_000_000L);
+        }
+        while (timeGen() < targetMillis) {
+            Thread.yield();
         }
-        return timestamp;
     }
 
     private long timeGen() {
+        if (maxBorrowMillis > 0) {
+            return baseMillis + (System.nanoTime() - baseNanos) / 1_000_000L;
+        }
         return System.currentTimeMillis();
     }
 
+    /**
+     * ID的位布局，可用于从ID中解析时间戳
+     *
+     * @return layout
+     */
+    public IdLayout getLayout() {
+        return layout;
+    }
+
+    /**
+     * 累计向未来借用的毫秒数
+     *
+     * @return borrowedMillis
+     */
+    public long getBorrowedMillis() {
+        return borrowedMillis.get();
+    }
+
+    /**
+     * 因序列号耗尽或借用超限而park等待的次数
+     *
+     * @return parkCount
+     */
+    public long getParkCount() {
+        return parkCount.get();
+    }
+
     /**
      * <p>
      * 获取 maxWorkerId
@@ -179,8 +400,8 @@ public final class IdWorker {
             System.out.println(idWorker.nextId());
         }
 
-        System.out.println(maxDatacenterId);
-        System.out.println(maxWorkerId);
+        System.out.println(idWorker.maxDatacenterId);
+        System.out.println(idWorker.maxWorkerId);
 
         System.out.println(System.currentTimeMillis());
     }
@@ -0,0 +1,30 @@
+package cn.lyf.tools.id;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author lyf
+ * @description 填充了缓存行的AtomicLong，避免多个频繁写入的游标落在同一个缓存行上产生伪共享
+ * @since 2023/5/9 9:41:26
+ */
+class PaddedAtomicLong extends AtomicLong {
+    private static final long serialVersionUID = -3415778863941386253L;
+
+    /**
+     * 填充字段，AtomicLong的value(8字节) + 6 * 8字节 + 对象头，凑满64字节的缓存行
+     */
+    public volatile long p1, p2, p3, p4, p5, p6 = 7L;
+
+    PaddedAtomicLong(long initialValue) {
+        super(initialValue);
+    }
+
+    /**
+     * 防止填充字段被JIT当作无用字段优化掉
+     *
+     * @return 填充字段之和
+     */
+    public long sumPaddingToPreventOptimisation() {
+        return p1 + p2 + p3 + p4 + p5 + p6;
+    }
+}
@@ -0,0 +1,65 @@
+package cn.lyf.tools.id;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+
+import java.io.Serializable;
+
+/**
+ * @author lyf
+ * @description 128位可排序ID(ULID格式): 高48位为毫秒时间戳，低80位为随机数
+ * <pre>
+ *     字符串形式为26位Crockford Base32编码，字符串的字典序与时间顺序一致
+ * </pre>
+ * @since 2023/5/8 11:02:45
+ */
+@Getter
+@EqualsAndHashCode
+public final class Ulid implements Comparable<Ulid>, Serializable {
+    private static final long serialVersionUID = 2893402154128746207L;
+
+    /**
+     * 高64位: 48位时间戳 + 16位随机数
+     */
+    private final long high;
+
+    /**
+     * 低64位: 随机数
+     */
+    private final long low;
+
+    public Ulid(long high, long low) {
+        this.high = high;
+        this.low = low;
+    }
+
+    /**
+     * 解析26位的ULID字符串
+     *
+     * @param ulid ulid字符串
+     * @return Ulid
+     */
+    public static Ulid parse(CharSequence ulid) {
+        return new Ulid(Crockford32.decodeHigh(ulid), Crockford32.decodeLow(ulid));
+    }
+
+    /**
+     * 生成时的毫秒时间戳
+     *
+     * @return timestamp
+     */
+    public long getTimestamp() {
+        return high >>> 16;
+    }
+
+    @Override
+    public int compareTo(Ulid other) {
+        int result = Long.compareUnsigned(high, other.high);
+        return result != 0 ? result : Long.compareUnsigned(low, other.low);
+    }
+
+    @Override
+    public String toString() {
+        return Crockford32.encode(high, low);
+    }
+}
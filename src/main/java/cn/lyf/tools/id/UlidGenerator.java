@@ -0,0 +1,80 @@
+package cn.lyf.tools.id;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * @author lyf
+ * @description 单调递增的ULID生成器
+ * <pre>
+ *     1. 新的毫秒内随机生成80位随机数
+ *     2. 同一毫秒内（或时钟回拨时）在上一个ID的随机部分上+1，保证同一个生成器产生的ID严格递增
+ *     3. 通过CAS更新上一个ID，不加锁
+ * </pre>
+ * 随机数来自ThreadLocalRandom，不适合需要防猜测的场景
+ * @since 2023/5/8 11:20:13
+ */
+public final class UlidGenerator {
+    /**
+     * 时间戳最大值，48位
+     */
+    private static final long MAX_TIMESTAMP = ~(-1L << 48);
+
+    /**
+     * 高64位中随机数部分的掩码，16位
+     */
+    private static final long HIGH_RANDOM_MASK = 0xffffL;
+
+    private final AtomicReference<Ulid> last = new AtomicReference<>(new Ulid(0L, 0L));
+
+    /**
+     * 获取下一个ULID
+     *
+     * @return Ulid
+     */
+    public Ulid nextUlid() {
+        while (true) {
+            Ulid prev = last.get();
+            long timestamp = System.currentTimeMillis();
+            if (timestamp > MAX_TIMESTAMP) {
+                throw new IllegalStateException("timestamp overflows 48 bits");
+            }
+
+            Ulid next;
+            if (timestamp > prev.getTimestamp()) {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                next = new Ulid((timestamp << 16) | (random.nextLong() & HIGH_RANDOM_MASK), random.nextLong());
+            } else {
+                next = increment(prev);
+            }
+
+            if (last.compareAndSet(prev, next)) {
+                return next;
+            }
+        }
+    }
+
+    /**
+     * 获取下一个ULID的字符串形式
+     *
+     * @return 26位的ULID字符串
+     */
+    public String nextUlidStr() {
+        return nextUlid().toString();
+    }
+
+    /**
+     * 随机部分+1，随机部分溢出时进位到时间戳，相当于借用下一毫秒
+     *
+     * @param prev 上一个ID
+     * @return 下一个ID
+     */
+    private static Ulid increment(Ulid prev) {
+        long low = prev.getLow() + 1;
+        long high = prev.getHigh();
+        if (low == 0L) {
+            high++;
+        }
+        return new Ulid(high, low);
+    }
+}
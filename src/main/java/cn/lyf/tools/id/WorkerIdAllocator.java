@@ -0,0 +1,311 @@
+package cn.lyf.tools.id;
+
+import cn.lyf.tools.str.StringUtil;
+import cn.lyf.tools.thread.ThreadPoolUtils;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author lyf
+ * @description 基于本地租约文件的workerId分配器，保证同一台机器上的多个JVM拿到不同的(datacenterId, workerId)
+ * <pre>
+ *     1. 租约文件中每个槽位对应一个(datacenterId, workerId)组合，记录: 租约到期时间(8字节) + 持有者标识(8字节)
+ *     2. 分配和续约时通过FileChannel.lock()对整个文件加锁，进程间互斥
+ *     3. 后台每隔leaseMillis / 3续约一次，进程异常退出后租约到期，槽位自动可被复用
+ *     4. newIdWorker创建的IdWorker在生成每个ID前检查租约: 租约被其他进程抢走、已经close，
+ *        或者续约失败超过了最后一次成功续约的到期时间时，nextId抛出IllegalStateException，不会生成重复的ID
+ *     5. 可以通过系统属性或者环境变量显式指定，此时不读写租约文件:
+ *        系统属性 cn.lyf.id.workerId / cn.lyf.id.datacenterId
+ *        环境变量 ID_WORKER_ID / ID_DATACENTER_ID
+ * </pre>
+ * @since 2023/5/9 14:20:37
+ */
+@Slf4j
+public final class WorkerIdAllocator implements AutoCloseable {
+    public static final String WORKER_ID_PROPERTY = "cn.lyf.id.workerId";
+
+    public static final String DATACENTER_ID_PROPERTY = "cn.lyf.id.datacenterId";
+
+    public static final String WORKER_ID_ENV = "ID_WORKER_ID";
+
+    public static final String DATACENTER_ID_ENV = "ID_DATACENTER_ID";
+
+    /**
+     * 默认的租约文件
+     */
+    public static final File DEFAULT_LEASE_FILE = new File(System.getProperty("java.io.tmpdir"), "common-tools-worker-id.lease");
+
+    /**
+     * 默认的租约时长，毫秒
+     */
+    public static final long DEFAULT_LEASE_MILLIS = 30_000L;
+
+    /**
+     * 每个槽位占用的字节数: 到期时间 + 持有者标识
+     */
+    private static final int RECORD_SIZE = 16;
+
+    /**
+     * 同一个JVM内对同一个文件重复加锁会抛出OverlappingFileLockException，这里先在JVM内串行化
+     */
+    private static final Object JVM_LOCK = new Object();
+
+    private final File leaseFile;
+
+    private final long leaseMillis;
+
+    private final long workerId;
+
+    private final long datacenterId;
+
+    /**
+     * 槽位下标，-1表示来自显式指定，没有租约
+     */
+    private final int slot;
+
+    private final long ownerToken;
+
+    private final ScheduledFuture<?> renewFuture;
+
+    /**
+     * 最后一次成功写入的租约到期时间，过了这个时间其他进程就可能拿到同一个槽位
+     */
+    private volatile long validUntil;
+
+    /**
+     * 租约已经被其他进程抢走或者已经释放
+     */
+    private volatile boolean lost;
+
+    private WorkerIdAllocator(File leaseFile, long leaseMillis, long workerId, long datacenterId, int slot, long ownerToken, long validUntil) {
+        this.leaseFile = leaseFile;
+        this.leaseMillis = leaseMillis;
+        this.workerId = workerId;
+        this.datacenterId = datacenterId;
+        this.slot = slot;
+        this.ownerToken = ownerToken;
+        this.validUntil = validUntil;
+        if (slot < 0) {
+            this.renewFuture = null;
+        } else {
+            long period = Math.max(1L, leaseMillis / 3);
+            this.renewFuture = ThreadPoolUtils.getScheduledThreadPool()
+                    .scheduleWithFixedDelay(this::renew, period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 使用默认布局、默认租约文件分配
+     *
+     * @return WorkerIdAllocator
+     * @throws IOException 读写租约文件失败
+     */
+    public static WorkerIdAllocator allocate() throws IOException {
+        return allocate(IdLayout.DEFAULT, DEFAULT_LEASE_FILE, DEFAULT_LEASE_MILLIS);
+    }
+
+    /**
+     * 分配workerId和datacenterId，优先使用显式指定的值
+     *
+     * @param layout      ID的位布局，决定槽位个数
+     * @param leaseFile   租约文件
+     * @param leaseMillis 租约时长，毫秒
+     * @return WorkerIdAllocator
+     * @throws IOException 读写租约文件失败
+     */
+    public static WorkerIdAllocator allocate(IdLayout layout, File leaseFile, long leaseMillis) throws IOException {
+        if (layout == null || leaseFile == null) {
+            throw new IllegalArgumentException("layout and leaseFile can't be null");
+        }
+        if (leaseMillis <= 0) {
+            throw new IllegalArgumentException("leaseMillis must be greater than 0");
+        }
+
+        long[] override = getOverride();
+        if (override != null) {
+            if (override[0] > layout.getMaxWorkerId() || override[1] > layout.getMaxDatacenterId() || override[0] < 0 || override[1] < 0) {
+                throw new IllegalArgumentException(String.format("override worker Id %d or datacenter Id %d out of range", override[0], override[1]));
+            }
+            return new WorkerIdAllocator(leaseFile, leaseMillis, override[0], override[1], -1, 0L, Long.MAX_VALUE);
+        }
+
+        File parent = leaseFile.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+
+        int slots = (int) ((layout.getMaxDatacenterId() + 1) * (layout.getMaxWorkerId() + 1));
+        long ownerToken = ThreadLocalRandom.current().nextLong() | 1L;
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        synchronized (JVM_LOCK) {
+            try (RandomAccessFile raf = new RandomAccessFile(leaseFile, "rw");
+                 FileChannel channel = raf.getChannel()) {
+                FileLock lock = channel.lock();
+                try {
+                    long now = System.currentTimeMillis();
+                    for (int i = 0; i < slots; i++) {
+                        long position = (long) i * RECORD_SIZE;
+                        record.clear();
+                        long expireAt = position + RECORD_SIZE <= channel.size() ? readRecord(channel, position, record) : 0L;
+                        if (expireAt < now) {
+                            writeRecord(channel, position, record, now + leaseMillis, ownerToken);
+                            channel.force(false);
+                            long workerId = i & layout.getMaxWorkerId();
+                            long datacenterId = (long) i >>> layout.getWorkerIdBits();
+                            log.info("lease worker Id {}, datacenter Id {} from {}", workerId, datacenterId, leaseFile.getCanonicalPath());
+                            return new WorkerIdAllocator(leaseFile, leaseMillis, workerId, datacenterId, i, ownerToken, now + leaseMillis);
+                        }
+                    }
+                } finally {
+                    lock.release();
+                }
+            }
+        }
+        throw new IllegalStateException("no free worker Id in " + leaseFile.getCanonicalPath());
+    }
+
+    /**
+     * 读取系统属性或者环境变量中显式指定的workerId和datacenterId
+     *
+     * @return [workerId, datacenterId]，未指定时返回null
+     */
+    static long[] getOverride() {
+        String workerId = System.getProperty(WORKER_ID_PROPERTY, System.getenv(WORKER_ID_ENV));
+        if (StringUtil.isEmpty(workerId)) {
+            return null;
+        }
+        String datacenterId = System.getProperty(DATACENTER_ID_PROPERTY, System.getenv(DATACENTER_ID_ENV));
+        try {
+            return new long[]{Long.parseLong(workerId.trim()),
+                    StringUtil.isEmpty(datacenterId) ? 0L : Long.parseLong(datacenterId.trim())};
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid worker Id override: " + workerId + ", " + datacenterId);
+        }
+    }
+
+    public long getWorkerId() {
+        return workerId;
+    }
+
+    public long getDatacenterId() {
+        return datacenterId;
+    }
+
+    /**
+     * 使用分配到的workerId创建IdWorker，租约失效后该IdWorker拒绝生成ID
+     *
+     * @param layout ID的位布局，需要与分配时一致
+     * @return IdWorker
+     */
+    public IdWorker newIdWorker(IdLayout layout) {
+        return new IdWorker(layout, workerId, datacenterId, 0L, this);
+    }
+
+    /**
+     * 租约当前是否有效，显式指定的workerId总是有效
+     *
+     * @return 未被抢走、未释放并且没有超过最后一次成功续约的到期时间
+     */
+    public boolean isLeaseValid() {
+        return isValidAt(System.currentTimeMillis());
+    }
+
+    /**
+     * @param millis 墙上时间，毫秒
+     * @return 租约在该时刻是否有效
+     */
+    boolean isValidAt(long millis) {
+        return !lost && millis < validUntil;
+    }
+
+    /**
+     * 停止续约并释放槽位，之后newIdWorker创建的IdWorker不能再生成ID
+     */
+    @Override
+    public void close() {
+        if (slot < 0) {
+            return;
+        }
+        lost = true;
+        renewFuture.cancel(false);
+        try {
+            // 已经通过租约检查的线程仍可能在当前毫秒生成ID，到期时间不能早于当前毫秒，否则新的持有者可能在同一毫秒生成重复的ID
+            updateLease(System.currentTimeMillis() + 1);
+        } catch (IOException e) {
+            log.error("release worker Id lease failed, it will expire at {}", validUntil, e);
+        }
+    }
+
+    private void renew() {
+        long expireAt = System.currentTimeMillis() + leaseMillis;
+        try {
+            if (updateLease(expireAt)) {
+                validUntil = expireAt;
+                return;
+            }
+        } catch (IOException e) {
+            // 下一次续约再试，租约到期前IdWorker仍然可以使用
+            log.error("renew worker Id lease failed, lease is valid until {}", validUntil, e);
+            return;
+        }
+        lost = true;
+        log.error("worker Id lease lost, slot: {}, worker Id: {}, datacenter Id: {}", slot, workerId, datacenterId);
+        renewFuture.cancel(false);
+    }
+
+    /**
+     * 在持有者未变化的前提下更新租约到期时间
+     *
+     * @param expireAt 新的到期时间
+     * @return 是否仍然持有该槽位
+     * @throws IOException 读写租约文件失败，此时不知道是否仍然持有
+     */
+    private boolean updateLease(long expireAt) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        long position = (long) slot * RECORD_SIZE;
+        synchronized (JVM_LOCK) {
+            try (RandomAccessFile raf = new RandomAccessFile(leaseFile, "rw");
+                 FileChannel channel = raf.getChannel()) {
+                FileLock lock = channel.lock();
+                try {
+                    readRecord(channel, position, record);
+                    if (record.getLong(8) != ownerToken) {
+                        return false;
+                    }
+                    writeRecord(channel, position, record, expireAt, ownerToken);
+                    channel.force(false);
+                    return true;
+                } finally {
+                    lock.release();
+                }
+            }
+        }
+    }
+
+    private static long readRecord(FileChannel channel, long position, ByteBuffer record) throws IOException {
+        record.clear();
+        while (record.hasRemaining()) {
+            if (channel.read(record, position + record.position()) < 0) {
+                break;
+            }
+        }
+        return record.getLong(0);
+    }
+
+    private static void writeRecord(FileChannel channel, long position, ByteBuffer record, long expireAt, long ownerToken) throws IOException {
+        record.clear();
+        record.putLong(expireAt).putLong(ownerToken).flip();
+        while (record.hasRemaining()) {
+            channel.write(record, position + record.position());
+        }
+    }
+}
@@ -0,0 +1,372 @@
+package cn.lyf.tools.io;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author lyf
+ * @description 按大小分级、线程本地缓存的缓冲区池，分堆内(byte[])和直接(ByteBuffer.allocateDirect)两种
+ * <pre>
+ *     1. 大小分为1K、2K、4K、8K、16K、32K、64K七级，申请时向上取整到所在级别，超过64K的申请直接分配，不入池
+ *     2. 每个线程每级最多缓存MAX_CACHED_PER_CLASS个缓冲区，没有锁；在其他线程归还的缓冲区进入归还线程的缓存
+ *     3. 缓冲区用完必须在finally中release，归还后不能再使用；不归还只是退化为普通分配，不会出错
+ *     4. debug模式(-Dcn.lyf.io.bufferPool.debug=true或者setDebug(true))下记录每个缓冲区的申请位置，
+ *        没有归还就被GC回收的缓冲区记为泄漏并打印申请位置，重复归还同样会打印日志
+ *     5. getMetrics()返回命中、未命中、归还、丢弃以及泄漏次数
+ * </pre>
+ * @since 2023/5/18 15:06:42
+ */
+@Slf4j
+public final class BufferPool {
+    public static final String DEBUG_PROPERTY = "cn.lyf.io.bufferPool.debug";
+
+    /**
+     * 最小的级别，1K
+     */
+    public static final int MIN_POOLED_SIZE = 1024;
+
+    /**
+     * 最大的级别，64K
+     */
+    public static final int MAX_POOLED_SIZE = 64 * 1024;
+
+    /**
+     * 每个线程每级最多缓存的缓冲区数
+     */
+    public static final int MAX_CACHED_PER_CLASS = 4;
+
+    private static final int MIN_SHIFT = Integer.numberOfTrailingZeros(MIN_POOLED_SIZE);
+
+    private static final int SIZE_CLASSES = Integer.numberOfTrailingZeros(MAX_POOLED_SIZE) - MIN_SHIFT + 1;
+
+    private static final ThreadLocal<Cache> CACHE = ThreadLocal.withInitial(Cache::new);
+
+    private static final LongAdder HITS = new LongAdder();
+
+    private static final LongAdder MISSES = new LongAdder();
+
+    private static final LongAdder RELEASES = new LongAdder();
+
+    private static final LongAdder DISCARDS = new LongAdder();
+
+    private static final LongAdder LEAKS = new LongAdder();
+
+    private static volatile boolean debug = Boolean.getBoolean(DEBUG_PROPERTY);
+
+    private BufferPool() {
+    }
+
+    /**
+     * 申请堆内缓冲区
+     *
+     * @param minSize 最小长度
+     * @return 长度不小于minSize的数组，内容不会被清零
+     */
+    public static byte[] acquireBytes(int minSize) {
+        int sizeClass = sizeClass(minSize);
+        byte[] bytes = null;
+        if (sizeClass >= 0) {
+            bytes = CACHE.get().pollBytes(sizeClass);
+        }
+        if (bytes == null) {
+            MISSES.increment();
+            bytes = new byte[sizeClass >= 0 ? MIN_POOLED_SIZE << sizeClass : minSize];
+        } else {
+            HITS.increment();
+        }
+        LeakDetector.track(bytes);
+        return bytes;
+    }
+
+    /**
+     * 申请直接缓冲区，适合读写FileChannel、SocketChannel
+     *
+     * @param minSize 最小容量
+     * @return 已经clear的直接缓冲区，容量不小于minSize
+     */
+    public static ByteBuffer acquireDirect(int minSize) {
+        int sizeClass = sizeClass(minSize);
+        ByteBuffer buffer = null;
+        if (sizeClass >= 0) {
+            buffer = CACHE.get().pollDirect(sizeClass);
+        }
+        if (buffer == null) {
+            MISSES.increment();
+            buffer = ByteBuffer.allocateDirect(sizeClass >= 0 ? MIN_POOLED_SIZE << sizeClass : minSize);
+        } else {
+            HITS.increment();
+            buffer.clear();
+        }
+        LeakDetector.track(buffer);
+        return buffer;
+    }
+
+    /**
+     * 归还堆内缓冲区
+     *
+     * @param bytes acquireBytes返回的数组，可以为null
+     */
+    public static void release(byte[] bytes) {
+        if (bytes == null) {
+            return;
+        }
+        if (!LeakDetector.untrack(bytes)) {
+            return;
+        }
+        RELEASES.increment();
+        int sizeClass = exactSizeClass(bytes.length);
+        if (sizeClass < 0 || !CACHE.get().offerBytes(sizeClass, bytes)) {
+            DISCARDS.increment();
+        }
+    }
+
+    /**
+     * 归还直接缓冲区
+     *
+     * @param buffer acquireDirect返回的缓冲区，可以为null
+     */
+    public static void release(ByteBuffer buffer) {
+        if (buffer == null) {
+            return;
+        }
+        if (!LeakDetector.untrack(buffer)) {
+            return;
+        }
+        RELEASES.increment();
+        int sizeClass = buffer.isDirect() ? exactSizeClass(buffer.capacity()) : -1;
+        if (sizeClass < 0 || !CACHE.get().offerDirect(sizeClass, buffer)) {
+            DISCARDS.increment();
+        }
+    }
+
+    public static boolean isDebug() {
+        return debug;
+    }
+
+    /**
+     * 开启或者关闭泄漏检测，只影响之后申请的缓冲区
+     *
+     * @param debug 是否开启
+     */
+    public static void setDebug(boolean debug) {
+        BufferPool.debug = debug;
+    }
+
+    public static BufferPoolMetrics getMetrics() {
+        LeakDetector.poll();
+        BufferPoolMetrics metrics = new BufferPoolMetrics();
+        metrics.setHits(HITS.sum());
+        metrics.setMisses(MISSES.sum());
+        metrics.setReleases(RELEASES.sum());
+        metrics.setDiscards(DISCARDS.sum());
+        metrics.setLeaks(LEAKS.sum());
+        return metrics;
+    }
+
+    public static void resetMetrics() {
+        HITS.reset();
+        MISSES.reset();
+        RELEASES.reset();
+        DISCARDS.reset();
+        LEAKS.reset();
+    }
+
+    /**
+     * @param size 申请的大小
+     * @return 向上取整后的级别，超过最大级别时返回-1
+     */
+    private static int sizeClass(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("size can't be negative");
+        }
+        if (size > MAX_POOLED_SIZE) {
+            return -1;
+        }
+        if (size <= MIN_POOLED_SIZE) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+    }
+
+    /**
+     * @param size 缓冲区的实际大小
+     * @return 恰好等于某个级别时返回该级别，否则返回-1
+     */
+    private static int exactSizeClass(int size) {
+        if (size < MIN_POOLED_SIZE || size > MAX_POOLED_SIZE || Integer.bitCount(size) != 1) {
+            return -1;
+        }
+        return Integer.numberOfTrailingZeros(size) - MIN_SHIFT;
+    }
+
+    /**
+     * 线程本地的缓存，每级一个栈，后进先出，最近用过的缓冲区更可能还在CPU缓存中
+     */
+    private static final class Cache {
+        private final byte[][][] bytes = new byte[SIZE_CLASSES][MAX_CACHED_PER_CLASS][];
+
+        private final int[] bytesCount = new int[SIZE_CLASSES];
+
+        private final ByteBuffer[][] direct = new ByteBuffer[SIZE_CLASSES][MAX_CACHED_PER_CLASS];
+
+        private final int[] directCount = new int[SIZE_CLASSES];
+
+        byte[] pollBytes(int sizeClass) {
+            int count = bytesCount[sizeClass];
+            if (count == 0) {
+                return null;
+            }
+            bytesCount[sizeClass] = --count;
+            byte[] result = bytes[sizeClass][count];
+            bytes[sizeClass][count] = null;
+            return result;
+        }
+
+        boolean offerBytes(int sizeClass, byte[] array) {
+            int count = bytesCount[sizeClass];
+            if (count == MAX_CACHED_PER_CLASS) {
+                return false;
+            }
+            bytes[sizeClass][count] = array;
+            bytesCount[sizeClass] = count + 1;
+            return true;
+        }
+
+        ByteBuffer pollDirect(int sizeClass) {
+            int count = directCount[sizeClass];
+            if (count == 0) {
+                return null;
+            }
+            directCount[sizeClass] = --count;
+            ByteBuffer result = direct[sizeClass][count];
+            direct[sizeClass][count] = null;
+            return result;
+        }
+
+        boolean offerDirect(int sizeClass, ByteBuffer buffer) {
+            int count = directCount[sizeClass];
+            if (count == MAX_CACHED_PER_CLASS) {
+                return false;
+            }
+            direct[sizeClass][count] = buffer;
+            directCount[sizeClass] = count + 1;
+            return true;
+        }
+
+        boolean contains(Object buffer) {
+            for (int sizeClass = 0; sizeClass < SIZE_CLASSES; sizeClass++) {
+                for (int i = 0; i < bytesCount[sizeClass]; i++) {
+                    if (bytes[sizeClass][i] == buffer) {
+                        return true;
+                    }
+                }
+                for (int i = 0; i < directCount[sizeClass]; i++) {
+                    if (direct[sizeClass][i] == buffer) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * debug模式下的泄漏检测: 每个借出的缓冲区对应一个弱引用，归还时清除；
+     * 弱引用进入队列说明缓冲区没有归还就被回收了
+     */
+    private static final class LeakDetector {
+        private static final ReferenceQueue<Object> QUEUE = new ReferenceQueue<>();
+
+        /**
+         * identityHashCode -> 借出的缓冲区，不持有缓冲区的强引用
+         */
+        private static final Map<Integer, List<Tracker>> TRACKERS = new HashMap<>();
+
+        private LeakDetector() {
+        }
+
+        static void track(Object buffer) {
+            if (!debug) {
+                return;
+            }
+            poll();
+            Tracker tracker = new Tracker(buffer, new Throwable("buffer acquired at"));
+            synchronized (TRACKERS) {
+                TRACKERS.computeIfAbsent(tracker.hash, key -> new ArrayList<>(1)).add(tracker);
+            }
+        }
+
+        /**
+         * @return 是否可以放回池中，重复归还时返回false
+         */
+        static boolean untrack(Object buffer) {
+            if (!debug) {
+                return true;
+            }
+            int hash = System.identityHashCode(buffer);
+            synchronized (TRACKERS) {
+                List<Tracker> trackers = TRACKERS.get(hash);
+                if (trackers != null) {
+                    for (int i = 0; i < trackers.size(); i++) {
+                        Tracker tracker = trackers.get(i);
+                        if (tracker.get() == buffer) {
+                            tracker.clear();
+                            removeTracker(trackers, i, hash);
+                            return true;
+                        }
+                    }
+                }
+            }
+            // 开启debug之前借出的缓冲区也会走到这里，只有在池中已经存在时才是重复归还
+            if (CACHE.get().contains(buffer)) {
+                log.warn("buffer released twice", new Throwable("buffer released at"));
+                return false;
+            }
+            return true;
+        }
+
+        static void poll() {
+            Reference<?> reference;
+            while ((reference = QUEUE.poll()) != null) {
+                Tracker tracker = (Tracker) reference;
+                synchronized (TRACKERS) {
+                    List<Tracker> trackers = TRACKERS.get(tracker.hash);
+                    if (trackers == null || !trackers.contains(tracker)) {
+                        continue;
+                    }
+                    removeTracker(trackers, trackers.indexOf(tracker), tracker.hash);
+                }
+                LEAKS.increment();
+                log.warn("buffer was garbage collected without release", tracker.acquiredAt);
+            }
+        }
+
+        private static void removeTracker(List<Tracker> trackers, int index, int hash) {
+            trackers.remove(index);
+            if (trackers.isEmpty()) {
+                TRACKERS.remove(hash);
+            }
+        }
+
+        private static final class Tracker extends WeakReference<Object> {
+            private final int hash;
+
+            private final Throwable acquiredAt;
+
+            Tracker(Object buffer, Throwable acquiredAt) {
+                super(buffer, QUEUE);
+                this.hash = System.identityHashCode(buffer);
+                this.acquiredAt = acquiredAt;
+            }
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package cn.lyf.tools.io;
+
+import lombok.Data;
+
+/**
+ * @author lyf
+ * @description 缓冲区池的运行指标快照
+ * @since 2023/5/18 15:06:42
+ */
+@Data
+public class BufferPoolMetrics {
+    /**
+     * 从线程本地缓存中取到缓冲区的次数
+     */
+    private long hits;
+
+    /**
+     * 新分配缓冲区的次数，包括超过最大级别的申请
+     */
+    private long misses;
+
+    /**
+     * 归还的次数
+     */
+    private long releases;
+
+    /**
+     * 归还时因为缓存已满或者大小不属于任何级别而丢弃的次数
+     */
+    private long discards;
+
+    /**
+     * debug模式下检测到的泄漏次数
+     */
+    private long leaks;
+
+    /**
+     * 命中率
+     *
+     * @return hitRate
+     */
+    public double getHitRate() {
+        long total = hits + misses;
+        return total == 0 ? 0d : (double) hits / total;
+    }
+}
@@ -0,0 +1,277 @@
+package cn.lyf.tools.io;
+
+import cn.lyf.tools.core.entity.OssObject;
+import cn.lyf.tools.crypto.Digests;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author lyf
+ * @description 边读边计算md5并暂存输入流，返回可以重放的OssObject，内存占用有上限
+ * <pre>
+ *     1. 前maxMemoryBytes字节暂存在BufferPool的64K数组中，超出的部分通过FileChannel写入临时文件
+ *     2. 读取输入流的同时计算md5，只读一遍
+ *     3. OssObject.objectContent是ReplayInputStream，按原来的顺序重放数据，支持mark/reset，可以多次上传
+ *     4. ReplayInputStream必须关闭，关闭时归还内存块，临时文件以DELETE_ON_CLOSE打开，关闭通道时删除
+ * </pre>
+ * @since 2023/5/20 10:16:23
+ */
+public final class HashingTee {
+    /**
+     * 默认最多暂存在内存中的字节数，8M
+     */
+    public static final int DEFAULT_MAX_MEMORY_BYTES = 8 * 1024 * 1024;
+
+    private static final int CHUNK_SIZE = BufferPool.MAX_POOLED_SIZE;
+
+    private static final String SPILL_PREFIX = "hashing-tee-";
+
+    private static final String SPILL_SUFFIX = ".spill";
+
+    private HashingTee() {
+    }
+
+    /**
+     * 使用默认的内存上限和java.io.tmpdir
+     *
+     * @param inputStream 输入流，读完后关闭
+     * @return md5和可以重放的内容
+     * @throws IOException IOException
+     */
+    public static OssObject tee(InputStream inputStream) throws IOException {
+        return tee(inputStream, DEFAULT_MAX_MEMORY_BYTES, null);
+    }
+
+    /**
+     * 读取输入流，计算md5并暂存内容
+     *
+     * @param inputStream    输入流，读完后关闭
+     * @param maxMemoryBytes 最多暂存在内存中的字节数，0表示全部写入临时文件
+     * @param tempDir        临时文件目录，为null时使用java.io.tmpdir
+     * @return md5和可以重放的内容
+     * @throws IOException IOException
+     */
+    public static OssObject tee(InputStream inputStream, long maxMemoryBytes, File tempDir) throws IOException {
+        if (inputStream == null) {
+            throw new IllegalArgumentException("inputStream can't be null");
+        }
+        if (maxMemoryBytes < 0) {
+            throw new IllegalArgumentException("maxMemoryBytes can't be negative");
+        }
+        List<byte[]> chunks = new ArrayList<>();
+        long memoryLength = 0L;
+        FileChannel spill = null;
+        long spillLength = 0L;
+        boolean success = false;
+        try (InputStream in = inputStream; Digests.Hasher md5 = Digests.hasher(Digests.Algorithm.MD5)) {
+            // 内存阶段: 读满一个块再申请下一个
+            while (memoryLength < maxMemoryBytes) {
+                byte[] chunk = BufferPool.acquireBytes(CHUNK_SIZE);
+                chunks.add(chunk);
+                int filled = fill(in, chunk, (int) Math.min(CHUNK_SIZE, maxMemoryBytes - memoryLength));
+                md5.update(chunk, 0, filled);
+                memoryLength += filled;
+                if (filled < chunk.length) {
+                    break;
+                }
+            }
+
+            // 溢出阶段: 探测是否还有数据，有才创建临时文件
+            int next = memoryLength < maxMemoryBytes ? -1 : in.read();
+            if (next != -1) {
+                spill = openSpill(tempDir);
+                byte[] buffer = BufferPool.acquireBytes(CHUNK_SIZE);
+                try {
+                    buffer[0] = (byte) next;
+                    int count = 1 + Math.max(0, in.read(buffer, 1, buffer.length - 1));
+                    while (true) {
+                        md5.update(buffer, 0, count);
+                        ByteBuffer wrapped = ByteBuffer.wrap(buffer, 0, count);
+                        while (wrapped.hasRemaining()) {
+                            spill.write(wrapped);
+                        }
+                        spillLength += count;
+                        count = in.read(buffer);
+                        if (count == -1) {
+                            break;
+                        }
+                    }
+                } finally {
+                    BufferPool.release(buffer);
+                }
+            }
+
+            OssObject ossObject = new OssObject();
+            ossObject.setMd5(md5.digestHex());
+            ossObject.setObjectContent(new ReplayInputStream(chunks, memoryLength, spill, spillLength));
+            success = true;
+            return ossObject;
+        } finally {
+            if (!success) {
+                chunks.forEach(BufferPool::release);
+                if (spill != null) {
+                    spill.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * 读满length个字节或者到达流末尾
+     *
+     * @return 读到的字节数
+     */
+    private static int fill(InputStream in, byte[] chunk, int length) throws IOException {
+        int filled = 0;
+        int count;
+        while (filled < length && (count = in.read(chunk, filled, length - filled)) != -1) {
+            filled += count;
+        }
+        return filled;
+    }
+
+    private static FileChannel openSpill(File tempDir) throws IOException {
+        Path spillPath = tempDir == null
+                ? Files.createTempFile(SPILL_PREFIX, SPILL_SUFFIX)
+                : Files.createTempFile(tempDir.toPath(), SPILL_PREFIX, SPILL_SUFFIX);
+        try {
+            return FileChannel.open(spillPath, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                    StandardOpenOption.DELETE_ON_CLOSE);
+        } catch (IOException e) {
+            Files.deleteIfExists(spillPath);
+            throw e;
+        }
+    }
+
+    /**
+     * 重放暂存数据的输入流，先读内存块再读临时文件，非线程安全
+     */
+    public static final class ReplayInputStream extends InputStream {
+        private final List<byte[]> chunks;
+
+        private final long memoryLength;
+
+        private final FileChannel spill;
+
+        private final long length;
+
+        private long position;
+
+        private long mark;
+
+        private boolean closed;
+
+        ReplayInputStream(List<byte[]> chunks, long memoryLength, FileChannel spill, long spillLength) {
+            this.chunks = chunks;
+            this.memoryLength = memoryLength;
+            this.spill = spill;
+            this.length = memoryLength + spillLength;
+        }
+
+        /**
+         * 暂存的总字节数
+         *
+         * @return length
+         */
+        public long getLength() {
+            return length;
+        }
+
+        /**
+         * 是否使用了临时文件
+         *
+         * @return spilled
+         */
+        public boolean isSpilled() {
+            return spill != null;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (closed) {
+                throw new IOException("stream closed");
+            }
+            if (off < 0 || len < 0 || len > b.length - off) {
+                throw new IndexOutOfBoundsException();
+            }
+            if (len == 0) {
+                return 0;
+            }
+            if (position >= length) {
+                return -1;
+            }
+            int count;
+            if (position < memoryLength) {
+                byte[] chunk = chunks.get((int) (position / CHUNK_SIZE));
+                int offset = (int) (position % CHUNK_SIZE);
+                count = (int) Math.min(Math.min(len, CHUNK_SIZE - offset), memoryLength - position);
+                System.arraycopy(chunk, offset, b, off, count);
+            } else {
+                count = spill.read(ByteBuffer.wrap(b, off, (int) Math.min(len, length - position)), position - memoryLength);
+                if (count < 0) {
+                    throw new IOException("spill file was truncated");
+                }
+            }
+            position += count;
+            return count;
+        }
+
+        @Override
+        public long skip(long n) {
+            long skipped = Math.max(0L, Math.min(n, length - position));
+            position += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, length - position);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public synchronized void mark(int readLimit) {
+            mark = position;
+        }
+
+        @Override
+        public synchronized void reset() {
+            position = mark;
+        }
+
+        /**
+         * 归还内存块并删除临时文件
+         */
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            chunks.forEach(BufferPool::release);
+            chunks.clear();
+            if (spill != null) {
+                spill.close();
+            }
+        }
+    }
+}
@@ -4,7 +4,9 @@ import cn.lyf.tools.core.constant.CommonConstant;
 import cn.lyf.tools.io.file.FileTypeUtil;
 import cn.lyf.tools.io.file.FileUtil;
 import cn.lyf.tools.io.http.HttpClientUtil;
+import cn.lyf.tools.io.http.RangeDownloader;
 import cn.lyf.tools.str.StringUtil;
+import cn.lyf.tools.thread.ThreadPoolUtils;
 import lombok.extern.slf4j.Slf4j;
 
 import javax.net.ssl.HttpsURLConnection;
@@ -14,10 +16,20 @@ import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
 import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
 import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * @author lyf
@@ -28,6 +40,18 @@ import java.util.Locale;
 public final class IoUtil {
     private static final int BYTE_BUFFER_LENGTH = 8 * 1024;
 
+    /**
+     * 识别文件类型时读取的文件头大小
+     */
+    public static final int SNIFF_LENGTH = 8 * 1024;
+
+    /**
+     * 流式写文件时使用的直接缓冲区大小，从BufferPool借用，写FileChannel时不需要再复制到临时的直接缓冲区
+     */
+    private static final int DIRECT_BUFFER_LENGTH = 64 * 1024;
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
     /**
      * 获取文件输入流
      *
@@ -60,15 +84,8 @@ public final class IoUtil {
         if (inputStream == null) {
             return null;
         }
-        try (BufferedInputStream bufferedInputStream = new BufferedInputStream(inputStream);
-             ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream()
-        ) {
-            byte[] byteBuffer = new byte[BYTE_BUFFER_LENGTH];
-            int length = -1;
-            while ((length = bufferedInputStream.read(byteBuffer)) != -1) {
-                byteArrayOutputStream.write(byteBuffer, 0, length);
-            }
-            return byteArrayOutputStream.toByteArray();
+        try (InputStream in = inputStream) {
+            return readAll(in);
         }
     }
 
@@ -176,6 +193,12 @@ public final class IoUtil {
         return printStream;
     }
 
+    /**
+     * 复制单个文件，失败时只记录日志；需要抛出异常、保留属性或者复制目录时使用TreeCopier
+     *
+     * @param srcFile  源文件
+     * @param destFile 目标文件
+     */
     public static void copyFile(File srcFile, File destFile) {
         if (srcFile == null || !srcFile.exists() || !srcFile.isFile()) {
             log.debug("srcFile not exists");
@@ -191,12 +214,102 @@ public final class IoUtil {
                 FileChannel srcFileChannel = new FileInputStream(srcFile).getChannel();
                 FileChannel destFileChannel = new FileOutputStream(destFile).getChannel()
         ) {
-            srcFileChannel.transferTo(0, srcFileChannel.size(), destFileChannel);
+            long size = srcFileChannel.size();
+            long transferred = transferFully(srcFileChannel, 0, size, destFileChannel);
+            if (transferred != size) {
+                log.error("copy {} to {} incomplete, {}/{} bytes", srcFile, destFile, transferred, size);
+            }
         } catch (IOException e) {
             log.error("", e);
         }
     }
 
+    /**
+     * 循环调用transferTo直到传输完count个字节，单次transferTo在大文件或者部分文件系统上只会传输一部分
+     *
+     * @param srcChannel 源文件通道
+     * @param position   起始位置
+     * @param count      字节数
+     * @param target     目标通道，必须是阻塞的
+     * @return 传输的字节数，源文件被截短时小于count
+     * @throws IOException IOException
+     */
+    public static long transferFully(FileChannel srcChannel, long position, long count, WritableByteChannel target) throws IOException {
+        long transferred = 0L;
+        while (transferred < count) {
+            long n = srcChannel.transferTo(position + transferred, count - transferred, target);
+            if (n <= 0) {
+                // 已经到达文件末尾
+                break;
+            }
+            transferred += n;
+        }
+        return transferred;
+    }
+
+    /**
+     * 在目标文件所在目录独占创建临时文件(.目标文件名.随机数.tmp)，不会与已有的文件冲突
+     * <pre>
+     *     不使用Files.createTempFile，它在POSIX下创建的文件权限是600，重命名后目标文件的权限应该与普通新建的文件一致
+     * </pre>
+     *
+     * @param target 目标文件
+     * @return 临时文件
+     * @throws IOException IOException
+     */
+    public static Path createTempSibling(Path target) throws IOException {
+        Path absolute = target.toAbsolutePath();
+        String prefix = "." + absolute.getFileName() + ".";
+        while (true) {
+            Path tempFile = absolute.resolveSibling(prefix + Long.toHexString(ThreadLocalRandom.current().nextLong()) + TEMP_SUFFIX);
+            try {
+                return Files.createFile(tempFile);
+            } catch (FileAlreadyExistsException e) {
+                // 重名的概率极小，换一个名字
+            }
+        }
+    }
+
+    /**
+     * 重命名并覆盖目标文件，文件系统支持时使用原子重命名
+     *
+     * @param source 源文件
+     * @param target 目标文件
+     * @throws IOException IOException
+     */
+    public static void moveAtomically(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * 替换文件内容: 先写入createTempSibling创建的临时文件，写完后用moveAtomically重命名为目标文件，失败时删除临时文件，
+     * 读取方看到的要么是旧文件，要么是完整的新文件
+     *
+     * @param destFile 目标文件
+     * @param writer   写入内容，输出流带缓冲
+     * @throws IOException IOException
+     */
+    public static void writeAtomically(File destFile, OutputWriter writer) throws IOException {
+        Path target = destFile.toPath().toAbsolutePath();
+        Path tempFile = createTempSibling(target);
+        boolean success = false;
+        try {
+            try (OutputStream outputStream = new BufferedOutputStream(Files.newOutputStream(tempFile, StandardOpenOption.WRITE))) {
+                writer.write(outputStream);
+            }
+            moveAtomically(tempFile, target);
+            success = true;
+        } finally {
+            if (!success) {
+                Files.deleteIfExists(tempFile);
+            }
+        }
+    }
+
     /**
      * 从输入流中获取字节数组
      *
@@ -206,14 +319,148 @@ public final class IoUtil {
      */
     public static byte[] readInputStream(InputStream inputStream)
             throws IOException {
-        byte[] b = new byte[1024 * 8];
-        int len = 0;
-        ByteArrayOutputStream bos = new ByteArrayOutputStream();
-        while ((len = inputStream.read(b)) != -1) {
-            bos.write(b, 0, len);
-        }
-        bos.close();
-        return bos.toByteArray();
+        return readAll(inputStream);
+    }
+
+    /**
+     * 读取输入流的全部字节，不关闭输入流
+     * <pre>
+     *     1. 读缓冲区从BufferPool借用，本身已经是块读取，不需要再套BufferedInputStream
+     *     2. 按available()预估输出的初始大小，文件流可以一次分配到位，避免ByteArrayOutputStream反复扩容
+     * </pre>
+     *
+     * @param inputStream inputStream
+     * @return byte[]
+     * @throws IOException IOException
+     */
+    private static byte[] readAll(InputStream inputStream) throws IOException {
+        byte[] buffer = BufferPool.acquireBytes(BYTE_BUFFER_LENGTH);
+        try {
+            int first = inputStream.read(buffer);
+            if (first == -1) {
+                return new byte[0];
+            }
+            int second = inputStream.read(buffer, first, buffer.length - first);
+            if (second == -1) {
+                // 小于一个缓冲区的输入直接复制，不经过ByteArrayOutputStream
+                return Arrays.copyOf(buffer, first);
+            }
+            int buffered = first + second;
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream(Math.max(buffered * 2, buffered + inputStream.available()));
+            outputStream.write(buffer, 0, buffered);
+            int length;
+            while ((length = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, length);
+            }
+            return outputStream.toByteArray();
+        } finally {
+            BufferPool.release(buffer);
+        }
+    }
+
+    /**
+     * 读取输入流开头的最多length个字节，用于识别文件类型等只需要文件头的场景
+     *
+     * @param inputStream inputStream
+     * @param length      最多读取的字节数
+     * @return 实际读到的字节
+     * @throws IOException IOException
+     */
+    public static byte[] readHead(InputStream inputStream, int length) throws IOException {
+        byte[] head = new byte[length];
+        int total = 0;
+        int count;
+        while (total < length && (count = inputStream.read(head, total, length - total)) != -1) {
+            total += count;
+        }
+        return total == length ? head : Arrays.copyOf(head, total);
+    }
+
+    /**
+     * 把输入流写入FileChannel，通过当前线程复用的直接缓冲区中转，每填满一次缓冲区写一次
+     * <pre>
+     *     1. 不关闭inputStream和outChannel
+     *     2. 输入流是FileInputStream且不需要进度回调时，直接使用transferFrom
+     * </pre>
+     *
+     * @param inputStream 输入流
+     * @param outChannel  目标通道
+     * @param total       总字节数，仅用于进度回调，未知时为-1
+     * @param listener    进度回调，可以为null
+     * @return 写入的字节数
+     * @throws IOException IOException
+     */
+    public static long transfer(InputStream inputStream, FileChannel outChannel, long total, ProgressListener listener) throws IOException {
+        long start = outChannel.position();
+        if (inputStream instanceof FileInputStream && listener == null) {
+            FileChannel inChannel = ((FileInputStream) inputStream).getChannel();
+            long transferred = 0L;
+            long count;
+            while ((count = outChannel.transferFrom(inChannel, start + transferred, Long.MAX_VALUE)) > 0) {
+                transferred += count;
+            }
+            outChannel.position(start + transferred);
+            return transferred;
+        }
+
+        // 不能关闭，否则会关闭inputStream
+        ReadableByteChannel inChannel = Channels.newChannel(inputStream);
+        ByteBuffer buffer = BufferPool.acquireDirect(DIRECT_BUFFER_LENGTH);
+        try {
+            long transferred = 0L;
+            boolean eof = false;
+            while (!eof) {
+                while (buffer.hasRemaining()) {
+                    if (inChannel.read(buffer) == -1) {
+                        eof = true;
+                        break;
+                    }
+                }
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    transferred += outChannel.write(buffer);
+                }
+                buffer.clear();
+                if (listener != null) {
+                    listener.onProgress(transferred, total);
+                }
+            }
+            return transferred;
+        } finally {
+            BufferPool.release(buffer);
+        }
+    }
+
+    /**
+     * 流式下载: 先写入临时文件，完成后再重命名为目标文件，内存占用与文件大小无关
+     *
+     * @param inputStream 输入流，不会被关闭
+     * @param destFile    目标文件
+     * @param total       总字节数，仅用于进度回调，未知时为-1
+     * @param listener    进度回调，可以为null
+     * @return 传输统计
+     * @throws IOException IOException
+     */
+    public static TransferStats download(InputStream inputStream, File destFile, long total, ProgressListener listener) throws IOException {
+        if (inputStream == null || destFile == null) {
+            throw new IllegalArgumentException("inputStream and destFile can't be null");
+        }
+        long startNanos = System.nanoTime();
+        Path tempFile = createTempSibling(destFile.toPath());
+        long transferred;
+        try {
+            try (FileChannel outChannel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+                transferred = transfer(inputStream, outChannel, total, listener);
+            }
+            moveAtomically(tempFile, destFile.toPath());
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+        TransferStats stats = new TransferStats();
+        stats.setBytes(transferred);
+        stats.setElapsedNanos(System.nanoTime() - startNanos);
+        log.info("{} download is success, {} bytes, {} bytes/s", destFile.getName(), stats.getBytes(), (long) stats.getBytesPerSecond());
+        return stats;
     }
 
     /**
@@ -241,8 +488,16 @@ public final class IoUtil {
                 log.info("inputStream is null");
                 return null;
             }
-            byte[] bytes = readInputStream(inputStream);
-            String fileType = FileTypeUtil.getRealFileType(bytes);
+            // 只缓冲文件头用于识别类型，之后从头开始流式写入
+            BufferedInputStream bufferedInputStream = new BufferedInputStream(inputStream, SNIFF_LENGTH);
+            bufferedInputStream.mark(SNIFF_LENGTH);
+            byte[] head = readHead(bufferedInputStream, SNIFF_LENGTH);
+            bufferedInputStream.reset();
+            if (head.length == 0) {
+                log.info("download failed, inputStream is empty");
+                return null;
+            }
+            String fileType = FileTypeUtil.getRealFileType(head);
             fileType = StringUtil.isEmpty(fileType) ? "unknown" : fileType;
             String fileSaveName = saveName;
             if (StringUtil.isEmpty(fileSaveName)) {
@@ -250,7 +505,12 @@ public final class IoUtil {
             }
             fileName = saveDirectory + File.separator
                     + fileSaveName + "." + fileType;
-            download(bytes, fileName);
+            File destFile = new File(fileName);
+            if (destFile.exists()) {
+                log.info("{} is exists, not need download", destFile.getName());
+                return fileName;
+            }
+            download(bufferedInputStream, destFile, -1L, null);
         } catch (IOException e) {
             log.error("autoDownload failed", e);
             return null;
@@ -272,17 +532,9 @@ public final class IoUtil {
     }
 
     public static void downloadByNio(InputStream inputStream, File destFile) {
-        try (FileChannel outChannel = new FileOutputStream(destFile).getChannel();
-             ReadableByteChannel inChannel = Channels.newChannel(inputStream);
-        ) {
-            ByteBuffer buffer = ByteBuffer.allocate(1024);
-
-            while (inChannel.read(buffer) != -1) {
-                // 将buffer 从读模式转为写模式
-                buffer.flip();
-                outChannel.write(buffer);
-                buffer.clear();
-            }
+        try (FileChannel outChannel = FileChannel.open(destFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            transfer(inputStream, outChannel, -1L, null);
         } catch (IOException e) {
             log.error("{}", e.getMessage());
         }
@@ -319,7 +571,7 @@ public final class IoUtil {
     }
 
     /**
-     * 下载资源
+     * 下载资源，流式写入，不会把整个资源读入内存
      *
      * @param inputStream 文件输入流
      * @param destFile    目标文件
@@ -330,8 +582,15 @@ public final class IoUtil {
                 log.info("download failed, inputStream is null");
                 return;
             }
-            byte[] bytes = readInputStream(inputStream);
-            download(bytes, destFile);
+            if (destFile == null) {
+                log.info("destFile is null");
+                return;
+            }
+            if (destFile.exists()) {
+                log.info("{} is exists, not need download", destFile.getName());
+                return;
+            }
+            download(inputStream, destFile, -1L, null);
         } catch (IOException e) {
             log.info("IOException:{}", e.getMessage());
         } finally {
@@ -351,41 +610,63 @@ public final class IoUtil {
     }
 
     public static void download(String url, String destFilePath) {
-        if (url.toUpperCase(Locale.ENGLISH).contains(CommonConstant.HTTPS)) {
-            downloadFromHttps(url, destFilePath);
-        } else {
-            downloadFromHttp(url, destFilePath);
-        }
+        download(url, destFilePath, null);
     }
 
-    private static void downloadFromHttp(String urlStr, String destFilePath) {
-        HttpURLConnection conn = HttpClientUtil.getHttpUrlConnection(urlStr);
+    /**
+     * 下载资源，流式写入并回调进度
+     *
+     * @param url          资源路径
+     * @param destFilePath 目标文件路径
+     * @param listener     进度回调，可以为null，total为响应的Content-Length
+     * @return 传输统计，下载失败时返回null
+     */
+    public static TransferStats download(String url, String destFilePath, ProgressListener listener) {
+        // HttpsURLConnection是HttpURLConnection的子类，这里不需要区分
+        HttpURLConnection conn = HttpClientUtil.getHttpUrlConnection(url);
         if (conn == null) {
-            log.info("downloadFromHttp: {} is failed, the HttpURLConnection is null", urlStr);
-            return;
+            log.info("download: {} is failed, the HttpURLConnection is null", url);
+            return null;
         }
 
-        // 得到输入流
+        File destFile = new File(destFilePath);
+        if (destFile.exists()) {
+            log.info("{} is exists, not need download", destFile.getName());
+            return null;
+        }
         try (InputStream inputStream = conn.getInputStream()) {
-            download(inputStream, destFilePath);
+            return download(inputStream, destFile, conn.getContentLengthLong(), listener);
         } catch (IOException e) {
-            log.error("downloadFromHttp: {} is failed, {}", urlStr, e.getMessage());
+            log.error("download: {} is failed, {}", url, e.getMessage());
+            return null;
         }
     }
 
-    private static void downloadFromHttps(String url, String destFilePath) {
-        InputStream inputStream = null;
-        try {
-            HttpsURLConnection connection = HttpClientUtil.getHttpsUrlConnection(url);
-            if (connection != null) {
-                inputStream = connection.getInputStream();
-                download(inputStream, destFilePath);
-            }
-        } catch (IOException e) {
-            log.error("download From Https: {} is failed", url);
-        } finally {
-            closeStream(inputStream);
-        }
+    /**
+     * 多连接分段下载，支持断点续传，服务端不支持Range时回退为单连接下载
+     *
+     * @param url          资源路径
+     * @param destFilePath 目标文件路径
+     * @param connections  并发连接数
+     * @param listener     进度回调，可以为null，会在多个下载线程中调用
+     * @return 传输统计
+     * @throws IOException IOException
+     * @see RangeDownloader
+     */
+    public static TransferStats downloadByRange(String url, String destFilePath, int connections, ProgressListener listener) throws IOException {
+        return new RangeDownloader(connections, RangeDownloader.DEFAULT_RANGE_SIZE, RangeDownloader.DEFAULT_MAX_RETRIES,
+                ThreadPoolUtils.getBlockingIoExecutor()).download(url, new File(destFilePath), listener);
+    }
+
+    /**
+     * 异步下载资源，阻塞的网络读写发生在ThreadPoolUtils.getBlockingIoExecutor()中
+     *
+     * @param url          资源路径
+     * @param destFilePath 目标文件路径
+     * @return CompletableFuture
+     */
+    public static CompletableFuture<Void> downloadAsync(String url, String destFilePath) {
+        return CompletableFuture.runAsync(() -> download(url, destFilePath), ThreadPoolUtils.getBlockingIoExecutor());
     }
 
     /**
@@ -0,0 +1,20 @@
+package cn.lyf.tools.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * @author lyf
+ * @description 向输出流写入内容的回调，配合IoUtil.writeAtomically使用
+ * @since 2023/5/23 10:12:08
+ */
+@FunctionalInterface
+public interface OutputWriter {
+    /**
+     * 写入内容
+     *
+     * @param outputStream 输出流，由调用方关闭
+     * @throws IOException IOException
+     */
+    void write(OutputStream outputStream) throws IOException;
+}
@@ -0,0 +1,17 @@
+package cn.lyf.tools.io;
+
+/**
+ * @author lyf
+ * @description 传输进度回调，每写完一个缓冲区回调一次，参数都是基本类型，回调本身不产生额外的对象
+ * @since 2023/5/16 14:05:51
+ */
+@FunctionalInterface
+public interface ProgressListener {
+    /**
+     * 进度回调
+     *
+     * @param transferred 已传输的字节数
+     * @param total       总字节数，未知时为-1
+     */
+    void onProgress(long transferred, long total);
+}
@@ -0,0 +1,30 @@
+package cn.lyf.tools.io;
+
+import lombok.Data;
+
+/**
+ * @author lyf
+ * @description 一次传输的统计
+ * @since 2023/5/16 14:08:17
+ */
+@Data
+public class TransferStats {
+    /**
+     * 传输的字节数
+     */
+    private long bytes;
+
+    /**
+     * 耗时，纳秒
+     */
+    private long elapsedNanos;
+
+    /**
+     * 平均吞吐量，字节/秒
+     *
+     * @return bytesPerSecond
+     */
+    public double getBytesPerSecond() {
+        return elapsedNanos <= 0 ? 0d : bytes * 1_000_000_000d / elapsedNanos;
+    }
+}
@@ -0,0 +1,29 @@
+package cn.lyf.tools.io.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * @author lyf
+ * @description 分片校验失败，只需要重新获取损坏的分片
+ * @since 2023/5/15 10:26:47
+ */
+public class ChunkCorruptedException extends IOException {
+    private static final long serialVersionUID = 4183628815305592751L;
+
+    /**
+     * 损坏的分片序号
+     */
+    private final List<Integer> chunkIndexes;
+
+    public ChunkCorruptedException(File chunkFolder, List<Integer> chunkIndexes) {
+        super("分块文件夹: " + chunkFolder + ", 分片校验失败: " + chunkIndexes);
+        this.chunkIndexes = Collections.unmodifiableList(chunkIndexes);
+    }
+
+    public List<Integer> getChunkIndexes() {
+        return chunkIndexes;
+    }
+}
@@ -0,0 +1,337 @@
+package cn.lyf.tools.io.file;
+
+import cn.lyf.tools.crypto.Md5Util;
+import cn.lyf.tools.crypto.XxHash64;
+import cn.lyf.tools.io.IoUtil;
+import lombok.Getter;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * @author lyf
+ * @description 分片清单，记录每个分片的序号、偏移量、长度、xxHash64以及可选的md5
+ * <pre>
+ *     1. 二进制格式(大端): magic(4) + version(1) + flags(1) + 源文件长度(8) + 分片数(4)，
+ *        之后每个分片: 序号(4) + 偏移量(8) + 长度(4) + xxHash64(8) + [md5(16)]
+ *     2. 可以按固定大小或者基于内容(ContentDefinedChunker)扫描源文件生成清单，扫描时不写分片文件
+ *     3. diff(base, target)按内容比较两个清单，返回target中base不存在的分片，只需要重新上传这些分片
+ * </pre>
+ * @since 2023/5/15 16:24:05
+ */
+@Getter
+public final class ChunkManifest {
+    /**
+     * "LYFC"
+     */
+    private static final int MAGIC = 0x4C594643;
+
+    private static final byte VERSION = 1;
+
+    private static final byte FLAG_MD5 = 1;
+
+    private static final int MD5_LENGTH = 16;
+
+    /**
+     * 源文件长度
+     */
+    private final long srcLength;
+
+    /**
+     * 是否记录了分片的md5
+     */
+    private final boolean withMd5;
+
+    /**
+     * 按序号排列的分片
+     */
+    private final List<Chunk> chunks;
+
+    private ChunkManifest(long srcLength, boolean withMd5, List<Chunk> chunks) {
+        this.srcLength = srcLength;
+        this.withMd5 = withMd5;
+        this.chunks = Collections.unmodifiableList(chunks);
+    }
+
+    /**
+     * 按内容分块扫描源文件
+     *
+     * @param srcFile 源文件
+     * @param chunker 分块参数
+     * @param withMd5 是否同时计算分片的md5
+     * @return ChunkManifest
+     * @throws IOException IOException
+     */
+    public static ChunkManifest scan(File srcFile, ContentDefinedChunker chunker, boolean withMd5) throws IOException {
+        if (chunker == null) {
+            throw new IllegalArgumentException("chunker不能为空");
+        }
+        return scan(srcFile, chunker::cut, chunker.getMaxSize(), withMd5, null);
+    }
+
+    /**
+     * 按固定大小扫描源文件，与FileSplitUtil.sliceFile的分片一致
+     *
+     * @param srcFile   源文件
+     * @param sliceSize 分片大小
+     * @param withMd5   是否同时计算分片的md5
+     * @return ChunkManifest
+     * @throws IOException IOException
+     */
+    public static ChunkManifest scan(File srcFile, int sliceSize, boolean withMd5) throws IOException {
+        if (sliceSize <= 0) {
+            throw new IllegalArgumentException("分片大小必须大于0");
+        }
+        return scan(srcFile, (bytes, offset, length) -> Math.min(length, sliceSize), sliceSize, withMd5, null);
+    }
+
+    /**
+     * 流式扫描源文件，每个分片都完整地位于缓冲区中，计算哈希后交给consumer
+     *
+     * @param srcFile      源文件
+     * @param cutter       分块边界
+     * @param maxChunkSize 最大分片大小
+     * @param withMd5      是否同时计算分片的md5
+     * @param consumer     分片数据的消费者，可以为null
+     * @return ChunkManifest
+     * @throws IOException IOException
+     */
+    static ChunkManifest scan(File srcFile, Cutter cutter, int maxChunkSize, boolean withMd5, ChunkConsumer consumer) throws IOException {
+        if (srcFile == null || !srcFile.isFile()) {
+            throw new IllegalArgumentException("源文件不存在");
+        }
+        MessageDigest md5 = withMd5 ? newMd5() : null;
+        byte[] buffer = new byte[(int) Math.min(Integer.MAX_VALUE - 8, maxChunkSize * 2L)];
+        List<Chunk> chunks = new ArrayList<>();
+        long offset = 0L;
+        int start = 0;
+        int end = 0;
+        boolean eof = false;
+        try (InputStream inputStream = new FileInputStream(srcFile)) {
+            while (true) {
+                if (!eof && end - start < maxChunkSize) {
+                    // 剩余数据不足一个最大分片时，移到缓冲区头部再读满
+                    System.arraycopy(buffer, start, buffer, 0, end - start);
+                    end -= start;
+                    start = 0;
+                    while (end < buffer.length) {
+                        int count = inputStream.read(buffer, end, buffer.length - end);
+                        if (count < 0) {
+                            eof = true;
+                            break;
+                        }
+                        end += count;
+                    }
+                }
+                int available = end - start;
+                if (available == 0) {
+                    break;
+                }
+                int length = cutter.cut(buffer, start, available);
+                String chunkMd5 = null;
+                if (md5 != null) {
+                    md5.update(buffer, start, length);
+                    chunkMd5 = Md5Util.encodeHex(md5.digest());
+                }
+                Chunk chunk = new Chunk(chunks.size() + 1, offset, length, XxHash64.hash(buffer, start, length, 0L), chunkMd5);
+                chunks.add(chunk);
+                if (consumer != null) {
+                    consumer.accept(chunk, buffer, start, length);
+                }
+                offset += length;
+                start += length;
+            }
+        }
+        return new ChunkManifest(offset, withMd5, chunks);
+    }
+
+    /**
+     * 写入清单文件，先写临时文件再重命名
+     *
+     * @param manifestFile 清单文件
+     * @throws IOException IOException
+     */
+    public void write(File manifestFile) throws IOException {
+        IoUtil.writeAtomically(manifestFile, outputStream -> {
+            DataOutputStream out = new DataOutputStream(outputStream);
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeByte(withMd5 ? FLAG_MD5 : 0);
+            out.writeLong(srcLength);
+            out.writeInt(chunks.size());
+            for (Chunk chunk : chunks) {
+                out.writeInt(chunk.index);
+                out.writeLong(chunk.offset);
+                out.writeInt(chunk.length);
+                out.writeLong(chunk.xxHash64);
+                if (withMd5) {
+                    out.write(decodeHex(chunk.md5));
+                }
+            }
+        });
+    }
+
+    /**
+     * 读取清单文件
+     *
+     * @param manifestFile 清单文件
+     * @return ChunkManifest
+     * @throws IOException 文件不存在或者格式不正确
+     */
+    public static ChunkManifest read(File manifestFile) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(manifestFile)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(manifestFile + ", 不是分片清单文件");
+            }
+            byte version = in.readByte();
+            if (version != VERSION) {
+                throw new IOException(manifestFile + ", 不支持的清单版本: " + version);
+            }
+            boolean withMd5 = (in.readByte() & FLAG_MD5) != 0;
+            long srcLength = in.readLong();
+            int chunkCount = in.readInt();
+            if (chunkCount < 0) {
+                throw new IOException(manifestFile + ", 分片数非法: " + chunkCount);
+            }
+            List<Chunk> chunks = new ArrayList<>(Math.min(chunkCount, 1 << 16));
+            byte[] md5 = new byte[MD5_LENGTH];
+            for (int i = 0; i < chunkCount; i++) {
+                int index = in.readInt();
+                long offset = in.readLong();
+                int length = in.readInt();
+                long xxHash64 = in.readLong();
+                String chunkMd5 = null;
+                if (withMd5) {
+                    in.readFully(md5);
+                    chunkMd5 = Md5Util.encodeHex(md5);
+                }
+                chunks.add(new Chunk(index, offset, length, xxHash64, chunkMd5));
+            }
+            return new ChunkManifest(srcLength, withMd5, chunks);
+        }
+    }
+
+    /**
+     * 按内容比较两个清单，返回target中base不存在的分片
+     * <pre>
+     *     长度和xxHash64相同，且双方都有md5时md5也相同，才认为是同一个分片，与分片的序号和偏移量无关
+     * </pre>
+     *
+     * @param base   已经上传的清单
+     * @param target 新的清单
+     * @return 需要重新上传的分片，按序号排列
+     */
+    public static List<Chunk> diff(ChunkManifest base, ChunkManifest target) {
+        if (target == null) {
+            throw new IllegalArgumentException("target不能为空");
+        }
+        if (base == null) {
+            return target.chunks;
+        }
+        Map<Long, List<Chunk>> baseChunks = new HashMap<>(base.chunks.size() * 2);
+        for (Chunk chunk : base.chunks) {
+            baseChunks.computeIfAbsent(chunk.xxHash64, key -> new ArrayList<>(1)).add(chunk);
+        }
+        List<Chunk> changed = new ArrayList<>();
+        for (Chunk chunk : target.chunks) {
+            List<Chunk> candidates = baseChunks.get(chunk.xxHash64);
+            boolean found = false;
+            if (candidates != null) {
+                for (Chunk candidate : candidates) {
+                    if (candidate.sameContent(chunk)) {
+                        found = true;
+                        break;
+                    }
+                }
+            }
+            if (!found) {
+                changed.add(chunk);
+            }
+        }
+        return changed;
+    }
+
+    private static MessageDigest newMd5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("no md5 found");
+        }
+    }
+
+    private static byte[] decodeHex(String hex) {
+        byte[] bytes = new byte[MD5_LENGTH];
+        for (int i = 0; i < MD5_LENGTH; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        return bytes;
+    }
+
+    /**
+     * 清单中的一个分片
+     */
+    @Getter
+    public static final class Chunk {
+        /**
+         * 序号，从1开始，与分片文件名一致
+         */
+        private final int index;
+
+        /**
+         * 在源文件中的偏移量
+         */
+        private final long offset;
+
+        private final int length;
+
+        private final long xxHash64;
+
+        /**
+         * 小写的md5，未计算时为null
+         */
+        private final String md5;
+
+        Chunk(int index, long offset, int length, long xxHash64, String md5) {
+            this.index = index;
+            this.offset = offset;
+            this.length = length;
+            this.xxHash64 = xxHash64;
+            this.md5 = md5;
+        }
+
+        boolean sameContent(Chunk other) {
+            if (length != other.length || xxHash64 != other.xxHash64) {
+                return false;
+            }
+            return md5 == null || other.md5 == null || md5.equals(other.md5);
+        }
+
+        @Override
+        public String toString() {
+            return "Chunk{index=" + index + ", offset=" + offset + ", length=" + length
+                    + ", xxHash64=" + Long.toHexString(xxHash64) + ", md5=" + md5 + '}';
+        }
+    }
+
+    /**
+     * 分块边界
+     */
+    interface Cutter {
+        /**
+         * @param bytes  数据
+         * @param offset 分块的起始位置
+         * @param length 可用的字节数
+         * @return 分块长度
+         */
+        int cut(byte[] bytes, int offset, int length);
+    }
+
+    /**
+     * 扫描过程中的分片数据消费者
+     */
+    interface ChunkConsumer {
+        void accept(Chunk chunk, byte[] bytes, int offset, int length) throws IOException;
+    }
+}
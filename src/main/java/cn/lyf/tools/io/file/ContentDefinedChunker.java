@@ -0,0 +1,123 @@
+package cn.lyf.tools.io.file;
+
+/**
+ * @author lyf
+ * @description 基于内容的分块(FastCDC)，分块边界由内容决定，文件中间插入或删除数据时只影响附近的分块
+ * <pre>
+ *     1. 使用Gear滚动哈希: hash = (hash << 1) + GEAR[b]，哈希的高位满足掩码时切分
+ *     2. 跳过前minSize字节不判断切分，最多maxSize字节强制切分
+ *     3. 归一化分块: 未达到avgSize时使用更严格的掩码，超过后使用更宽松的掩码，分块大小更集中在avgSize附近
+ *     4. GEAR表由固定种子生成，同样的参数对同样的内容总是得到同样的分块
+ * </pre>
+ * @since 2023/5/15 15:58:41
+ */
+public final class ContentDefinedChunker {
+    /**
+     * 默认的最小分块大小，256K
+     */
+    public static final int DEFAULT_MIN_SIZE = 256 * 1024;
+
+    /**
+     * 默认的平均分块大小，1M
+     */
+    public static final int DEFAULT_AVG_SIZE = 1024 * 1024;
+
+    /**
+     * 默认的最大分块大小，4M
+     */
+    public static final int DEFAULT_MAX_SIZE = 4 * 1024 * 1024;
+
+    private static final long[] GEAR = new long[256];
+
+    static {
+        // splitmix64，固定种子，保证不同JVM上的分块结果一致
+        long seed = 0x6C79665F63646321L;
+        for (int i = 0; i < GEAR.length; i++) {
+            seed += 0x9E3779B97F4A7C15L;
+            long z = seed;
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            GEAR[i] = z ^ (z >>> 31);
+        }
+    }
+
+    private final int minSize;
+
+    private final int avgSize;
+
+    private final int maxSize;
+
+    /**
+     * 未达到avgSize时的掩码，比平均值多1位
+     */
+    private final long maskS;
+
+    /**
+     * 超过avgSize后的掩码，比平均值少1位
+     */
+    private final long maskL;
+
+    public ContentDefinedChunker() {
+        this(DEFAULT_MIN_SIZE, DEFAULT_AVG_SIZE, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * @param minSize 最小分块大小
+     * @param avgSize 平均分块大小，会向下取整为2的幂
+     * @param maxSize 最大分块大小
+     */
+    public ContentDefinedChunker(int minSize, int avgSize, int maxSize) {
+        if (minSize < 64 || minSize >= avgSize || avgSize >= maxSize) {
+            throw new IllegalArgumentException("chunk size must satisfy 64 <= minSize < avgSize < maxSize");
+        }
+        int bits = 31 - Integer.numberOfLeadingZeros(avgSize);
+        this.minSize = minSize;
+        this.avgSize = 1 << bits;
+        this.maxSize = maxSize;
+        this.maskS = -1L << (64 - (bits + 1));
+        this.maskL = -1L << (64 - (bits - 1));
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    public int getAvgSize() {
+        return avgSize;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * 计算下一个分块的长度
+     *
+     * @param bytes  数据
+     * @param offset 分块的起始位置
+     * @param length 可用的字节数，未到文件末尾时需要不小于maxSize
+     * @return 分块长度
+     */
+    public int cut(byte[] bytes, int offset, int length) {
+        if (length <= minSize) {
+            return length;
+        }
+        int n = Math.min(length, maxSize);
+        int normal = Math.min(avgSize, n);
+        long hash = 0L;
+        int i = minSize;
+        for (; i < normal; i++) {
+            hash = (hash << 1) + GEAR[bytes[offset + i] & 0xFF];
+            if ((hash & maskS) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < n; i++) {
+            hash = (hash << 1) + GEAR[bytes[offset + i] & 0xFF];
+            if ((hash & maskL) == 0) {
+                return i + 1;
+            }
+        }
+        return n;
+    }
+}
@@ -0,0 +1,59 @@
+package cn.lyf.tools.io.file;
+
+import lombok.Data;
+
+/**
+ * @author lyf
+ * @description 一次目录复制或者移动的统计
+ * @since 2023/5/18 10:12:36
+ */
+@Data
+public class CopyStats {
+    /**
+     * 复制的文件数
+     */
+    private long files;
+
+    /**
+     * 因为没有变化而跳过的文件数
+     */
+    private long skippedFiles;
+
+    /**
+     * 创建的目录数
+     */
+    private long directories;
+
+    /**
+     * 复制的字节数，不包括跳过的文件
+     */
+    private long bytes;
+
+    /**
+     * 是否通过一次原子重命名完成了移动
+     */
+    private boolean renamed;
+
+    /**
+     * 耗时，纳秒
+     */
+    private long elapsedNanos;
+
+    /**
+     * 平均吞吐量，字节/秒
+     *
+     * @return bytesPerSecond
+     */
+    public double getBytesPerSecond() {
+        return elapsedNanos <= 0 ? 0d : bytes * 1_000_000_000d / elapsedNanos;
+    }
+
+    /**
+     * 平均每秒处理的文件数，包括跳过的文件
+     *
+     * @return filesPerSecond
+     */
+    public double getFilesPerSecond() {
+        return elapsedNanos <= 0 ? 0d : (files + skippedFiles) * 1_000_000_000d / elapsedNanos;
+    }
+}
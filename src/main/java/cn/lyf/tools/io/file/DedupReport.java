@@ -0,0 +1,129 @@
+package cn.lyf.tools.io.file;
+
+import lombok.Data;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * @author lyf
+ * @description 一次重复文件扫描的结果和统计
+ * @since 2023/5/21 9:48:10
+ */
+@Data
+public class DedupReport {
+    /**
+     * 重复文件组，按文件大小从大到小排列
+     */
+    private List<DuplicateGroup> groups;
+
+    /**
+     * 扫描到的文件数
+     */
+    private long files;
+
+    /**
+     * 扫描到的文件总大小
+     */
+    private long bytes;
+
+    /**
+     * 存在同样大小的其他文件，需要进一步比较的文件数
+     */
+    private long sizeCandidates;
+
+    /**
+     * 计算了首尾哈希的文件数
+     */
+    private long sampleHashed;
+
+    /**
+     * 计算了完整摘要的文件数
+     */
+    private long fullHashed;
+
+    /**
+     * 从缓存中取得哈希的次数
+     */
+    private long cacheHits;
+
+    /**
+     * 实际读取并计算哈希的字节数
+     */
+    private long bytesHashed;
+
+    /**
+     * 读取失败而被忽略的文件数
+     */
+    private long failedFiles;
+
+    /**
+     * 耗时，纳秒
+     */
+    private long elapsedNanos;
+
+    /**
+     * 可以删除的重复文件数，每组保留一个
+     *
+     * @return duplicateFiles
+     */
+    public long getDuplicateFiles() {
+        long count = 0L;
+        for (DuplicateGroup group : groups) {
+            count += group.getFiles().size() - 1;
+        }
+        return count;
+    }
+
+    /**
+     * 重复文件占用的字节数，每组保留一个
+     *
+     * @return wastedBytes
+     */
+    public long getWastedBytes() {
+        long wasted = 0L;
+        for (DuplicateGroup group : groups) {
+            wasted += group.getSize() * (group.getFiles().size() - 1);
+        }
+        return wasted;
+    }
+
+    /**
+     * 平均每秒扫描的文件数
+     *
+     * @return filesPerSecond
+     */
+    public double getFilesPerSecond() {
+        return elapsedNanos <= 0 ? 0d : files * 1_000_000_000d / elapsedNanos;
+    }
+
+    /**
+     * 计算哈希的平均吞吐量，字节/秒
+     *
+     * @return bytesHashedPerSecond
+     */
+    public double getBytesHashedPerSecond() {
+        return elapsedNanos <= 0 ? 0d : bytesHashed * 1_000_000_000d / elapsedNanos;
+    }
+
+    /**
+     * 内容相同的一组文件
+     */
+    @Data
+    public static class DuplicateGroup {
+        /**
+         * 文件大小
+         */
+        private long size;
+
+        /**
+         * 完整摘要，十六进制
+         */
+        private String hash;
+
+        /**
+         * 按路径排序的文件
+         */
+        private List<Path> files;
+    }
+}
@@ -0,0 +1,544 @@
+package cn.lyf.tools.io.file;
+
+import cn.lyf.tools.core.builder.Builder;
+import cn.lyf.tools.crypto.Digests;
+import cn.lyf.tools.crypto.XxHash64;
+import cn.lyf.tools.io.BufferPool;
+import cn.lyf.tools.io.IoUtil;
+import cn.lyf.tools.thread.ThreadPoolUtils;
+import cn.lyf.tools.thread.ThrottledSubmitter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * @author lyf
+ * @description 查找内容相同的文件，逐级缩小需要读取的文件
+ * <pre>
+ *     1. 遍历目录，按文件大小分组，大小唯一的文件不需要读取
+ *     2. 大小相同的文件计算首尾各sampleSize字节的xxHash64，不超过2 * sampleSize的小文件直接进入下一步
+ *     3. 首尾哈希仍然相同的文件计算完整摘要(默认MD5，与Md5Util.fileMd5一致)，摘要相同的为一组重复文件
+ *     4. 第2、3步交给executor并行计算，最多parallelism个文件同时读取
+ *     5. 设置cacheFile时，以(路径, 大小, 修改时间)为key缓存两种哈希，再次扫描时跳过没有变化的文件；
+ *        缓存只保留本次扫描到的文件，先写临时文件再重命名，缓存损坏时忽略并重新计算
+ *     6. 读取失败的文件记录日志后忽略，不影响其他文件
+ * </pre>
+ * @since 2023/5/21 10:05:37
+ */
+@Slf4j
+public final class DuplicateFinder {
+    /**
+     * 默认的并行度
+     */
+    public static final int DEFAULT_PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * 默认首尾各取64K
+     */
+    public static final int DEFAULT_SAMPLE_SIZE = 64 * 1024;
+
+    /**
+     * "LYFD"
+     */
+    private static final int CACHE_MAGIC = 0x4C594644;
+
+    /**
+     * 2: 路径改为长度前缀的UTF-8字节，writeUTF不能写超过64K的路径
+     */
+    private static final byte CACHE_VERSION = 2;
+
+    /**
+     * 缓存中单个路径的最大字节数，超过时视为缓存损坏，避免按错误的长度分配内存
+     */
+    private static final int MAX_PATH_BYTES = 1024 * 1024;
+
+    private static final byte FLAG_SAMPLE = 1;
+
+    private static final byte FLAG_FULL = 2;
+
+    private final int parallelism;
+
+    private final int sampleSize;
+
+    private final long minSize;
+
+    private final Digests.Algorithm algorithm;
+
+    private final File cacheFile;
+
+    private final Executor executor;
+
+    private DuplicateFinder(DuplicateFinderBuilder builder) {
+        this.parallelism = builder.parallelism;
+        this.sampleSize = builder.sampleSize;
+        this.minSize = builder.minSize;
+        this.algorithm = builder.algorithm;
+        this.cacheFile = builder.cacheFile;
+        this.executor = builder.executor;
+    }
+
+    public static DuplicateFinderBuilder builder() {
+        return new DuplicateFinderBuilder();
+    }
+
+    /**
+     * 在一个或者多个目录中查找重复文件，不跟随符号链接，重叠的目录中的文件只算一次
+     *
+     * @param roots 目录或者文件
+     * @return 重复文件组和统计
+     * @throws IOException 遍历目录失败或者写缓存失败
+     */
+    public DedupReport find(Path... roots) throws IOException {
+        if (roots == null || roots.length == 0) {
+            throw new IllegalArgumentException("roots can't be empty");
+        }
+        for (Path root : roots) {
+            if (root == null || Files.notExists(root, LinkOption.NOFOLLOW_LINKS)) {
+                throw new IllegalArgumentException("root not exists: " + root);
+            }
+        }
+        long startNanos = System.nanoTime();
+        Scan scan = new Scan(cacheFile == null ? new HashMap<>() : loadCache());
+
+        Map<Long, List<Entry>> bySize = walk(scan, roots);
+
+        // 第2步: 大小相同的文件按首尾哈希再分组
+        List<List<Entry>> candidates = new ArrayList<>();
+        List<Entry> sampled = new ArrayList<>();
+        for (List<Entry> group : bySize.values()) {
+            if (group.size() < 2) {
+                continue;
+            }
+            scan.sizeCandidates.add(group.size());
+            if (group.get(0).size <= 2L * sampleSize) {
+                candidates.add(group);
+                continue;
+            }
+            for (Entry entry : group) {
+                if (!entry.hasSample) {
+                    scan.submitter.submit(() -> sample(scan, entry));
+                }
+                sampled.add(entry);
+            }
+        }
+        scan.submitter.await();
+        candidates.addAll(regroup(sampled, entry -> entry.hasSample ? entry.size + ":" + entry.sample : null));
+
+        // 第3步: 首尾哈希仍然相同的文件计算完整摘要
+        List<Entry> hashed = new ArrayList<>();
+        for (List<Entry> group : candidates) {
+            for (Entry entry : group) {
+                if (entry.full == null) {
+                    scan.submitter.submit(() -> digest(scan, entry));
+                }
+                hashed.add(entry);
+            }
+        }
+        scan.submitter.await();
+
+        List<DedupReport.DuplicateGroup> groups = new ArrayList<>();
+        for (List<Entry> group : regroup(hashed, entry -> entry.full == null ? null : entry.size + ":" + Digests.toHex(entry.full))) {
+            DedupReport.DuplicateGroup duplicateGroup = new DedupReport.DuplicateGroup();
+            duplicateGroup.setSize(group.get(0).size);
+            duplicateGroup.setHash(Digests.toHex(group.get(0).full));
+            List<Path> files = new ArrayList<>(group.size());
+            for (Entry entry : group) {
+                files.add(entry.path);
+            }
+            Collections.sort(files);
+            duplicateGroup.setFiles(files);
+            groups.add(duplicateGroup);
+        }
+        groups.sort(Comparator.comparingLong(DedupReport.DuplicateGroup::getSize).reversed()
+                .thenComparing(group -> group.getFiles().get(0)));
+
+        if (cacheFile != null) {
+            saveCache(bySize.values());
+        }
+        return scan.toReport(groups, System.nanoTime() - startNanos);
+    }
+
+    private Map<Long, List<Entry>> walk(Scan scan, Path[] roots) throws IOException {
+        Map<Long, List<Entry>> bySize = new HashMap<>();
+        Set<Path> seen = new HashSet<>();
+        for (Path root : roots) {
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (!attrs.isRegularFile() || attrs.size() < minSize) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    Path path = file.toAbsolutePath().normalize();
+                    if (!seen.add(path)) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    Entry entry = new Entry(path, attrs.size(), attrs.lastModifiedTime().toMillis());
+                    Entry cached = scan.cache.get(path.toString());
+                    if (cached != null && cached.size == entry.size && cached.modified == entry.modified) {
+                        entry.hasSample = cached.hasSample;
+                        entry.sample = cached.sample;
+                        entry.full = cached.full;
+                    }
+                    bySize.computeIfAbsent(entry.size, key -> new ArrayList<>(1)).add(entry);
+                    scan.files.increment();
+                    scan.bytes.add(entry.size);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    log.warn("skip unreadable file: {}", file, exc);
+                    scan.failedFiles.increment();
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        // 缓存中的哈希只有参与比较时才算命中
+        for (List<Entry> group : bySize.values()) {
+            if (group.size() < 2) {
+                continue;
+            }
+            for (Entry entry : group) {
+                if (entry.full != null) {
+                    scan.cacheHits.increment();
+                } else if (entry.hasSample && entry.size > 2L * sampleSize) {
+                    scan.cacheHits.increment();
+                }
+            }
+        }
+        return bySize;
+    }
+
+    /**
+     * 按key分组，只保留两个以上文件的组，key为null的文件被忽略
+     */
+    private static List<List<Entry>> regroup(List<Entry> entries, Function<Entry, String> keyFunction) {
+        Map<String, List<Entry>> groups = new HashMap<>();
+        for (Entry entry : entries) {
+            String key = keyFunction.apply(entry);
+            if (key != null) {
+                groups.computeIfAbsent(key, k -> new ArrayList<>(2)).add(entry);
+            }
+        }
+        List<List<Entry>> result = new ArrayList<>();
+        for (List<Entry> group : groups.values()) {
+            if (group.size() > 1) {
+                result.add(group);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 首尾各sampleSize字节的xxHash64，只有size > 2 * sampleSize的文件才会调用
+     */
+    private void sample(Scan scan, Entry entry) throws IOException {
+        ByteBuffer buffer = BufferPool.acquireDirect(sampleSize);
+        try (FileChannel channel = FileChannel.open(entry.path, StandardOpenOption.READ)) {
+            XxHash64.Streaming streaming = XxHash64.newStreaming(0L);
+            readFully(channel, buffer, 0L, entry.path);
+            streaming.update(buffer);
+            readFully(channel, buffer, entry.size - sampleSize, entry.path);
+            streaming.update(buffer);
+            entry.sample = streaming.getValue();
+            entry.hasSample = true;
+            scan.sampleHashed.increment();
+            scan.bytesHashed.add(2L * sampleSize);
+        } finally {
+            BufferPool.release(buffer);
+        }
+    }
+
+    private void readFully(FileChannel channel, ByteBuffer buffer, long position, Path path) throws IOException {
+        buffer.clear().limit(sampleSize);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) == -1) {
+                throw new EOFException(path + " was truncated while hashing");
+            }
+        }
+        buffer.flip();
+    }
+
+    private void digest(Scan scan, Entry entry) throws IOException {
+        Digests.Result result = Digests.digest(entry.path.toFile(), algorithm);
+        if (result.getLength() != entry.size) {
+            throw new IOException(entry.path + " was modified while hashing");
+        }
+        entry.full = result.get(algorithm);
+        scan.fullHashed.increment();
+        scan.bytesHashed.add(result.getLength());
+    }
+
+    private Map<String, Entry> loadCache() {
+        Map<String, Entry> cache = new HashMap<>();
+        if (!cacheFile.isFile()) {
+            return cache;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)))) {
+            if (in.readInt() != CACHE_MAGIC) {
+                throw new IOException(cacheFile + ", 不是去重缓存文件");
+            }
+            byte version = in.readByte();
+            if (version != CACHE_VERSION) {
+                throw new IOException(cacheFile + ", 不支持的版本: " + version);
+            }
+            // 算法或者采样大小变化后，对应的哈希不能再用
+            boolean sameAlgorithm = in.readByte() == algorithm.ordinal();
+            boolean sameSampleSize = in.readInt() == sampleSize;
+            int fullLength = in.readByte();
+            int count = in.readInt();
+            if (count < 0 || fullLength < 0) {
+                throw new IOException(cacheFile + ", 缓存信息非法");
+            }
+            for (int i = 0; i < count; i++) {
+                Entry entry = new Entry(null, in.readLong(), in.readLong());
+                int pathLength = in.readInt();
+                if (pathLength < 0 || pathLength > MAX_PATH_BYTES) {
+                    throw new IOException(cacheFile + ", 缓存信息非法");
+                }
+                byte[] pathBytes = new byte[pathLength];
+                in.readFully(pathBytes);
+                String path = new String(pathBytes, StandardCharsets.UTF_8);
+                byte flags = in.readByte();
+                if ((flags & FLAG_SAMPLE) != 0) {
+                    entry.sample = in.readLong();
+                    entry.hasSample = sameSampleSize;
+                }
+                if ((flags & FLAG_FULL) != 0) {
+                    byte[] full = new byte[fullLength];
+                    in.readFully(full);
+                    entry.full = sameAlgorithm ? full : null;
+                }
+                cache.put(path, entry);
+            }
+        } catch (IOException e) {
+            log.warn("ignore broken dedup cache: {}", cacheFile, e);
+            cache.clear();
+        }
+        return cache;
+    }
+
+    /**
+     * 只保存本次扫描到并且有哈希的文件，删除的文件随之从缓存中去掉
+     */
+    private void saveCache(Collection<List<Entry>> groups) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        for (List<Entry> group : groups) {
+            for (Entry entry : group) {
+                if (entry.hasSample || entry.full != null) {
+                    entries.add(entry);
+                }
+            }
+        }
+        IoUtil.writeAtomically(cacheFile, outputStream -> {
+            DataOutputStream out = new DataOutputStream(outputStream);
+            out.writeInt(CACHE_MAGIC);
+            out.writeByte(CACHE_VERSION);
+            out.writeByte(algorithm.ordinal());
+            out.writeInt(sampleSize);
+            out.writeByte(algorithm.getLength());
+            out.writeInt(entries.size());
+            for (Entry entry : entries) {
+                out.writeLong(entry.size);
+                out.writeLong(entry.modified);
+                byte[] pathBytes = entry.path.toString().getBytes(StandardCharsets.UTF_8);
+                out.writeInt(pathBytes.length);
+                out.write(pathBytes);
+                out.writeByte((entry.hasSample ? FLAG_SAMPLE : 0) | (entry.full != null ? FLAG_FULL : 0));
+                if (entry.hasSample) {
+                    out.writeLong(entry.sample);
+                }
+                if (entry.full != null) {
+                    out.write(entry.full);
+                }
+            }
+        });
+    }
+
+    /**
+     * 一个文件以及已知的哈希，哈希由工作线程写入，Scan.await之后再读取
+     */
+    private static final class Entry {
+        private final Path path;
+
+        private final long size;
+
+        private final long modified;
+
+        private boolean hasSample;
+
+        private long sample;
+
+        private byte[] full;
+
+        Entry(Path path, long size, long modified) {
+            this.path = path;
+            this.size = size;
+            this.modified = modified;
+        }
+    }
+
+    /**
+     * 一次扫描的状态
+     */
+    private final class Scan {
+        private final Map<String, Entry> cache;
+
+        private final LongAdder files = new LongAdder();
+
+        private final LongAdder bytes = new LongAdder();
+
+        private final LongAdder sizeCandidates = new LongAdder();
+
+        private final LongAdder sampleHashed = new LongAdder();
+
+        private final LongAdder fullHashed = new LongAdder();
+
+        private final LongAdder cacheHits = new LongAdder();
+
+        private final LongAdder bytesHashed = new LongAdder();
+
+        private final LongAdder failedFiles = new LongAdder();
+
+        /**
+         * 同时运行的任务达到parallelism时阻塞调用线程，失败的文件记录日志后忽略
+         */
+        private final ThrottledSubmitter submitter = new ThrottledSubmitter(executor, parallelism, e -> {
+            log.warn("skip file that failed to hash", e);
+            failedFiles.increment();
+        });
+
+        Scan(Map<String, Entry> cache) {
+            this.cache = cache;
+        }
+
+        DedupReport toReport(List<DedupReport.DuplicateGroup> groups, long elapsedNanos) {
+            DedupReport report = new DedupReport();
+            report.setGroups(groups);
+            report.setFiles(files.sum());
+            report.setBytes(bytes.sum());
+            report.setSizeCandidates(sizeCandidates.sum());
+            report.setSampleHashed(sampleHashed.sum());
+            report.setFullHashed(fullHashed.sum());
+            report.setCacheHits(cacheHits.sum());
+            report.setBytesHashed(bytesHashed.sum());
+            report.setFailedFiles(failedFiles.sum());
+            report.setElapsedNanos(elapsedNanos);
+            return report;
+        }
+    }
+
+    /**
+     * DuplicateFinder的构建器
+     */
+    public static final class DuplicateFinderBuilder implements Builder<DuplicateFinder> {
+        private static final long serialVersionUID = 1L;
+
+        private int parallelism = DEFAULT_PARALLELISM;
+
+        private int sampleSize = DEFAULT_SAMPLE_SIZE;
+
+        private long minSize = 1L;
+
+        private Digests.Algorithm algorithm = Digests.Algorithm.MD5;
+
+        private File cacheFile;
+
+        private transient Executor executor;
+
+        private DuplicateFinderBuilder() {
+        }
+
+        /**
+         * 最多同时读取的文件数，1表示在调用线程中逐个计算
+         *
+         * @param parallelism parallelism
+         * @return DuplicateFinderBuilder
+         */
+        public DuplicateFinderBuilder parallelism(int parallelism) {
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * 首尾各读取的字节数
+         *
+         * @param sampleSize sampleSize
+         * @return DuplicateFinderBuilder
+         */
+        public DuplicateFinderBuilder sampleSize(int sampleSize) {
+            this.sampleSize = sampleSize;
+            return this;
+        }
+
+        /**
+         * 小于minSize的文件不参与比较，默认1，即忽略空文件
+         *
+         * @param minSize minSize
+         * @return DuplicateFinderBuilder
+         */
+        public DuplicateFinderBuilder minSize(long minSize) {
+            this.minSize = minSize;
+            return this;
+        }
+
+        /**
+         * 完整摘要的算法，默认MD5
+         *
+         * @param algorithm algorithm
+         * @return DuplicateFinderBuilder
+         */
+        public DuplicateFinderBuilder algorithm(Digests.Algorithm algorithm) {
+            this.algorithm = algorithm;
+            return this;
+        }
+
+        /**
+         * 哈希缓存文件，为null时不缓存
+         *
+         * @param cacheFile cacheFile
+         * @return DuplicateFinderBuilder
+         */
+        public DuplicateFinderBuilder cacheFile(File cacheFile) {
+            this.cacheFile = cacheFile;
+            return this;
+        }
+
+        /**
+         * 计算哈希的线程池，默认ThreadPoolUtils.getBlockingIoExecutor()
+         *
+         * @param executor executor
+         * @return DuplicateFinderBuilder
+         */
+        public DuplicateFinderBuilder executor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        @Override
+        public DuplicateFinder build() {
+            if (parallelism <= 0) {
+                throw new IllegalArgumentException("parallelism must be greater than 0");
+            }
+            if (sampleSize <= 0) {
+                throw new IllegalArgumentException("sampleSize must be greater than 0");
+            }
+            if (algorithm == null) {
+                throw new IllegalArgumentException("algorithm can't be null");
+            }
+            if (executor == null) {
+                executor = parallelism == 1 ? Runnable::run : ThreadPoolUtils.getBlockingIoExecutor();
+            }
+            return new DuplicateFinder(this);
+        }
+    }
+}
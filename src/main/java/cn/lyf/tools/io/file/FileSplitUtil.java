@@ -2,17 +2,26 @@ package cn.lyf.tools.io.file;
 
 
 import cn.lyf.tools.crypto.Md5Util;
+import cn.lyf.tools.io.IoUtil;
 import cn.lyf.tools.str.ObjectUtil;
 import cn.lyf.tools.str.StringUtil;
+import cn.lyf.tools.thread.ThrottledSubmitter;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.io.FileUtils;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.IOException;
+import java.io.*;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
 
 /**
  * @author lyf
@@ -26,6 +35,48 @@ public final class FileSplitUtil {
      */
     public static final int max_slice_size = 5 * 1024 * 1024;
 
+    /**
+     * 并行分片时写在分块目录中的清单文件，记录源文件信息，用于中断后续传
+     */
+    public static final String MANIFEST_FILE_NAME = "chunk.manifest";
+
+    /**
+     * 分片写入过程中的临时文件后缀，写完之后再重命名，保证存在的分片文件都是完整的
+     */
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * 基于内容分片时写入分块目录的二进制清单文件名，格式见ChunkManifest
+     */
+    public static final String BINARY_MANIFEST_FILE_NAME = "chunk.manifest.bin";
+
+    /**
+     * 清单中记录源文件信息的key，用于判断分片是否仍然对应同一个源文件
+     */
+    private static final String[] SOURCE_KEYS = {"srcPath", "srcLength", "srcLastModified", "sliceSize", "chunkCount"};
+
+    /**
+     * 清单中分片md5的key前缀，完整的key为chunk.{分片序号}.md5
+     */
+    private static final String CHUNK_MD5_KEY_PREFIX = "chunk.";
+
+    private static final String CHUNK_MD5_KEY_SUFFIX = ".md5";
+
+    /**
+     * md5的十六进制长度，清单末尾写了一半的md5视为不存在
+     */
+    private static final int MD5_HEX_LENGTH = 32;
+
+    /**
+     * 分片和合并时读写使用的缓冲区大小
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * 并行分片时同时提交给executor的最大任务数，避免一次提交全部分片撑满线程池的队列
+     */
+    private static final int PARALLELISM = Math.max(4, Runtime.getRuntime().availableProcessors());
+
     private FileSplitUtil() {
     }
 
@@ -96,19 +147,391 @@ public final class FileSplitUtil {
     }
 
     /**
-     * 使用NIO对文件进行合并操作
+     * 并行分片，支持中断后续传
+     * <pre>
+     *     1. 每个分片作为一个任务提交到executor，各自打开源文件的FileChannel，按位置读取写入分片文件，同时计算分片的md5
+     *     2. 分片先写入临时文件再重命名，所以已存在且长度正确的分片一定是完整的
+     *     3. 分块目录中的清单文件记录源文件的路径、长度、修改时间、分片大小以及每个分片的md5，
+     *        与本次一致时跳过已经完整且记录了md5的分片，否则清空旧分片重新分片
+     *        每个分片写完后立即把md5追加到清单末尾(Properties中后出现的key覆盖前面的)，进程被杀死后也能续传
+     *     4. 分片大小不受5M的限制
+     *     5. 同时提交的任务数不超过PARALLELISM，executor拒绝时在当前线程执行
+     * </pre>
+     *
+     * @param srcFile     源文件
+     * @param chunkFolder 分块所在的临时目录
+     * @param sliceSize   分片大小
+     * @param executor    执行分片任务的线程池
+     * @return 本次实际写入的分片数，跳过的分片不计入
+     * @throws IOException IOException
+     */
+    public static int sliceFile(File srcFile, File chunkFolder, long sliceSize, Executor executor) throws IOException {
+        if (srcFile == null || !srcFile.isFile()) {
+            throw new IllegalArgumentException("分块文件文件为null");
+        }
+        if (chunkFolder == null) {
+            throw new IllegalArgumentException("传入的chunkFolder为空");
+        }
+        if (chunkFolder.isFile()) {
+            throw new IllegalArgumentException(chunkFolder.getCanonicalPath() + ", 不是目录");
+        }
+        if (sliceSize <= 0) {
+            throw new IllegalArgumentException("分片大小必须大于0");
+        }
+        if (executor == null) {
+            throw new IllegalArgumentException("executor不能为空");
+        }
+        if (!chunkFolder.exists()) {
+            chunkFolder.mkdirs();
+        }
+
+        long srcFileLength = srcFile.length();
+        int splitNum = (int) ((srcFileLength + sliceSize - 1) / sliceSize);
+        Properties manifest = new Properties();
+        manifest.setProperty("srcPath", srcFile.getCanonicalPath());
+        manifest.setProperty("srcLength", String.valueOf(srcFileLength));
+        manifest.setProperty("srcLastModified", String.valueOf(srcFile.lastModified()));
+        manifest.setProperty("sliceSize", String.valueOf(sliceSize));
+        manifest.setProperty("chunkCount", String.valueOf(splitNum));
+
+        File manifestFile = new File(chunkFolder, MANIFEST_FILE_NAME);
+        Properties existing = readManifest(manifestFile);
+        if (isSameSource(manifest, existing)) {
+            // 沿用已完成分片的md5
+            manifest = existing;
+        } else {
+            // 源文件或者分片大小变化了，旧分片全部作废
+            for (File chunkFile : listChunkFiles(chunkFolder)) {
+                Files.deleteIfExists(chunkFile.toPath());
+            }
+            storeManifest(manifest, manifestFile);
+        }
+
+        Properties finalManifest = manifest;
+        Queue<Exception> failures = new ConcurrentLinkedQueue<>();
+        ThrottledSubmitter submitter = new ThrottledSubmitter(executor, PARALLELISM, failures::add);
+        int written = 0;
+        try {
+            for (int i = 0; i < splitNum && failures.isEmpty(); i++) {
+                int chunkIndex = i + 1;
+                long startPoint = i * sliceSize;
+                long currentSliceSize = Math.min(sliceSize, srcFileLength - startPoint);
+                File chunkFile = new File(chunkFolder, String.valueOf(chunkIndex));
+                if (chunkFile.isFile() && chunkFile.length() == currentSliceSize && getChunkMd5(manifest, chunkIndex) != null) {
+                    log.debug("分片文件: {}, 已经存在, 跳过", chunkFile.getCanonicalPath());
+                    continue;
+                }
+                // 同时运行的任务达到PARALLELISM时阻塞提交线程
+                submitter.submit(() -> {
+                    String md5 = writeChunk(srcFile, chunkFile, startPoint, currentSliceSize);
+                    appendChunkMd5(finalManifest, manifestFile, chunkIndex, md5);
+                });
+                written++;
+            }
+        } finally {
+            // 等待已提交的任务结束，重写一遍清单去掉追加的重复行
+            submitter.await();
+            storeManifest(manifest, manifestFile);
+        }
+        if (!failures.isEmpty()) {
+            Exception cause = failures.poll();
+            IOException exception = cause instanceof IOException ? (IOException) cause
+                    : new IOException("分片失败: " + srcFile.getCanonicalPath(), cause);
+            failures.forEach(exception::addSuppressed);
+            throw exception;
+        }
+        log.debug("源文件: {}, 共{}个分片, 本次写入{}个分片", srcFile.getCanonicalPath(), splitNum, written);
+        return written;
+    }
+
+    /**
+     * 按位置把源文件的[startPoint, startPoint + length)写入分片文件，先写临时文件再重命名
+     *
+     * @return 分片的md5
+     */
+    private static String writeChunk(File srcFile, File chunkFile, long startPoint, long length) throws IOException {
+        File tempFile = new File(chunkFile.getParentFile(), chunkFile.getName() + TEMP_SUFFIX);
+        MessageDigest md5 = newMd5();
+        try (FileChannel inputChannel = FileChannel.open(srcFile.toPath(), StandardOpenOption.READ);
+             FileChannel outputChannel = FileChannel.open(tempFile.toPath(), StandardOpenOption.CREATE,
+                     StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            long transferred = 0;
+            while (transferred < length) {
+                buffer.clear();
+                buffer.limit((int) Math.min(BUFFER_SIZE, length - transferred));
+                int count = inputChannel.read(buffer, startPoint + transferred);
+                if (count < 0) {
+                    throw new EOFException("源文件在分片过程中被截断: " + srcFile.getCanonicalPath());
+                }
+                md5.update(buffer.array(), 0, count);
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    outputChannel.write(buffer);
+                }
+                transferred += count;
+            }
+        }
+        Files.move(tempFile.toPath(), chunkFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return Md5Util.encodeHex(md5.digest());
+    }
+
+    /**
+     * 基于内容分片，文件中间插入或删除数据时只有附近的分片会变化
+     * <pre>
+     *     1. 分片文件名同样为分片序号，可以直接使用mergeFile合并
+     *     2. 分块目录中写入二进制清单(BINARY_MANIFEST_FILE_NAME)，与上一次上传的清单ChunkManifest.diff之后只需要上传变化的分片
+     *     3. 分块目录中已有的分片会被清空
+     * </pre>
+     *
+     * @param srcFile     源文件
+     * @param chunkFolder 分块所在的临时目录
+     * @param chunker     分块参数
+     * @param withMd5     清单中是否记录分片的md5
+     * @return 分片清单
+     * @throws IOException IOException
+     */
+    public static ChunkManifest sliceFileByContent(File srcFile, File chunkFolder, ContentDefinedChunker chunker, boolean withMd5) throws IOException {
+        if (srcFile == null || !srcFile.isFile()) {
+            throw new IllegalArgumentException("分块文件文件为null");
+        }
+        if (chunkFolder == null) {
+            throw new IllegalArgumentException("传入的chunkFolder为空");
+        }
+        if (chunkFolder.isFile()) {
+            throw new IllegalArgumentException(chunkFolder.getCanonicalPath() + ", 不是目录");
+        }
+        if (chunker == null) {
+            throw new IllegalArgumentException("chunker不能为空");
+        }
+        if (!chunkFolder.exists()) {
+            chunkFolder.mkdirs();
+        }
+        for (File chunkFile : listChunkFiles(chunkFolder)) {
+            Files.deleteIfExists(chunkFile.toPath());
+        }
+        Files.deleteIfExists(new File(chunkFolder, MANIFEST_FILE_NAME).toPath());
+
+        ChunkManifest manifest = ChunkManifest.scan(srcFile, chunker::cut, chunker.getMaxSize(), withMd5,
+                (chunk, bytes, offset, length) -> {
+                    File chunkFile = new File(chunkFolder, String.valueOf(chunk.getIndex()));
+                    File tempFile = new File(chunkFolder, chunkFile.getName() + TEMP_SUFFIX);
+                    try (OutputStream outputStream = new FileOutputStream(tempFile)) {
+                        outputStream.write(bytes, offset, length);
+                    }
+                    Files.move(tempFile.toPath(), chunkFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                });
+        manifest.write(new File(chunkFolder, BINARY_MANIFEST_FILE_NAME));
+        log.debug("源文件: {}, 基于内容分片, 共{}个分片", srcFile.getCanonicalPath(), manifest.getChunks().size());
+        return manifest;
+    }
+
+    /**
+     * 校验分片，需要分片时在清单中记录了md5(并行分片)
+     *
+     * @param chunkFolder 分块所在的文件目录
+     * @return 损坏或缺失的分片序号，全部完好时为空
+     * @throws IOException IOException
+     */
+    public static List<Integer> verifyChunks(File chunkFolder) throws IOException {
+        Properties manifest = readManifest(new File(chunkFolder, MANIFEST_FILE_NAME));
+        if (manifest == null) {
+            throw new IllegalArgumentException(chunkFolder.getCanonicalPath() + ", 不存在分片清单");
+        }
+        int chunkCount = Integer.parseInt(manifest.getProperty("chunkCount"));
+        List<Integer> corrupted = new ArrayList<>();
+        for (int chunkIndex = 1; chunkIndex <= chunkCount; chunkIndex++) {
+            File chunkFile = new File(chunkFolder, String.valueOf(chunkIndex));
+            String expected = getChunkMd5(manifest, chunkIndex);
+            if (expected == null || !chunkFile.isFile()) {
+                corrupted.add(chunkIndex);
+                continue;
+            }
+            try (InputStream inputStream = new FileInputStream(chunkFile)) {
+                if (!expected.equals(Md5Util.fileMd5(inputStream))) {
+                    corrupted.add(chunkIndex);
+                }
+            }
+        }
+        return corrupted;
+    }
+
+    /**
+     * 使用NIO对文件进行合并操作，边写边计算md5，只读取一遍分片
+     * <pre>
+     *     1. 清单中记录了分片的md5时，同时校验每个分片，发现损坏的分片立即停止合并，并抛出ChunkCorruptedException，只需要重新获取该分片
+     *     2. 合并后的md5与源文件一致时删除分块目录，否则保留分块目录并打印日志
+     *     3. 先写入目标文件所在目录的临时文件，完成后再重命名为目标文件，失败时删除临时文件，不会留下不完整的目标文件
+     * </pre>
      *
      * @param chunkFolder    分块所在的文件目录
      * @param srcFileMd5     源文件的md5值
      * @param chunkMergeFile 分块合并之后的文件
      */
     public static void mergeFile(File chunkFolder, File chunkMergeFile, String srcFileMd5) throws IOException, IllegalArgumentException {
+        List<File> fileList = checkMergeArgs(chunkFolder, chunkMergeFile, srcFileMd5);
+        Properties manifest = readManifest(new File(chunkFolder, MANIFEST_FILE_NAME));
+
+        MessageDigest fileMd5 = newMd5();
+        MessageDigest chunkMd5 = newMd5();
+        Path tempFile = IoUtil.createTempSibling(chunkMergeFile.toPath());
+        boolean success = false;
+        try {
+            try (FileChannel outFileChannel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+                long position = 0;
+                for (File file : fileList) {
+                    int chunkIndex = Integer.parseInt(file.getName());
+                    String expected = getChunkMd5(manifest, chunkIndex);
+                    try (FileChannel chunkFileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                        while (true) {
+                            buffer.clear();
+                            int count = chunkFileChannel.read(buffer);
+                            if (count < 0) {
+                                break;
+                            }
+                            fileMd5.update(buffer.array(), 0, count);
+                            if (expected != null) {
+                                chunkMd5.update(buffer.array(), 0, count);
+                            }
+                            buffer.flip();
+                            while (buffer.hasRemaining()) {
+                                position += outFileChannel.write(buffer, position);
+                            }
+                        }
+                    }
+                    if (expected != null && !expected.equals(Md5Util.encodeHex(chunkMd5.digest()))) {
+                        throw new ChunkCorruptedException(chunkFolder, Collections.singletonList(chunkIndex));
+                    }
+                }
+            }
+            IoUtil.moveAtomically(tempFile, chunkMergeFile.toPath());
+            success = true;
+        } finally {
+            if (!success) {
+                Files.deleteIfExists(tempFile);
+            }
+        }
+
+        // 合并完成之后校验文件的md5
+        String chunkMergeFileMd5 = Md5Util.encodeHex(fileMd5.digest());
+        finishMerge(chunkFolder, chunkMergeFile, srcFileMd5, chunkMergeFileMd5);
+    }
+
+    /**
+     * 并行合并: 预分配目标文件，各分片按已知的偏移量并行写入
+     * <pre>
+     *     1. 需要并行分片生成的清单(记录了分片大小和每个分片的md5)，否则回退为顺序合并
+     *     2. 并行写入时通过每个分片的md5校验完整性，整个文件的md5无法并行计算，写完后再顺序读取一遍，与srcFileMd5一致时才删除分块目录
+     *     3. 有分片损坏时抛出ChunkCorruptedException，列出全部损坏的分片
+     *     4. 同时提交的任务数不超过PARALLELISM，executor拒绝时在当前线程执行
+     *     5. 与顺序合并一样先写入临时文件再重命名，失败时删除临时文件
+     * </pre>
+     *
+     * @param chunkFolder    分块所在的文件目录
+     * @param chunkMergeFile 分块合并之后的文件
+     * @param srcFileMd5     源文件的md5值
+     * @param executor       执行合并任务的线程池
+     */
+    public static void mergeFile(File chunkFolder, File chunkMergeFile, String srcFileMd5, Executor executor) throws IOException {
+        List<File> fileList = checkMergeArgs(chunkFolder, chunkMergeFile, srcFileMd5);
+        if (executor == null) {
+            throw new IllegalArgumentException("executor不能为空");
+        }
+        Properties manifest = readManifest(new File(chunkFolder, MANIFEST_FILE_NAME));
+        int chunkCount = manifest == null ? -1 : Integer.parseInt(manifest.getProperty("chunkCount"));
+        boolean complete = chunkCount == fileList.size();
+        for (int i = 1; complete && i <= chunkCount; i++) {
+            complete = getChunkMd5(manifest, i) != null;
+        }
+        if (!complete) {
+            log.info("分块文件夹: {}, 清单中缺少分片md5, 回退为顺序合并", chunkFolder.getCanonicalPath());
+            mergeFile(chunkFolder, chunkMergeFile, srcFileMd5);
+            return;
+        }
+
+        long sliceSize = Long.parseLong(manifest.getProperty("sliceSize"));
+        long totalLength = Long.parseLong(manifest.getProperty("srcLength"));
+        List<Integer> corrupted = Collections.synchronizedList(new ArrayList<>());
+        Path tempFile = IoUtil.createTempSibling(chunkMergeFile.toPath());
+        String chunkMergeFileMd5;
+        boolean success = false;
+        try {
+            try (RandomAccessFile raf = new RandomAccessFile(tempFile.toFile(), "rw");
+                 FileChannel outFileChannel = raf.getChannel()) {
+                // 预分配，减少文件系统扩展元数据的次数
+                raf.setLength(totalLength);
+                Queue<Exception> failures = new ConcurrentLinkedQueue<>();
+                ThrottledSubmitter submitter = new ThrottledSubmitter(executor, PARALLELISM, failures::add);
+                try {
+                    for (int i = 0; i < fileList.size() && failures.isEmpty(); i++) {
+                        File file = fileList.get(i);
+                        int chunkIndex = Integer.parseInt(file.getName());
+                        String expected = getChunkMd5(manifest, chunkIndex);
+                        submitter.submit(() -> {
+                            String actual = copyChunk(file, outFileChannel, (chunkIndex - 1) * sliceSize);
+                            if (!expected.equals(actual)) {
+                                corrupted.add(chunkIndex);
+                            }
+                        });
+                    }
+                } finally {
+                    submitter.await();
+                }
+                if (!failures.isEmpty()) {
+                    Exception cause = failures.poll();
+                    IOException exception = cause instanceof IOException ? (IOException) cause : new IOException("合并失败", cause);
+                    failures.forEach(exception::addSuppressed);
+                    throw exception;
+                }
+            }
+            if (!corrupted.isEmpty()) {
+                Collections.sort(corrupted);
+                throw new ChunkCorruptedException(chunkFolder, corrupted);
+            }
+            try (InputStream inputStream = Files.newInputStream(tempFile)) {
+                chunkMergeFileMd5 = Md5Util.fileMd5(inputStream);
+            }
+            IoUtil.moveAtomically(tempFile, chunkMergeFile.toPath());
+            success = true;
+        } finally {
+            if (!success) {
+                Files.deleteIfExists(tempFile);
+            }
+        }
+        log.info("分块文件夹: {},目标文件: {}, 已经并行合并完成", chunkFolder.getCanonicalPath(), chunkMergeFile.getCanonicalPath());
+        finishMerge(chunkFolder, chunkMergeFile, srcFileMd5, chunkMergeFileMd5);
+    }
+
+    /**
+     * 把分片写入目标文件的指定位置
+     *
+     * @return 分片的md5
+     */
+    private static String copyChunk(File chunkFile, FileChannel outFileChannel, long position) throws IOException {
+        MessageDigest md5 = newMd5();
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        try (FileChannel chunkFileChannel = FileChannel.open(chunkFile.toPath(), StandardOpenOption.READ)) {
+            int count;
+            while ((count = chunkFileChannel.read(buffer)) >= 0) {
+                md5.update(buffer.array(), 0, count);
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    position += outFileChannel.write(buffer, position);
+                }
+                buffer.clear();
+            }
+        }
+        return Md5Util.encodeHex(md5.digest());
+    }
+
+    private static List<File> checkMergeArgs(File chunkFolder, File chunkMergeFile, String srcFileMd5) throws IOException {
         if (chunkFolder == null || chunkFolder.isFile()) {
             throw new IllegalArgumentException("分块文件目录不存在");
         }
 
-        File[] files = chunkFolder.listFiles();
-        if (ObjectUtil.isEmpty(files)) {
+        List<File> fileList = listChunkFiles(chunkFolder);
+        if (ObjectUtil.isEmpty(fileList)) {
             throw new IllegalArgumentException(chunkFolder.getCanonicalPath() + ", 不存在分块文件");
         }
 
@@ -120,36 +543,102 @@ public final class FileSplitUtil {
             throw new IllegalArgumentException("非法的目标文件");
         }
 
-
-        List<File> fileList = new ArrayList<>(Arrays.asList(files));
         // 对文件进行排序
         fileList.sort(Comparator.comparingInt(file -> Integer.parseInt(file.getName())));
-        // 分块合并逻辑
-        if (chunkMergeFile.exists()) {
-            boolean delete = chunkMergeFile.delete();
-            if (delete) {
-                chunkMergeFile.createNewFile();
-            }
-        }
-        try (FileOutputStream fileOutputStream = new FileOutputStream(chunkMergeFile, true);
-             FileChannel outFileChannel = fileOutputStream.getChannel()
-        ) {
-            for (File file : fileList) {
-                try (FileChannel chunkFileChannel = new FileInputStream(file).getChannel()) {
-                    outFileChannel.transferFrom(chunkFileChannel, outFileChannel.size(), chunkFileChannel.size());
-                }
+        return fileList;
+    }
+
+    private static void finishMerge(File chunkFolder, File chunkMergeFile, String srcFileMd5, String chunkMergeFileMd5) throws IOException {
+        log.info("合并后的文件: {}, 源文件的md5: {}, 目标文件的md5: {}", chunkMergeFile.getCanonicalPath(), srcFileMd5, chunkMergeFileMd5);
+        if (srcFileMd5.equalsIgnoreCase(chunkMergeFileMd5)) {
+            log.info("分块文件夹: {},目标文件: {}, 已经合并完成", chunkFolder.getCanonicalPath(), chunkMergeFile.getCanonicalPath());
+            // 然后再删除分块文件夹
+            FileUtils.deleteDirectory(chunkFolder);
+        } else {
+            log.info("源文件的md5: {}, 分片合并之后的文件md5值: {}", srcFileMd5, chunkMergeFileMd5);
+        }
+    }
+
+    private static boolean isSameSource(Properties manifest, Properties existing) {
+        if (existing == null) {
+            return false;
+        }
+        for (String key : SOURCE_KEYS) {
+            if (!Objects.equals(manifest.getProperty(key), existing.getProperty(key))) {
+                return false;
             }
+        }
+        return true;
+    }
 
-            // 合并完成之后需要校验文件的md5
-            String chunkMergeFileMd5 = Md5Util.fileMd5(new FileInputStream(chunkMergeFile));
-            log.info("合并后的文件: {}, 源文件的md5: {}, 目标文件的md5: {}", chunkMergeFile.getCanonicalPath(), srcFileMd5, chunkMergeFileMd5);
-            if (Objects.equals(srcFileMd5, chunkMergeFileMd5)) {
-                log.info("分块文件夹: {},目标文件: {}, 已经合并完成", chunkFolder.getCanonicalPath(), chunkMergeFile.getCanonicalPath());
-                // 然后再删除分块文件夹
-                FileUtils.deleteDirectory(chunkFolder);
-            } else {
-                log.info("源文件的md5: {}, 分片合并之后的文件md5值: {}", srcFileMd5, chunkMergeFileMd5);
+    private static String chunkMd5Key(int chunkIndex) {
+        return CHUNK_MD5_KEY_PREFIX + chunkIndex + CHUNK_MD5_KEY_SUFFIX;
+    }
+
+    private static String getChunkMd5(Properties manifest, int chunkIndex) {
+        String md5 = manifest == null ? null : manifest.getProperty(chunkMd5Key(chunkIndex));
+        return md5 == null || md5.length() != MD5_HEX_LENGTH ? null : md5;
+    }
+
+    /**
+     * 记录分片的md5，并追加到清单文件末尾，不需要每个分片都重写整个清单
+     */
+    private static void appendChunkMd5(Properties manifest, File manifestFile, int chunkIndex, String md5) throws IOException {
+        String key = chunkMd5Key(chunkIndex);
+        synchronized (manifest) {
+            manifest.setProperty(key, md5);
+            try (OutputStream outputStream = new FileOutputStream(manifestFile, true)) {
+                outputStream.write((key + "=" + md5 + System.lineSeparator()).getBytes(StandardCharsets.ISO_8859_1));
+            }
+        }
+    }
+
+    private static MessageDigest newMd5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("no md5 found");
+        }
+    }
+
+    private static void storeManifest(Properties manifest, File manifestFile) throws IOException {
+        IoUtil.writeAtomically(manifestFile, outputStream -> manifest.store(outputStream, null));
+    }
+
+    private static Properties readManifest(File manifestFile) {
+        if (!manifestFile.isFile()) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try (InputStream inputStream = new FileInputStream(manifestFile)) {
+            properties.load(inputStream);
+            return properties;
+        } catch (IOException e) {
+            log.warn("读取分片清单失败: {}", manifestFile, e);
+            return null;
+        }
+    }
+
+    /**
+     * 分块目录中的分片文件，文件名为分片序号，忽略清单等其他文件
+     *
+     * @param chunkFolder 分块目录
+     * @return 分片文件
+     */
+    private static List<File> listChunkFiles(File chunkFolder) {
+        File[] files = chunkFolder.listFiles((dir, name) -> isChunkFileName(name));
+        return files == null ? new ArrayList<>() : new ArrayList<>(Arrays.asList(files));
+    }
+
+    private static boolean isChunkFileName(String name) {
+        if (name.isEmpty() || name.length() > 9) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (!Character.isDigit(name.charAt(i))) {
+                return false;
             }
         }
+        return true;
     }
 }
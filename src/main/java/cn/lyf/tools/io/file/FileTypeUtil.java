@@ -166,7 +166,8 @@ public final class FileTypeUtil {
      * @return 文件真实的扩展名（可能为null，该类库有些类型不能识别）
      */
     private static String getFileRealTypeByMagic(InputStream inputStream) throws IOException {
-        byte[] bytes = IoUtil.readInputStream(inputStream);
+        // 只需要文件头，不读取整个输入流
+        byte[] bytes = IoUtil.readHead(inputStream, IoUtil.SNIFF_LENGTH);
         return getFileRealTypeByMagic(bytes);
     }
 
@@ -220,6 +220,9 @@ public final class FileUtil {
 
     /**
      * 文件分片方法
+     * <pre>
+     *     每次调用都会打开文件并分配新的字节数组，反复读取同一个文件的分片时使用SliceReader
+     * </pre>
      *
      * @param file       文件对象
      * @param sliceIndex 第几片，从1开始
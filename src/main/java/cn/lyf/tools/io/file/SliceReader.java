@@ -0,0 +1,377 @@
+package cn.lyf.tools.io.file;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author lyf
+ * @description 随机分片读取，适合反复读取同一批热点文件的不同区间(例如Range请求)
+ * <pre>
+ *     1. LRU缓存已经打开的FileChannel，超过maxOpenFiles时关闭最久未使用的文件，正在被使用的文件等使用完再关闭
+ *     2. 按mapWindowSize把文件分成若干窗口，按需映射为MappedByteBuffer并缓存，slice返回窗口上的只读视图，不复制数据
+ *     3. read把数据读入调用方提供的(池化)缓冲区，transferTo直接传输到WritableByteChannel(零拷贝)
+ *     4. 每次访问会检查文件大小，大小变化时丢弃已映射的窗口；大小不变的原地修改需要调用invalidate
+ * </pre>
+ * 注意: MappedByteBuffer只有被GC回收时才会解除映射，窗口不宜过多过大
+ * @since 2023/5/16 9:35:27
+ */
+@Slf4j
+public final class SliceReader implements AutoCloseable {
+    /**
+     * 默认最多缓存的文件数
+     */
+    public static final int DEFAULT_MAX_OPEN_FILES = 64;
+
+    /**
+     * 默认的映射窗口大小，64M
+     */
+    public static final int DEFAULT_MAP_WINDOW_SIZE = 64 * 1024 * 1024;
+
+    private final int maxOpenFiles;
+
+    private final int mapWindowSize;
+
+    /**
+     * accessOrder = true的LinkedHashMap，通过synchronized(entries)保护
+     */
+    private final LinkedHashMap<String, FileEntry> entries;
+
+    private final LongAdder hitCount = new LongAdder();
+
+    private final LongAdder missCount = new LongAdder();
+
+    private volatile boolean closed;
+
+    public SliceReader() {
+        this(DEFAULT_MAX_OPEN_FILES, DEFAULT_MAP_WINDOW_SIZE);
+    }
+
+    /**
+     * @param maxOpenFiles  最多缓存的文件数
+     * @param mapWindowSize 映射窗口大小
+     */
+    public SliceReader(int maxOpenFiles, int mapWindowSize) {
+        if (maxOpenFiles <= 0) {
+            throw new IllegalArgumentException("maxOpenFiles must be greater than 0");
+        }
+        if (mapWindowSize <= 0) {
+            throw new IllegalArgumentException("mapWindowSize must be greater than 0");
+        }
+        this.maxOpenFiles = maxOpenFiles;
+        this.mapWindowSize = mapWindowSize;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * 获取分片的只读视图，与FileUtil.sliceFile(File, int, int)的分片方式一致
+     *
+     * @param file       文件
+     * @param sliceIndex 分片序号，从1开始
+     * @param sliceSize  分片大小
+     * @return 只读的ByteBuffer，分片序号越界时返回null
+     * @throws IOException IOException
+     */
+    public ByteBuffer slice(File file, int sliceIndex, int sliceSize) throws IOException {
+        if (sliceSize <= 0) {
+            throw new IllegalArgumentException("sliceSize must be greater than 0");
+        }
+        FileEntry entry = acquire(file);
+        try {
+            long fileLength = entry.size;
+            long position = (long) (sliceIndex - 1) * sliceSize;
+            if (sliceIndex <= 0 || position >= fileLength) {
+                return null;
+            }
+            return entry.view(position, (int) Math.min(sliceSize, fileLength - position));
+        } finally {
+            release(entry);
+        }
+    }
+
+    /**
+     * 获取[position, position + length)的只读视图，超出文件末尾的部分会被截掉
+     *
+     * @param file     文件
+     * @param position 起始位置
+     * @param length   长度
+     * @return 只读的ByteBuffer
+     * @throws IOException IOException
+     */
+    public ByteBuffer slice(File file, long position, int length) throws IOException {
+        if (position < 0 || length < 0) {
+            throw new IllegalArgumentException("position and length can't be negative");
+        }
+        FileEntry entry = acquire(file);
+        try {
+            long available = Math.max(0L, entry.size - position);
+            return entry.view(position, (int) Math.min(length, available));
+        } finally {
+            release(entry);
+        }
+    }
+
+    /**
+     * 从position开始读入调用方提供的缓冲区，直到缓冲区写满或者到达文件末尾
+     *
+     * @param file     文件
+     * @param position 起始位置
+     * @param dst      目标缓冲区，可以是池化的直接缓冲区
+     * @return 读取的字节数，position不小于文件大小时返回-1
+     * @throws IOException IOException
+     */
+    public int read(File file, long position, ByteBuffer dst) throws IOException {
+        if (position < 0) {
+            throw new IllegalArgumentException("position can't be negative");
+        }
+        FileEntry entry = acquire(file);
+        try {
+            if (position >= entry.size) {
+                return -1;
+            }
+            int total = 0;
+            while (dst.hasRemaining()) {
+                int count = entry.channel.read(dst, position + total);
+                if (count < 0) {
+                    break;
+                }
+                total += count;
+            }
+            return total;
+        } finally {
+            release(entry);
+        }
+    }
+
+    /**
+     * 把[position, position + count)直接传输到target，由操作系统完成拷贝(sendfile)
+     *
+     * @param file     文件
+     * @param position 起始位置
+     * @param count    字节数，超出文件末尾的部分会被截掉
+     * @param target   目标通道
+     * @return 传输的字节数
+     * @throws IOException IOException
+     */
+    public long transferTo(File file, long position, long count, WritableByteChannel target) throws IOException {
+        if (position < 0 || count < 0) {
+            throw new IllegalArgumentException("position and count can't be negative");
+        }
+        FileEntry entry = acquire(file);
+        try {
+            long end = Math.min(entry.size, position + count);
+            long transferred = 0L;
+            while (position + transferred < end) {
+                long n = entry.channel.transferTo(position + transferred, end - position - transferred, target);
+                if (n <= 0) {
+                    // 非阻塞的target暂时写不进去
+                    break;
+                }
+                transferred += n;
+            }
+            return transferred;
+        } finally {
+            release(entry);
+        }
+    }
+
+    /**
+     * 丢弃文件的缓存，文件被原地修改之后调用
+     *
+     * @param file 文件
+     */
+    public void invalidate(File file) {
+        FileEntry entry;
+        synchronized (entries) {
+            entry = entries.remove(file.getAbsolutePath());
+        }
+        if (entry != null) {
+            entry.evict();
+        }
+    }
+
+    /**
+     * 当前缓存的文件数
+     *
+     * @return openFiles
+     */
+    public int openFiles() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    /**
+     * 关闭所有缓存的文件
+     */
+    @Override
+    public void close() {
+        closed = true;
+        synchronized (entries) {
+            for (FileEntry entry : entries.values()) {
+                entry.evict();
+            }
+            entries.clear();
+        }
+    }
+
+    private FileEntry acquire(File file) throws IOException {
+        if (file == null) {
+            throw new IllegalArgumentException("file can't be null");
+        }
+        if (closed) {
+            throw new IllegalStateException("slice reader is closed");
+        }
+        String key = file.getAbsolutePath();
+        FileEntry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry != null) {
+                entry.refs.incrementAndGet();
+            }
+        }
+        if (entry != null) {
+            if (entry.channel.size() == entry.size) {
+                hitCount.increment();
+                return entry;
+            }
+            // 文件大小变化，已映射的窗口作废
+            release(entry);
+            synchronized (entries) {
+                entries.remove(key, entry);
+            }
+            entry.evict();
+        }
+
+        missCount.increment();
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        FileEntry created = new FileEntry(channel, channel.size());
+        FileEntry previous;
+        synchronized (entries) {
+            previous = entries.get(key);
+            if (previous == null || previous.size != created.size) {
+                if (previous != null) {
+                    entries.remove(key);
+                }
+                created.refs.incrementAndGet();
+                entries.put(key, created);
+                evictEldest();
+            } else {
+                previous.refs.incrementAndGet();
+            }
+        }
+        if (previous != null && previous.size == created.size) {
+            // 其他线程已经打开了同一个文件
+            channel.close();
+            return previous;
+        }
+        if (previous != null) {
+            previous.evict();
+        }
+        return created;
+    }
+
+    private void release(FileEntry entry) {
+        if (entry.refs.decrementAndGet() == 0 && entry.evicted) {
+            entry.closeChannel();
+        }
+    }
+
+    /**
+     * 调用方持有entries的锁
+     */
+    private void evictEldest() {
+        Iterator<Map.Entry<String, FileEntry>> iterator = entries.entrySet().iterator();
+        while (entries.size() > maxOpenFiles && iterator.hasNext()) {
+            FileEntry eldest = iterator.next().getValue();
+            iterator.remove();
+            eldest.evict();
+        }
+    }
+
+    /**
+     * 一个已经打开的文件
+     */
+    private final class FileEntry {
+        private final FileChannel channel;
+
+        /**
+         * 打开时的文件大小
+         */
+        private final long size;
+
+        private final AtomicReferenceArray<MappedByteBuffer> windows;
+
+        /**
+         * 正在使用该文件的调用数，被淘汰后等计数归零再关闭
+         */
+        private final AtomicInteger refs = new AtomicInteger();
+
+        private volatile boolean evicted;
+
+        FileEntry(FileChannel channel, long size) {
+            this.channel = channel;
+            this.size = size;
+            this.windows = new AtomicReferenceArray<>((int) ((size + mapWindowSize - 1) / mapWindowSize));
+        }
+
+        ByteBuffer view(long position, int length) throws IOException {
+            if (length == 0) {
+                return ByteBuffer.allocate(0).asReadOnlyBuffer();
+            }
+            int windowIndex = (int) (position / mapWindowSize);
+            long windowStart = (long) windowIndex * mapWindowSize;
+            if (position + length > windowStart + mapWindowSize) {
+                // 跨窗口的区间单独映射，不缓存
+                return channel.map(FileChannel.MapMode.READ_ONLY, position, length).asReadOnlyBuffer();
+            }
+            MappedByteBuffer window = windows.get(windowIndex);
+            if (window == null) {
+                window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, Math.min(mapWindowSize, size - windowStart));
+                if (!windows.compareAndSet(windowIndex, null, window)) {
+                    window = windows.get(windowIndex);
+                }
+            }
+            ByteBuffer view = window.asReadOnlyBuffer();
+            int offset = (int) (position - windowStart);
+            view.position(offset).limit(offset + length);
+            return view.slice();
+        }
+
+        void evict() {
+            evicted = true;
+            if (refs.get() == 0) {
+                closeChannel();
+            }
+        }
+
+        void closeChannel() {
+            try {
+                // 已经映射的窗口在通道关闭后仍然有效
+                channel.close();
+            } catch (IOException e) {
+                log.warn("close file channel failed", e);
+            }
+        }
+    }
+}
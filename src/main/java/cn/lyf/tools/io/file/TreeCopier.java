@@ -0,0 +1,397 @@
+package cn.lyf.tools.io.file;
+
+import cn.lyf.tools.core.builder.Builder;
+import cn.lyf.tools.crypto.Md5Util;
+import cn.lyf.tools.io.IoUtil;
+import cn.lyf.tools.thread.ThreadPoolUtils;
+import cn.lyf.tools.thread.ThrottledSubmitter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author lyf
+ * @description 目录树的批量复制和移动
+ * <pre>
+ *     1. Files.walkFileTree遍历源目录，调用线程创建目录，文件交给executor并行复制，最多parallelism个文件同时复制
+ *     2. 文件通过循环transferTo复制到IoUtil.createTempSibling创建的临时文件，复制完成后重命名为目标文件，不会留下复制了一半的目标文件
+ *     3. preserveAttributes时保留修改时间、访问时间以及posix权限，目录的时间在所有文件复制完成后再设置
+ *     4. skipUnchanged时跳过大小和修改时间(毫秒)都相同的目标文件，compareHash时还要求md5相同；
+ *        修改时间只有在上一次复制也保留了属性时才会相同
+ *     5. move在同一个文件系统上优先用ATOMIC_MOVE重命名，目标目录不存在时整棵树一次重命名；
+ *        跨文件系统时退化为复制后删除源文件
+ *     6. 部分文件失败时不会中断其他文件，结束后抛出IOException，每个失败作为suppressed异常附在上面
+ * </pre>
+ * @since 2023/5/18 10:20:15
+ */
+@Slf4j
+public final class TreeCopier {
+    /**
+     * 默认的并行度
+     */
+    public static final int DEFAULT_PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+    private final int parallelism;
+
+    private final boolean skipUnchanged;
+
+    private final boolean compareHash;
+
+    private final boolean preserveAttributes;
+
+    private final Executor executor;
+
+    private TreeCopier(TreeCopierBuilder builder) {
+        this.parallelism = builder.parallelism;
+        this.skipUnchanged = builder.skipUnchanged;
+        this.compareHash = builder.compareHash;
+        this.preserveAttributes = builder.preserveAttributes;
+        this.executor = builder.executor;
+    }
+
+    public static TreeCopierBuilder builder() {
+        return new TreeCopierBuilder();
+    }
+
+    /**
+     * 复制文件或者目录树，target已经存在时合并到target中，同名文件被覆盖
+     *
+     * @param source 源文件或者目录
+     * @param target 目标文件或者目录
+     * @return 统计
+     * @throws IOException 任意一个文件复制失败
+     */
+    public CopyStats copy(Path source, Path target) throws IOException {
+        return run(source, target, false);
+    }
+
+    /**
+     * 移动文件或者目录树，全部成功后源目录被删除
+     *
+     * @param source 源文件或者目录
+     * @param target 目标文件或者目录
+     * @return 统计
+     * @throws IOException 任意一个文件移动失败，此时源目录中保留未移动的文件
+     */
+    public CopyStats move(Path source, Path target) throws IOException {
+        checkArgs(source, target);
+        if (Files.notExists(target, LinkOption.NOFOLLOW_LINKS)) {
+            long startNanos = System.nanoTime();
+            Path parent = target.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            try {
+                Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+                CopyStats stats = new CopyStats();
+                stats.setRenamed(true);
+                stats.setElapsedNanos(System.nanoTime() - startNanos);
+                return stats;
+            } catch (AtomicMoveNotSupportedException e) {
+                log.debug("{} and {} are on different file stores, fall back to copy", source, target);
+            }
+        }
+        return run(source, target, true);
+    }
+
+    private CopyStats run(Path source, Path target, boolean move) throws IOException {
+        checkArgs(source, target);
+        Job job = new Job(move);
+        long startNanos = System.nanoTime();
+        BasicFileAttributes attrs = Files.readAttributes(source, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        if (attrs.isDirectory()) {
+            walk(job, source, target);
+        } else {
+            Path parent = target.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            transfer(job, source, target, attrs);
+        }
+        job.throwIfFailed();
+        return job.toStats(System.nanoTime() - startNanos);
+    }
+
+    private void walk(Job job, Path source, Path target) throws IOException {
+        List<Path> sourceDirs = new ArrayList<>();
+        List<BasicFileAttributes> dirAttrs = new ArrayList<>();
+        try {
+            Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    Path targetDir = target.resolve(source.relativize(dir).toString());
+                    if (!Files.isDirectory(targetDir)) {
+                        Files.createDirectories(targetDir);
+                        job.directories.increment();
+                    }
+                    sourceDirs.add(dir);
+                    dirAttrs.add(attrs);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    Path targetFile = target.resolve(source.relativize(file).toString());
+                    job.submitter.submit(() -> transfer(job, file, targetFile, attrs));
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    job.failures.add(exc);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } finally {
+            job.submitter.await();
+        }
+
+        // 子目录在后，倒序处理，设置时间和删除都不会再被子目录影响
+        for (int i = sourceDirs.size() - 1; i >= 0; i--) {
+            Path dir = sourceDirs.get(i);
+            try {
+                if (preserveAttributes) {
+                    copyAttributes(dirAttrs.get(i), dir, target.resolve(source.relativize(dir).toString()));
+                }
+                if (job.move && job.failures.isEmpty()) {
+                    Files.delete(dir);
+                }
+            } catch (IOException e) {
+                job.failures.add(e);
+            }
+        }
+    }
+
+    /**
+     * 复制或者移动一个文件
+     */
+    private void transfer(Job job, Path source, Path target, BasicFileAttributes attrs) throws IOException {
+        if (job.move) {
+            try {
+                Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                job.files.increment();
+                job.bytes.add(attrs.size());
+                return;
+            } catch (AtomicMoveNotSupportedException e) {
+                // 跨文件系统，复制后删除
+            }
+        }
+
+        if (attrs.isSymbolicLink()) {
+            Files.copy(source, target, LinkOption.NOFOLLOW_LINKS, StandardCopyOption.REPLACE_EXISTING);
+            job.files.increment();
+        } else if (!attrs.isRegularFile()) {
+            log.debug("skip special file: {}", source);
+            return;
+        } else if (skipUnchanged && isUnchanged(source, target, attrs)) {
+            job.skippedFiles.increment();
+        } else {
+            copyRegularFile(source, target, attrs);
+            job.files.increment();
+            job.bytes.add(attrs.size());
+        }
+
+        if (job.move) {
+            Files.delete(source);
+        }
+    }
+
+    private void copyRegularFile(Path source, Path target, BasicFileAttributes attrs) throws IOException {
+        Path tempFile = IoUtil.createTempSibling(target);
+        try {
+            try (FileChannel srcChannel = FileChannel.open(source, StandardOpenOption.READ);
+                 FileChannel destChannel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+                long size = attrs.size();
+                long transferred = IoUtil.transferFully(srcChannel, 0, size, destChannel);
+                if (transferred != size) {
+                    throw new IOException(source + " was truncated while copying, " + transferred + "/" + size + " bytes");
+                }
+            }
+            if (preserveAttributes) {
+                copyAttributes(attrs, source, tempFile);
+            }
+            IoUtil.moveAtomically(tempFile, target);
+        } catch (IOException e) {
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
+    }
+
+    private boolean isUnchanged(Path source, Path target, BasicFileAttributes attrs) throws IOException {
+        BasicFileAttributes targetAttrs;
+        try {
+            targetAttrs = Files.readAttributes(target, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+        if (!targetAttrs.isRegularFile() || targetAttrs.size() != attrs.size()
+                || targetAttrs.lastModifiedTime().toMillis() != attrs.lastModifiedTime().toMillis()) {
+            return false;
+        }
+        if (!compareHash) {
+            return true;
+        }
+        try {
+            return Md5Util.fileMd5(Files.newInputStream(source)).equals(Md5Util.fileMd5(Files.newInputStream(target)));
+        } catch (IllegalArgumentException e) {
+            throw new IOException("compute md5 failed: " + source, e);
+        }
+    }
+
+    private static void copyAttributes(BasicFileAttributes attrs, Path source, Path target) throws IOException {
+        Files.getFileAttributeView(target, BasicFileAttributeView.class)
+                .setTimes(attrs.lastModifiedTime(), attrs.lastAccessTime(), attrs.creationTime());
+        PosixFileAttributeView sourceView = Files.getFileAttributeView(source, PosixFileAttributeView.class);
+        PosixFileAttributeView targetView = Files.getFileAttributeView(target, PosixFileAttributeView.class);
+        if (sourceView != null && targetView != null) {
+            targetView.setPermissions(sourceView.readAttributes().permissions());
+        }
+    }
+
+    private static void checkArgs(Path source, Path target) {
+        if (source == null || target == null) {
+            throw new IllegalArgumentException("source and target can't be null");
+        }
+        if (Files.notExists(source, LinkOption.NOFOLLOW_LINKS)) {
+            throw new IllegalArgumentException("source not exists: " + source);
+        }
+        Path absoluteSource = source.toAbsolutePath().normalize();
+        Path absoluteTarget = target.toAbsolutePath().normalize();
+        if (absoluteTarget.startsWith(absoluteSource)) {
+            throw new IllegalArgumentException("target can't be inside source: " + target);
+        }
+    }
+
+    /**
+     * 一次复制或者移动的状态
+     */
+    private final class Job {
+        private final boolean move;
+
+        private final Queue<IOException> failures = new ConcurrentLinkedQueue<>();
+
+        /**
+         * 同时运行的任务达到parallelism时阻塞遍历线程
+         */
+        private final ThrottledSubmitter submitter = new ThrottledSubmitter(executor, parallelism,
+                e -> failures.add(e instanceof IOException ? (IOException) e : new IOException(e)));
+
+        private final LongAdder files = new LongAdder();
+
+        private final LongAdder skippedFiles = new LongAdder();
+
+        private final LongAdder directories = new LongAdder();
+
+        private final LongAdder bytes = new LongAdder();
+
+        Job(boolean move) {
+            this.move = move;
+        }
+
+        void throwIfFailed() throws IOException {
+            if (failures.isEmpty()) {
+                return;
+            }
+            IOException exception = new IOException(failures.size() + " files failed to " + (move ? "move" : "copy"));
+            for (IOException failure : failures) {
+                exception.addSuppressed(failure);
+            }
+            throw exception;
+        }
+
+        CopyStats toStats(long elapsedNanos) {
+            CopyStats stats = new CopyStats();
+            stats.setFiles(files.sum());
+            stats.setSkippedFiles(skippedFiles.sum());
+            stats.setDirectories(directories.sum());
+            stats.setBytes(bytes.sum());
+            stats.setElapsedNanos(elapsedNanos);
+            return stats;
+        }
+    }
+
+    /**
+     * TreeCopier的构建器
+     */
+    public static final class TreeCopierBuilder implements Builder<TreeCopier> {
+        private static final long serialVersionUID = 1L;
+
+        private int parallelism = DEFAULT_PARALLELISM;
+
+        private boolean skipUnchanged;
+
+        private boolean compareHash;
+
+        private boolean preserveAttributes = true;
+
+        private transient Executor executor;
+
+        private TreeCopierBuilder() {
+        }
+
+        /**
+         * 最多同时复制的文件数，1表示在调用线程中逐个复制
+         *
+         * @param parallelism parallelism
+         * @return TreeCopierBuilder
+         */
+        public TreeCopierBuilder parallelism(int parallelism) {
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        public TreeCopierBuilder skipUnchanged(boolean skipUnchanged) {
+            this.skipUnchanged = skipUnchanged;
+            return this;
+        }
+
+        /**
+         * 大小和修改时间相同时，是否还要比较md5
+         *
+         * @param compareHash compareHash
+         * @return TreeCopierBuilder
+         */
+        public TreeCopierBuilder compareHash(boolean compareHash) {
+            this.compareHash = compareHash;
+            return this;
+        }
+
+        public TreeCopierBuilder preserveAttributes(boolean preserveAttributes) {
+            this.preserveAttributes = preserveAttributes;
+            return this;
+        }
+
+        /**
+         * 复制文件的线程池，默认ThreadPoolUtils.getBlockingIoExecutor()
+         *
+         * @param executor executor
+         * @return TreeCopierBuilder
+         */
+        public TreeCopierBuilder executor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        @Override
+        public TreeCopier build() {
+            if (parallelism <= 0) {
+                throw new IllegalArgumentException("parallelism must be greater than 0");
+            }
+            if (executor == null) {
+                executor = parallelism == 1 ? Runnable::run : ThreadPoolUtils.getBlockingIoExecutor();
+            }
+            return new TreeCopier(this);
+        }
+    }
+}
@@ -0,0 +1,1226 @@
+package cn.lyf.tools.io.http;
+
+import cn.lyf.tools.core.builder.Builder;
+import cn.lyf.tools.core.constant.CommonConstant;
+import cn.lyf.tools.thread.ThreadPoolUtils;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * @author lyf
+ * @description 基于NIO Selector的异步HTTP/1.1客户端，适合并发请求大量url
+ * <pre>
+ *     1. 单个selector线程处理所有连接的连接、读写和超时，请求不占用线程，结果通过CompletableFuture返回
+ *     2. 每个host最多maxConnectionsPerHost个连接，连接keep-alive复用，超出的请求在host的队列中等待
+ *     3. 连接数已满时，GET/HEAD请求可以在已有连接上流水线发送(pipelineDepth > 1时开启)
+ *     4. 最多maxInFlight个未完成的请求，超出时sendAsync阻塞调用方，等待acquireTimeoutMillis后仍然没有空位则返回失败的future
+ *     5. 复用的连接被服务端关闭时，尚未收到响应的GET/HEAD/OPTIONS请求自动重试一次
+ *     6. 支持Content-Length、chunked以及读到连接关闭三种响应体
+ *     7. https请求不走selector，回退为ThreadPoolUtils.getBlockingIoExecutor()中的阻塞请求，同样受maxInFlight限制
+ *     8. future在completionExecutor中完成，后续的回调不会占用selector线程
+ * </pre>
+ * @since 2023/5/17 15:20:44
+ */
+@Slf4j
+public final class AsyncHttpClient implements AutoCloseable {
+    /**
+     * 默认每个host的最大连接数
+     */
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 32;
+
+    /**
+     * 默认最多未完成的请求数
+     */
+    public static final int DEFAULT_MAX_IN_FLIGHT = 10_000;
+
+    /**
+     * 默认的流水线深度，1表示不开启
+     */
+    public static final int DEFAULT_PIPELINE_DEPTH = 1;
+
+    /**
+     * 默认的连接超时时间，毫秒
+     */
+    public static final long DEFAULT_CONNECT_TIMEOUT_MILLIS = 5 * 1000L;
+
+    /**
+     * 默认的请求超时时间，从提交到收到完整响应，毫秒
+     */
+    public static final long DEFAULT_REQUEST_TIMEOUT_MILLIS = 30 * 1000L;
+
+    /**
+     * 默认的空闲连接存活时间，毫秒
+     */
+    public static final long DEFAULT_KEEP_ALIVE_MILLIS = 30 * 1000L;
+
+    /**
+     * 默认的响应体最大字节数，64M
+     */
+    public static final int DEFAULT_MAX_RESPONSE_BYTES = 64 * 1024 * 1024;
+
+    /**
+     * 超时检查的间隔，毫秒
+     */
+    private static final long SWEEP_INTERVAL_MILLIS = 50L;
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private static final int MAX_HEADER_BYTES = 64 * 1024;
+
+    private final int maxConnectionsPerHost;
+
+    private final int pipelineDepth;
+
+    private final long connectTimeoutNanos;
+
+    private final long requestTimeoutNanos;
+
+    private final long keepAliveNanos;
+
+    private final long acquireTimeoutMillis;
+
+    private final int maxResponseBytes;
+
+    private final Executor completionExecutor;
+
+    private final Semaphore inFlight;
+
+    private final int maxInFlight;
+
+    private final Selector selector;
+
+    private final Thread selectorThread;
+
+    /**
+     * 其他线程提交给selector线程执行的任务
+     */
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    /**
+     * 已提交还未交给host的请求，关闭时由selector线程或者提交线程取出并以IOException结束
+     */
+    private final Queue<Exchange> submitted = new ConcurrentLinkedQueue<>();
+
+    /**
+     * 以下字段只在selector线程中访问
+     */
+    private final Map<String, HostState> hosts = new HashMap<>();
+
+    private final Set<Connection> connections = new HashSet<>();
+
+    /**
+     * selector线程复用的读缓冲区
+     */
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+    private volatile boolean running = true;
+
+    private AsyncHttpClient(AsyncHttpClientBuilder builder, long acquireTimeoutMillis, Executor completionExecutor) throws IOException {
+        this.maxConnectionsPerHost = builder.maxConnectionsPerHost;
+        this.pipelineDepth = builder.pipelineDepth;
+        this.connectTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(builder.connectTimeoutMillis);
+        this.requestTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(builder.requestTimeoutMillis);
+        this.keepAliveNanos = TimeUnit.MILLISECONDS.toNanos(builder.keepAliveMillis);
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+        this.maxResponseBytes = builder.maxResponseBytes;
+        this.completionExecutor = completionExecutor;
+        this.maxInFlight = builder.maxInFlight;
+        this.inFlight = new Semaphore(builder.maxInFlight);
+        this.selector = Selector.open();
+        this.selectorThread = new Thread(this::loop);
+        selectorThread.setDaemon(true);
+        selectorThread.setName("async-http-selector");
+        selectorThread.start();
+    }
+
+    public static AsyncHttpClientBuilder builder() {
+        return new AsyncHttpClientBuilder();
+    }
+
+    /**
+     * 异步GET请求
+     *
+     * @param url url
+     * @return CompletableFuture
+     */
+    public CompletableFuture<Response> getAsync(String url) {
+        return sendAsync(Request.get(url));
+    }
+
+    /**
+     * 异步发送请求，未完成的请求数达到maxInFlight时阻塞调用方
+     *
+     * @param request 请求
+     * @return CompletableFuture，响应码不是2xx时同样正常完成
+     */
+    public CompletableFuture<Response> sendAsync(Request request) {
+        if (request == null) {
+            throw new IllegalArgumentException("request can't be null");
+        }
+        if (!running) {
+            throw new RejectedExecutionException("async http client is closed");
+        }
+        CompletableFuture<Response> future = new CompletableFuture<>();
+        try {
+            if (!inFlight.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                future.completeExceptionally(new RejectedExecutionException("too many requests in flight: " + maxInFlight));
+                return future;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.completeExceptionally(e);
+            return future;
+        }
+        future.whenComplete((response, throwable) -> inFlight.release());
+
+        if ("https".equalsIgnoreCase(request.uri.getScheme())) {
+            try {
+                ThreadPoolUtils.getBlockingIoExecutor().execute(() -> {
+                    try {
+                        future.complete(blockingExchange(request));
+                    } catch (IOException | RuntimeException e) {
+                        future.completeExceptionally(e);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                future.completeExceptionally(e);
+            }
+            return future;
+        }
+
+        submitted.add(new Exchange(request, future, System.nanoTime() + requestTimeoutNanos));
+        selector.wakeup();
+        if (!running) {
+            // 与close竞争: selector线程可能已经清理完队列，由提交线程结束剩下的请求
+            failSubmitted();
+        }
+        return future;
+    }
+
+    /**
+     * 未完成的请求数
+     *
+     * @return inFlight
+     */
+    public int inFlight() {
+        return maxInFlight - inFlight.availablePermits();
+    }
+
+    /**
+     * 关闭所有连接，未完成的请求以IOException结束
+     */
+    @Override
+    public void close() {
+        running = false;
+        selector.wakeup();
+    }
+
+    private void loop() {
+        long lastSweep = System.nanoTime();
+        while (running) {
+            try {
+                selector.select(SWEEP_INTERVAL_MILLIS);
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    task.run();
+                }
+                Exchange exchange;
+                while ((exchange = submitted.poll()) != null) {
+                    Request request = exchange.request;
+                    HostState host = hosts.computeIfAbsent(exchange.hostKey, key -> new HostState(request.getHost(), request.getPort()));
+                    host.waiting.addLast(exchange);
+                    dispatch(host);
+                }
+                Set<SelectionKey> keys = selector.selectedKeys();
+                for (SelectionKey key : keys) {
+                    Connection connection = (Connection) key.attachment();
+                    try {
+                        if (key.isValid() && key.isConnectable()) {
+                            connection.finishConnect();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.write();
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            connection.read();
+                        }
+                    } catch (IOException e) {
+                        connection.fail(e, false);
+                    }
+                }
+                keys.clear();
+                long now = System.nanoTime();
+                if (now - lastSweep >= TimeUnit.MILLISECONDS.toNanos(SWEEP_INTERVAL_MILLIS)) {
+                    lastSweep = now;
+                    sweep(now);
+                }
+            } catch (Throwable t) {
+                log.error("async http selector loop error", t);
+            }
+        }
+        shutdown();
+    }
+
+    private void shutdown() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+        failSubmitted();
+        IOException closed = new IOException("async http client is closed");
+        for (Connection connection : new ArrayList<>(connections)) {
+            connection.fail(closed, true);
+        }
+        for (HostState host : hosts.values()) {
+            for (Exchange exchange : host.waiting) {
+                complete(exchange, null, closed);
+            }
+            host.waiting.clear();
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            log.warn("close selector failed", e);
+        }
+    }
+
+    /**
+     * 关闭后结束还没有交给host的请求，可能同时在selector线程和提交线程中调用，每个请求只会被取出一次
+     */
+    private void failSubmitted() {
+        Exchange exchange;
+        while ((exchange = submitted.poll()) != null) {
+            complete(exchange, null, new IOException("async http client is closed"));
+        }
+    }
+
+    /**
+     * 为等待中的请求分配连接
+     *
+     * @param host host
+     */
+    private void dispatch(HostState host) {
+        while (running && !host.waiting.isEmpty()) {
+            Exchange exchange = host.waiting.peekFirst();
+            Connection connection = host.idle.pollLast();
+            if (connection == null && host.open >= maxConnectionsPerHost && pipelineDepth > 1 && exchange.request.isPipelinable()) {
+                connection = findPipelineConnection(host);
+            }
+            if (connection == null) {
+                if (host.open >= maxConnectionsPerHost) {
+                    return;
+                }
+                if (host.address == null) {
+                    resolve(host);
+                    return;
+                }
+                try {
+                    connection = new Connection(host);
+                } catch (IOException e) {
+                    host.waiting.pollFirst();
+                    complete(exchange, null, e);
+                    continue;
+                }
+            }
+            host.waiting.pollFirst();
+            connection.enqueue(exchange);
+        }
+    }
+
+    private Connection findPipelineConnection(HostState host) {
+        for (Connection connection : host.active) {
+            if (connection.connected && connection.keepAlive && connection.inflight.size() < pipelineDepth
+                    && connection.allPipelinable()) {
+                return connection;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * DNS解析是阻塞的，放到阻塞IO线程池中，完成后回到selector线程继续分配
+     *
+     * @param host host
+     */
+    private void resolve(HostState host) {
+        if (host.resolving) {
+            return;
+        }
+        host.resolving = true;
+        Runnable resolveTask = () -> {
+            InetSocketAddress address = new InetSocketAddress(host.host, host.port);
+            tasks.add(() -> {
+                host.resolving = false;
+                if (address.isUnresolved()) {
+                    UnknownHostException e = new UnknownHostException(host.host);
+                    for (Exchange exchange : host.waiting) {
+                        complete(exchange, null, e);
+                    }
+                    host.waiting.clear();
+                    return;
+                }
+                host.address = address;
+                dispatch(host);
+            });
+            selector.wakeup();
+        };
+        try {
+            ThreadPoolUtils.getBlockingIoExecutor().execute(resolveTask);
+        } catch (RejectedExecutionException e) {
+            host.resolving = false;
+            for (Exchange exchange : host.waiting) {
+                complete(exchange, null, e);
+            }
+            host.waiting.clear();
+        }
+    }
+
+    /**
+     * 处理超时: 等待中的请求、连接中的连接、正在请求的连接以及过期的空闲连接
+     *
+     * @param now System.nanoTime()
+     */
+    private void sweep(long now) {
+        for (HostState host : hosts.values()) {
+            Iterator<Exchange> iterator = host.waiting.iterator();
+            while (iterator.hasNext()) {
+                Exchange exchange = iterator.next();
+                if (now - exchange.deadlineNanos >= 0) {
+                    iterator.remove();
+                    complete(exchange, null, new SocketTimeoutException("request timeout: " + exchange.request.uri));
+                }
+            }
+        }
+        for (Connection connection : new ArrayList<>(connections)) {
+            if (!connection.connected) {
+                if (now - connection.connectDeadlineNanos >= 0) {
+                    connection.fail(new SocketTimeoutException("connect timeout: " + connection.host.host), false);
+                }
+            } else if (connection.inflight.isEmpty()) {
+                if (now - connection.idleSinceNanos >= keepAliveNanos) {
+                    connection.close();
+                }
+            } else if (now - connection.inflight.peekFirst().deadlineNanos >= 0) {
+                connection.timeoutHead();
+            }
+        }
+    }
+
+    private void complete(Exchange exchange, Response response, Throwable throwable) {
+        Runnable completion = throwable == null
+                ? () -> exchange.future.complete(response)
+                : () -> exchange.future.completeExceptionally(throwable);
+        try {
+            completionExecutor.execute(completion);
+        } catch (RejectedExecutionException e) {
+            completion.run();
+        }
+    }
+
+    private Response blockingExchange(Request request) throws IOException {
+        HttpURLConnection conn = HttpClientUtil.openConnection(request.uri.toString());
+        conn.setConnectTimeout((int) TimeUnit.NANOSECONDS.toMillis(connectTimeoutNanos));
+        conn.setReadTimeout((int) TimeUnit.NANOSECONDS.toMillis(requestTimeoutNanos));
+        conn.setRequestMethod(request.method);
+        request.headers.forEach(conn::setRequestProperty);
+        if (request.body != null && request.body.length > 0) {
+            conn.setDoOutput(true);
+            try (OutputStream outputStream = conn.getOutputStream()) {
+                outputStream.write(request.body);
+            }
+        }
+        int code = conn.getResponseCode();
+        Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        conn.getHeaderFields().forEach((name, values) -> {
+            if (name != null) {
+                headers.put(name, values);
+            }
+        });
+        InputStream inputStream = code >= HttpURLConnection.HTTP_BAD_REQUEST ? conn.getErrorStream() : conn.getInputStream();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        if (inputStream != null) {
+            try (InputStream in = inputStream) {
+                byte[] buffer = new byte[8 * 1024];
+                int count;
+                while ((count = in.read(buffer)) != -1) {
+                    body.write(buffer, 0, count);
+                }
+            }
+        }
+        return new Response(code, conn.getResponseMessage(), headers, body.toByteArray());
+    }
+
+    /**
+     * 一个host上的连接和等待中的请求，只在selector线程中访问
+     */
+    private static final class HostState {
+        private final String host;
+
+        private final int port;
+
+        private InetSocketAddress address;
+
+        private boolean resolving;
+
+        private int open;
+
+        private final ArrayDeque<Connection> idle = new ArrayDeque<>();
+
+        private final Set<Connection> active = new LinkedHashSet<>();
+
+        private final ArrayDeque<Exchange> waiting = new ArrayDeque<>();
+
+        HostState(String host, int port) {
+            this.host = host;
+            this.port = port;
+        }
+    }
+
+    /**
+     * 一次请求
+     */
+    private static final class Exchange {
+        private final Request request;
+
+        private final CompletableFuture<Response> future;
+
+        private final long deadlineNanos;
+
+        private final String hostKey;
+
+        private final byte[] encoded;
+
+        /**
+         * 已经收到了部分响应，不能再重试
+         */
+        private boolean responseStarted;
+
+        private boolean retried;
+
+        Exchange(Request request, CompletableFuture<Response> future, long deadlineNanos) {
+            this.request = request;
+            this.future = future;
+            this.deadlineNanos = deadlineNanos;
+            this.hostKey = request.getHost() + ":" + request.getPort();
+            this.encoded = request.encode();
+        }
+    }
+
+    /**
+     * 一个HTTP/1.1连接，只在selector线程中访问
+     */
+    private final class Connection {
+        private final HostState host;
+
+        private final SocketChannel channel;
+
+        private final SelectionKey key;
+
+        private final long connectDeadlineNanos;
+
+        /**
+         * 已经写出或者等待写出、尚未收到响应的请求，按发送顺序排列
+         */
+        private final ArrayDeque<Exchange> inflight = new ArrayDeque<>();
+
+        private final ArrayDeque<ByteBuffer> outQueue = new ArrayDeque<>();
+
+        private final ResponseParser parser = new ResponseParser(maxResponseBytes);
+
+        private boolean connected;
+
+        private boolean keepAlive = true;
+
+        private boolean closed;
+
+        private long idleSinceNanos;
+
+        Connection(HostState host) throws IOException {
+            this.host = host;
+            this.channel = SocketChannel.open();
+            try {
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                this.connected = channel.connect(host.address);
+                this.key = channel.register(selector, connected ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT, this);
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+            this.connectDeadlineNanos = System.nanoTime() + connectTimeoutNanos;
+            host.open++;
+            host.active.add(this);
+            connections.add(this);
+        }
+
+        void enqueue(Exchange exchange) {
+            host.idle.remove(this);
+            host.active.add(this);
+            inflight.addLast(exchange);
+            outQueue.addLast(ByteBuffer.wrap(exchange.encoded));
+            if (connected) {
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+        }
+
+        boolean allPipelinable() {
+            for (Exchange exchange : inflight) {
+                if (!exchange.request.isPipelinable()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void finishConnect() throws IOException {
+            if (channel.finishConnect()) {
+                connected = true;
+                key.interestOps(outQueue.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+        }
+
+        void write() throws IOException {
+            while (!outQueue.isEmpty()) {
+                ByteBuffer buffer = outQueue.peekFirst();
+                channel.write(buffer);
+                if (buffer.hasRemaining()) {
+                    return;
+                }
+                outQueue.pollFirst();
+            }
+            key.interestOps(SelectionKey.OP_READ);
+        }
+
+        void read() throws IOException {
+            ByteBuffer buffer = readBuffer;
+            while (!closed) {
+                buffer.clear();
+                int count = channel.read(buffer);
+                if (count == 0) {
+                    return;
+                }
+                if (count < 0) {
+                    onEof();
+                    return;
+                }
+                buffer.flip();
+                while (!closed && buffer.hasRemaining()) {
+                    Exchange head = inflight.peekFirst();
+                    if (head == null) {
+                        throw new IOException("unexpected data from " + host.host);
+                    }
+                    head.responseStarted = true;
+                    Response response = parser.parse(buffer, "HEAD".equals(head.request.method));
+                    if (response != null) {
+                        onResponse(response);
+                    }
+                }
+            }
+        }
+
+        void onResponse(Response response) {
+            Exchange exchange = inflight.pollFirst();
+            complete(exchange, response, null);
+            if (!parser.isKeepAlive()) {
+                keepAlive = false;
+                requeueAndClose(new IOException("connection closed by " + host.host));
+                return;
+            }
+            if (inflight.isEmpty()) {
+                host.active.remove(this);
+                host.idle.addLast(this);
+                idleSinceNanos = System.nanoTime();
+            }
+            dispatch(host);
+        }
+
+        void onEof() throws IOException {
+            Response response = parser.finishOnClose();
+            if (response != null) {
+                complete(inflight.pollFirst(), response, null);
+            }
+            keepAlive = false;
+            requeueAndClose(new EOFException("connection closed by " + host.host));
+        }
+
+        /**
+         * 头部请求超时，其余尚未收到响应的请求重新排队
+         */
+        void timeoutHead() {
+            Exchange head = inflight.pollFirst();
+            complete(head, null, new SocketTimeoutException("request timeout: " + head.request.uri));
+            requeueAndClose(new SocketTimeoutException("request timeout"));
+        }
+
+        void fail(IOException e, boolean noRetry) {
+            if (noRetry) {
+                for (Exchange exchange : inflight) {
+                    complete(exchange, null, e);
+                }
+                inflight.clear();
+            }
+            requeueAndClose(e);
+        }
+
+        /**
+         * 关闭连接，可以安全重试的请求重新排到host队列的头部，其余的以异常结束
+         */
+        private void requeueAndClose(IOException e) {
+            Exchange exchange;
+            List<Exchange> retry = new ArrayList<>();
+            while ((exchange = inflight.pollFirst()) != null) {
+                if (!exchange.responseStarted && !exchange.retried && exchange.request.isRetryable()) {
+                    exchange.retried = true;
+                    retry.add(exchange);
+                } else {
+                    complete(exchange, null, e);
+                }
+            }
+            for (int i = retry.size() - 1; i >= 0; i--) {
+                host.waiting.addFirst(retry.get(i));
+            }
+            if (!connected) {
+                // 连接失败时重新解析地址
+                host.address = null;
+            }
+            close();
+            dispatch(host);
+        }
+
+        void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.debug("close channel failed", e);
+            }
+            host.open--;
+            host.idle.remove(this);
+            host.active.remove(this);
+            connections.remove(this);
+        }
+    }
+
+    /**
+     * HTTP/1.1响应解析器，增量解析，一个连接上的响应依次复用同一个解析器
+     */
+    private static final class ResponseParser {
+        private static final int HEADER = 0;
+
+        private static final int FIXED = 1;
+
+        private static final int CHUNK_SIZE = 2;
+
+        private static final int CHUNK_DATA = 3;
+
+        private static final int CHUNK_END = 4;
+
+        private static final int TRAILER = 5;
+
+        private static final int UNTIL_CLOSE = 6;
+
+        private final int maxResponseBytes;
+
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+        private final ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+
+        private ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+        private int state = HEADER;
+
+        private long remaining;
+
+        private int statusCode;
+
+        private String reason;
+
+        private Map<String, List<String>> headers;
+
+        private boolean keepAlive;
+
+        ResponseParser(int maxResponseBytes) {
+            this.maxResponseBytes = maxResponseBytes;
+        }
+
+        boolean isKeepAlive() {
+            return keepAlive;
+        }
+
+        /**
+         * 解析缓冲区中的数据
+         *
+         * @param in   数据
+         * @param head 是否是HEAD请求的响应
+         * @return 解析出的完整响应，数据不足时返回null
+         * @throws IOException 响应格式错误
+         */
+        Response parse(ByteBuffer in, boolean head) throws IOException {
+            while (in.hasRemaining()) {
+                switch (state) {
+                    case HEADER:
+                        if (!readHeader(in)) {
+                            return null;
+                        }
+                        if (statusCode >= 100 && statusCode < 200) {
+                            // 100-continue等临时响应，继续读取最终响应
+                            resetHeader();
+                            continue;
+                        }
+                        startBody(head);
+                        if (state == HEADER) {
+                            return build();
+                        }
+                        break;
+                    case FIXED:
+                    case CHUNK_DATA:
+                        int count = (int) Math.min(remaining, in.remaining());
+                        appendBody(in, count);
+                        remaining -= count;
+                        if (remaining == 0) {
+                            if (state == FIXED) {
+                                state = HEADER;
+                                return build();
+                            }
+                            state = CHUNK_END;
+                        }
+                        break;
+                    case CHUNK_SIZE:
+                        String sizeLine = readLine(in);
+                        if (sizeLine == null) {
+                            return null;
+                        }
+                        int extension = sizeLine.indexOf(';');
+                        try {
+                            remaining = Long.parseLong((extension < 0 ? sizeLine : sizeLine.substring(0, extension)).trim(), 16);
+                        } catch (NumberFormatException e) {
+                            throw new IOException("invalid chunk size: " + sizeLine);
+                        }
+                        if (remaining < 0) {
+                            throw new IOException("invalid chunk size: " + sizeLine);
+                        }
+                        state = remaining == 0 ? TRAILER : CHUNK_DATA;
+                        break;
+                    case CHUNK_END:
+                        if (readLine(in) == null) {
+                            return null;
+                        }
+                        state = CHUNK_SIZE;
+                        break;
+                    case TRAILER:
+                        String trailer = readLine(in);
+                        if (trailer == null) {
+                            return null;
+                        }
+                        if (trailer.isEmpty()) {
+                            state = HEADER;
+                            return build();
+                        }
+                        break;
+                    case UNTIL_CLOSE:
+                        appendBody(in, in.remaining());
+                        break;
+                    default:
+                        throw new IllegalStateException("unknown state: " + state);
+                }
+            }
+            return null;
+        }
+
+        /**
+         * 连接关闭时，以读到连接关闭为结束的响应在此完成
+         *
+         * @return 响应，没有正在解析的此类响应时返回null
+         * @throws IOException 响应不完整
+         */
+        Response finishOnClose() throws IOException {
+            if (state == UNTIL_CLOSE) {
+                state = HEADER;
+                return build();
+            }
+            if (state != HEADER || headerBytes.size() > 0) {
+                throw new EOFException("connection closed before response completed");
+            }
+            return null;
+        }
+
+        private boolean readHeader(ByteBuffer in) throws IOException {
+            while (in.hasRemaining()) {
+                byte b = in.get();
+                headerBytes.write(b);
+                int size = headerBytes.size();
+                if (size > MAX_HEADER_BYTES) {
+                    throw new IOException("response header is too large");
+                }
+                if (b == '\n' && size >= 4) {
+                    byte[] bytes = headerBytes.toByteArray();
+                    if (bytes[size - 2] == '\r' && bytes[size - 3] == '\n' && bytes[size - 4] == '\r') {
+                        parseHeader(new String(bytes, 0, size - 4, StandardCharsets.ISO_8859_1));
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        private void parseHeader(String text) throws IOException {
+            String[] lines = text.split("\r\n");
+            String[] status = lines[0].split(" ", 3);
+            if (status.length < 2 || !status[0].startsWith("HTTP/")) {
+                throw new IOException("invalid status line: " + lines[0]);
+            }
+            try {
+                statusCode = Integer.parseInt(status[1]);
+            } catch (NumberFormatException e) {
+                throw new IOException("invalid status line: " + lines[0]);
+            }
+            reason = status.length > 2 ? status[2] : "";
+            headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            for (int i = 1; i < lines.length; i++) {
+                int colon = lines[i].indexOf(':');
+                if (colon > 0) {
+                    headers.computeIfAbsent(lines[i].substring(0, colon).trim(), k -> new ArrayList<>(1))
+                            .add(lines[i].substring(colon + 1).trim());
+                }
+            }
+            String connection = firstHeader("Connection");
+            if ("HTTP/1.0".equals(status[0])) {
+                keepAlive = "keep-alive".equalsIgnoreCase(connection);
+            } else {
+                keepAlive = !"close".equalsIgnoreCase(connection);
+            }
+            headerBytes.reset();
+        }
+
+        private void startBody(boolean head) throws IOException {
+            body = new ByteArrayOutputStream();
+            if (head || statusCode == 204 || statusCode == 304) {
+                state = HEADER;
+                return;
+            }
+            String transferEncoding = firstHeader("Transfer-Encoding");
+            if (transferEncoding != null && transferEncoding.toLowerCase(Locale.ENGLISH).contains("chunked")) {
+                state = CHUNK_SIZE;
+                return;
+            }
+            String contentLength = firstHeader("Content-Length");
+            if (contentLength != null) {
+                try {
+                    remaining = Long.parseLong(contentLength.trim());
+                } catch (NumberFormatException e) {
+                    throw new IOException("invalid Content-Length: " + contentLength);
+                }
+                if (remaining < 0) {
+                    throw new IOException("invalid Content-Length: " + contentLength);
+                }
+                if (remaining > maxResponseBytes) {
+                    throw new IOException("response body is too large: " + remaining);
+                }
+                state = remaining == 0 ? HEADER : FIXED;
+                return;
+            }
+            // 没有长度，读到连接关闭为止
+            keepAlive = false;
+            state = UNTIL_CLOSE;
+        }
+
+        private void appendBody(ByteBuffer in, int count) throws IOException {
+            if (body.size() + count > maxResponseBytes) {
+                throw new IOException("response body is too large");
+            }
+            body.write(in.array(), in.arrayOffset() + in.position(), count);
+            in.position(in.position() + count);
+        }
+
+        private String readLine(ByteBuffer in) throws IOException {
+            while (in.hasRemaining()) {
+                byte b = in.get();
+                if (b == '\n') {
+                    byte[] bytes = line.toByteArray();
+                    line.reset();
+                    int length = bytes.length > 0 && bytes[bytes.length - 1] == '\r' ? bytes.length - 1 : bytes.length;
+                    return new String(bytes, 0, length, StandardCharsets.ISO_8859_1);
+                }
+                line.write(b);
+                if (line.size() > MAX_HEADER_BYTES) {
+                    throw new IOException("line is too long");
+                }
+            }
+            return null;
+        }
+
+        private String firstHeader(String name) {
+            List<String> values = headers.get(name);
+            return values == null || values.isEmpty() ? null : values.get(0);
+        }
+
+        private void resetHeader() {
+            headers = null;
+            state = HEADER;
+        }
+
+        private Response build() {
+            Response response = new Response(statusCode, reason, headers, body.toByteArray());
+            body = new ByteArrayOutputStream();
+            return response;
+        }
+    }
+
+    /**
+     * 请求
+     */
+    @Getter
+    public static final class Request {
+        private final String method;
+
+        private final URI uri;
+
+        private final Map<String, String> headers;
+
+        private final byte[] body;
+
+        /**
+         * @param method  请求方法
+         * @param url     http或者https的url
+         * @param headers 请求头，可以为null
+         * @param body    请求体，可以为null
+         */
+        public Request(String method, String url, Map<String, String> headers, byte[] body) {
+            if (method == null || !HttpUtil.isHttpOrHttps(url)) {
+                throw new IllegalArgumentException("method can't be null and url must be http or https");
+            }
+            this.method = method.toUpperCase(Locale.ENGLISH);
+            try {
+                this.uri = new URI(url);
+            } catch (URISyntaxException e) {
+                throw new IllegalArgumentException("invalid url: " + url, e);
+            }
+            if (uri.getHost() == null) {
+                throw new IllegalArgumentException("invalid url: " + url);
+            }
+            this.headers = headers == null ? Collections.emptyMap() : new LinkedHashMap<>(headers);
+            this.body = body;
+        }
+
+        public static Request get(String url) {
+            return new Request("GET", url, null, null);
+        }
+
+        public String getHost() {
+            return uri.getHost();
+        }
+
+        public int getPort() {
+            if (uri.getPort() != -1) {
+                return uri.getPort();
+            }
+            return "https".equalsIgnoreCase(uri.getScheme()) ? 443 : 80;
+        }
+
+        /**
+         * 只有GET和HEAD可以流水线发送
+         */
+        boolean isPipelinable() {
+            return "GET".equals(method) || "HEAD".equals(method);
+        }
+
+        /**
+         * 幂等且没有副作用的请求，连接被关闭时可以重试
+         */
+        boolean isRetryable() {
+            return isPipelinable() || "OPTIONS".equals(method);
+        }
+
+        byte[] encode() {
+            String path = uri.getRawPath();
+            StringBuilder sb = new StringBuilder(256);
+            sb.append(method).append(' ').append(path == null || path.isEmpty() ? "/" : path);
+            if (uri.getRawQuery() != null) {
+                sb.append('?').append(uri.getRawQuery());
+            }
+            sb.append(" HTTP/1.1\r\n");
+            if (!headers.containsKey("Host")) {
+                sb.append("Host: ").append(uri.getHost());
+                if (uri.getPort() != -1) {
+                    sb.append(':').append(uri.getPort());
+                }
+                sb.append("\r\n");
+            }
+            if (!headers.containsKey(CommonConstant.USER_AGENT)) {
+                sb.append(CommonConstant.USER_AGENT).append(": ").append(CommonConstant.USER_AGENT_VALUE).append("\r\n");
+            }
+            headers.forEach((name, value) -> sb.append(name).append(": ").append(value).append("\r\n"));
+            if (body != null && body.length > 0) {
+                sb.append("Content-Length: ").append(body.length).append("\r\n");
+            }
+            sb.append("\r\n");
+            byte[] head = sb.toString().getBytes(StandardCharsets.UTF_8);
+            if (body == null || body.length == 0) {
+                return head;
+            }
+            byte[] bytes = Arrays.copyOf(head, head.length + body.length);
+            System.arraycopy(body, 0, bytes, head.length, body.length);
+            return bytes;
+        }
+    }
+
+    /**
+     * 响应
+     */
+    @Getter
+    public static final class Response {
+        private final int statusCode;
+
+        private final String reason;
+
+        /**
+         * 响应头，key不区分大小写
+         */
+        private final Map<String, List<String>> headers;
+
+        private final byte[] body;
+
+        Response(int statusCode, String reason, Map<String, List<String>> headers, byte[] body) {
+            this.statusCode = statusCode;
+            this.reason = reason;
+            this.headers = headers;
+            this.body = body;
+        }
+
+        /**
+         * 获取第一个同名响应头
+         *
+         * @param name 响应头名称
+         * @return 响应头的值，不存在时返回null
+         */
+        public String header(String name) {
+            List<String> values = headers.get(name);
+            return values == null || values.isEmpty() ? null : values.get(0);
+        }
+
+        public String bodyAsString(Charset charset) {
+            return new String(body, charset);
+        }
+    }
+
+    /**
+     * AsyncHttpClient的构建器
+     */
+    public static final class AsyncHttpClientBuilder implements Builder<AsyncHttpClient> {
+        private static final long serialVersionUID = 1L;
+
+        private int maxConnectionsPerHost = DEFAULT_MAX_CONNECTIONS_PER_HOST;
+
+        private int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+
+        private int pipelineDepth = DEFAULT_PIPELINE_DEPTH;
+
+        private long connectTimeoutMillis = DEFAULT_CONNECT_TIMEOUT_MILLIS;
+
+        private long requestTimeoutMillis = DEFAULT_REQUEST_TIMEOUT_MILLIS;
+
+        private long keepAliveMillis = DEFAULT_KEEP_ALIVE_MILLIS;
+
+        private Long acquireTimeoutMillis;
+
+        private int maxResponseBytes = DEFAULT_MAX_RESPONSE_BYTES;
+
+        private transient Executor completionExecutor;
+
+        private AsyncHttpClientBuilder() {
+        }
+
+        public AsyncHttpClientBuilder maxConnectionsPerHost(int maxConnectionsPerHost) {
+            this.maxConnectionsPerHost = maxConnectionsPerHost;
+            return this;
+        }
+
+        public AsyncHttpClientBuilder maxInFlight(int maxInFlight) {
+            this.maxInFlight = maxInFlight;
+            return this;
+        }
+
+        public AsyncHttpClientBuilder pipelineDepth(int pipelineDepth) {
+            this.pipelineDepth = pipelineDepth;
+            return this;
+        }
+
+        public AsyncHttpClientBuilder connectTimeoutMillis(long connectTimeoutMillis) {
+            this.connectTimeoutMillis = connectTimeoutMillis;
+            return this;
+        }
+
+        public AsyncHttpClientBuilder requestTimeoutMillis(long requestTimeoutMillis) {
+            this.requestTimeoutMillis = requestTimeoutMillis;
+            return this;
+        }
+
+        public AsyncHttpClientBuilder keepAliveMillis(long keepAliveMillis) {
+            this.keepAliveMillis = keepAliveMillis;
+            return this;
+        }
+
+        /**
+         * 未完成的请求数达到maxInFlight时，sendAsync最多阻塞的时间，默认与请求超时时间相同
+         *
+         * @param acquireTimeoutMillis 毫秒
+         * @return AsyncHttpClientBuilder
+         */
+        public AsyncHttpClientBuilder acquireTimeoutMillis(long acquireTimeoutMillis) {
+            this.acquireTimeoutMillis = acquireTimeoutMillis;
+            return this;
+        }
+
+        public AsyncHttpClientBuilder maxResponseBytes(int maxResponseBytes) {
+            this.maxResponseBytes = maxResponseBytes;
+            return this;
+        }
+
+        /**
+         * 完成future的线程池，默认ForkJoinPool.commonPool()
+         *
+         * @param completionExecutor completionExecutor
+         * @return AsyncHttpClientBuilder
+         */
+        public AsyncHttpClientBuilder completionExecutor(Executor completionExecutor) {
+            this.completionExecutor = completionExecutor;
+            return this;
+        }
+
+        @Override
+        public AsyncHttpClient build() {
+            if (maxConnectionsPerHost <= 0 || maxInFlight <= 0 || pipelineDepth <= 0) {
+                throw new IllegalArgumentException("maxConnectionsPerHost, maxInFlight and pipelineDepth must be greater than 0");
+            }
+            if (connectTimeoutMillis <= 0 || requestTimeoutMillis <= 0 || keepAliveMillis < 0) {
+                throw new IllegalArgumentException("timeout must be greater than 0");
+            }
+            if (maxResponseBytes <= 0) {
+                throw new IllegalArgumentException("maxResponseBytes must be greater than 0");
+            }
+            // 不修改builder的字段，同一个builder可以多次build
+            long acquireTimeout = acquireTimeoutMillis == null ? requestTimeoutMillis : acquireTimeoutMillis;
+            Executor executor = completionExecutor == null ? ForkJoinPool.commonPool() : completionExecutor;
+            try {
+                return new AsyncHttpClient(this, acquireTimeout, executor);
+            } catch (IOException e) {
+                throw new IllegalStateException("open selector failed", e);
+            }
+        }
+    }
+}
@@ -6,14 +6,12 @@ import cn.lyf.tools.io.http.config.TrustAnyHostnameVerifier;
 import cn.lyf.tools.str.StringUtil;
 import lombok.extern.slf4j.Slf4j;
 
+import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLSocketFactory;
 import javax.net.ssl.TrustManager;
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
@@ -30,6 +28,30 @@ import java.security.SecureRandom;
  **/
 @Slf4j
 public final class HttpClientUtil {
+    private static final TrustAnyHostnameVerifier TRUST_ANY_HOSTNAME_VERIFIER = new TrustAnyHostnameVerifier();
+
+    /**
+     * 信任所有证书的SSLSocketFactory，只创建一次
+     * <pre>
+     *     1. 每次请求都创建SSLContext需要初始化SecureRandom，代价较高
+     *     2. JDK只会复用SSLSocketFactory相同的https连接，共享同一个实例才能复用连接、避免重复握手
+     * </pre>
+     *
+     * @return SSLSocketFactory
+     */
+    public static SSLSocketFactory getTrustAllSocketFactory() {
+        return SslHolder.SOCKET_FACTORY;
+    }
+
+    /**
+     * 不校验域名的HostnameVerifier
+     *
+     * @return HostnameVerifier
+     */
+    public static HostnameVerifier getTrustAnyHostnameVerifier() {
+        return TRUST_ANY_HOSTNAME_VERIFIER;
+    }
+
     /**
      * 获取请求的url
      *
@@ -50,13 +72,8 @@ public final class HttpClientUtil {
         URLConnection urlConnection = null;
         if (HttpUtil.isHttpsUrl(urlStr)) {
             try {
-                // 创建SSLContext
-                SSLContext sslContext = SSLContext.getInstance(CommonConstant.SSL);
-                TrustManager[] tm = {new CustomX509TrustManager()};
-                // 初始化
-                sslContext.init(null, tm, new SecureRandom());
-                // 获取SSLSocketFactory对象
-                SSLSocketFactory ssf = sslContext.getSocketFactory();
+                // 获取缓存的SSLSocketFactory对象
+                SSLSocketFactory ssf = getTrustAllSocketFactory();
                 // url对象
                 URL url = new URL(urlStr);
                 // 打开连接
@@ -72,7 +89,7 @@ public final class HttpClientUtil {
                      *
                      * 如果少了这一步会报错:java.io.IOException: HTTPS hostname wrong: should be <localhost>
                      */
-                    conn.setHostnameVerifier(new TrustAnyHostnameVerifier());
+                    conn.setHostnameVerifier(TRUST_ANY_HOSTNAME_VERIFIER);
                     conn.addRequestProperty(CommonConstant.USER_AGENT, CommonConstant.USER_AGENT_VALUE);
                     // 设置一些参数
                     conn.setConnectTimeout(5 * 1000);
@@ -87,7 +104,7 @@ public final class HttpClientUtil {
                 }
 
                 log.info("HttpsURLConnection is null");
-            } catch (NoSuchAlgorithmException | KeyManagementException | IOException e) {
+            } catch (IOException e) {
                 log.info("HttpsURLConnection get failed, {}", e.getMessage());
             }
         } else {
@@ -111,6 +128,34 @@ public final class HttpClientUtil {
         return null;
     }
 
+    /**
+     * 创建连接并设置好超时、User-Agent以及https的证书校验，但不发起连接，调用方可以继续设置请求头(例如Range)
+     *
+     * @param urlStr urlStr
+     * @return HttpURLConnection
+     * @throws IOException IOException
+     */
+    public static HttpURLConnection openConnection(String urlStr) throws IOException {
+        if (!HttpUtil.isHttpOrHttps(urlStr)) {
+            throw new IllegalArgumentException(urlStr + " is not http or https url");
+        }
+        URLConnection urlConnection = new URL(urlStr).openConnection();
+        if (!(urlConnection instanceof HttpURLConnection)) {
+            throw new IOException(urlStr + " is not a http connection");
+        }
+        HttpURLConnection conn = (HttpURLConnection) urlConnection;
+        conn.setRequestProperty(CommonConstant.USER_AGENT, CommonConstant.USER_AGENT_VALUE);
+        conn.setConnectTimeout(5 * 1000);
+        conn.setReadTimeout(30 * 1000);
+        conn.setUseCaches(false);
+        if (conn instanceof HttpsURLConnection) {
+            HttpsURLConnection httpsConn = (HttpsURLConnection) conn;
+            httpsConn.setSSLSocketFactory(getTrustAllSocketFactory());
+            httpsConn.setHostnameVerifier(TRUST_ANY_HOSTNAME_VERIFIER);
+        }
+        return conn;
+    }
+
     /**
      * 获取HttpsConnection
      *
@@ -133,31 +178,36 @@ public final class HttpClientUtil {
 
     /**
      * 执行Https请求
+     * <pre>
+     *     通过PooledHttpClient.getDefault()发送请求，复用连接，响应体按字节读取后按UTF-8解码
+     * </pre>
      *
      * @param urlStr https 路径
      * @return 请求的结果
      */
     public static String request(String urlStr) {
-        URLConnection conn = getUrlConnection(urlStr);
-
-        if (conn == null) {
-            log.info("HttpsURLConnection is null");
+        try {
+            return PooledHttpClient.getDefault().getString(urlStr, StandardCharsets.UTF_8);
+        } catch (IOException | IllegalArgumentException e) {
+            log.error("", e);
             return null;
         }
+    }
 
-        StringBuilder sb = null;
-        try (InputStream inputStream = conn.getInputStream();
-             InputStreamReader inputStreamReader = new InputStreamReader(inputStream, StandardCharsets.UTF_8);
-             BufferedReader bufferedReader = new BufferedReader(inputStreamReader)) {
-            sb = new StringBuilder();
-            String line;
-            while ((line = bufferedReader.readLine()) != null) {
-                sb.append(line).append(System.lineSeparator());
+    private static final class SslHolder {
+        private static final SSLSocketFactory SOCKET_FACTORY;
+
+        static {
+            try {
+                // 创建SSLContext
+                SSLContext sslContext = SSLContext.getInstance(CommonConstant.SSL);
+                TrustManager[] tm = {new CustomX509TrustManager()};
+                // 初始化
+                sslContext.init(null, tm, new SecureRandom());
+                SOCKET_FACTORY = sslContext.getSocketFactory();
+            } catch (NoSuchAlgorithmException | KeyManagementException e) {
+                throw new IllegalStateException("init SSLContext failed", e);
             }
-        } catch (IOException e) {
-            log.error("", e);
         }
-
-        return sb == null ? null : sb.toString();
     }
 }
@@ -0,0 +1,480 @@
+package cn.lyf.tools.io.http;
+
+import cn.lyf.tools.core.builder.Builder;
+import cn.lyf.tools.core.constant.CommonConstant;
+import cn.lyf.tools.io.BufferPool;
+import cn.lyf.tools.thread.LogHistogram;
+import lombok.Data;
+
+import javax.net.ssl.HttpsURLConnection;
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author lyf
+ * @description 复用连接的http客户端
+ * <pre>
+ *     1. 基于HttpURLConnection的keep-alive缓存复用连接: 响应体读完并关闭输入流(不调用disconnect)后，连接回到JDK的缓存中，
+ *        https使用同一个SSLSocketFactory，复用时不需要重新握手
+ *     2. 每个host最多同时maxConnectionsPerHost个请求，超过时等待，等待超过connectTimeout抛出IOException，
+ *        connectTimeout为0时与HttpURLConnection一致，一直等待；
+ *        JDK每个host最多缓存http.maxConnections(默认5)个空闲连接，maxConnectionsPerHost更大时需要同时调大该系统属性
+ *     3. 响应体按字节流式读取，不按行读取
+ *     4. 按host统计请求数、连接复用命中率和请求耗时；HttpURLConnection不暴露连接是否被复用，
+ *        命中率根据本客户端归还的空闲连接数(keepAliveMillis内有效)估算
+ * </pre>
+ * @since 2023/5/17 10:05:33
+ */
+public final class PooledHttpClient {
+    /**
+     * 默认的连接超时时间，毫秒
+     */
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 5 * 1000;
+
+    /**
+     * 默认的读取超时时间，毫秒
+     */
+    public static final int DEFAULT_READ_TIMEOUT_MILLIS = 30 * 1000;
+
+    /**
+     * 默认每个host的最大并发连接数，与JDK默认缓存的空闲连接数一致
+     */
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 5;
+
+    /**
+     * 默认的空闲连接存活时间，与JDK的默认值一致，毫秒
+     */
+    public static final long DEFAULT_KEEP_ALIVE_MILLIS = 5 * 1000L;
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private final int connectTimeoutMillis;
+
+    private final int readTimeoutMillis;
+
+    private final int maxConnectionsPerHost;
+
+    private final long keepAliveMillis;
+
+    /**
+     * JDK实际会缓存的空闲连接数
+     */
+    private final int maxIdlePerHost;
+
+    private final Map<String, HostPool> hostPools = new ConcurrentHashMap<>();
+
+    private PooledHttpClient(int connectTimeoutMillis, int readTimeoutMillis, int maxConnectionsPerHost, long keepAliveMillis) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        this.keepAliveMillis = keepAliveMillis;
+        this.maxIdlePerHost = Math.min(maxConnectionsPerHost, Integer.getInteger("http.maxConnections", 5));
+    }
+
+    public static PooledHttpClientBuilder builder() {
+        return new PooledHttpClientBuilder();
+    }
+
+    /**
+     * 默认配置的共享客户端
+     *
+     * @return PooledHttpClient
+     */
+    public static PooledHttpClient getDefault() {
+        return DefaultHolder.INSTANCE;
+    }
+
+    /**
+     * 发起GET请求并返回响应体的输入流，调用方必须关闭输入流，读完并关闭后连接才能被复用
+     *
+     * @param urlStr url
+     * @return 响应体的输入流
+     * @throws IOException 请求失败或者响应码不是2xx
+     */
+    public InputStream open(String urlStr) throws IOException {
+        if (!HttpUtil.isHttpOrHttps(urlStr)) {
+            throw new IllegalArgumentException(urlStr + " is not http or https url");
+        }
+        URL url = new URL(urlStr);
+        HostPool pool = hostPools.computeIfAbsent(hostKey(url), key -> new HostPool(maxConnectionsPerHost));
+        try {
+            if (connectTimeoutMillis == 0) {
+                pool.permits.acquire();
+            } else if (!pool.permits.tryAcquire(connectTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                pool.errors.increment();
+                throw new IOException("too many connections to " + url.getHost());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for connection to " + url.getHost());
+        }
+
+        long startNanos = System.nanoTime();
+        pool.requests.increment();
+        if (pool.pollIdle(keepAliveMillis)) {
+            pool.hits.increment();
+        } else {
+            pool.misses.increment();
+        }
+        InputStream inputStream = null;
+        boolean reusable = false;
+        try {
+            HttpURLConnection conn = openConnection(url);
+            int code = conn.getResponseCode();
+            if (code < HttpURLConnection.HTTP_OK || code >= HttpURLConnection.HTTP_MULT_CHOICE) {
+                // 读完错误响应体，连接仍然可以被复用
+                reusable = drain(conn.getErrorStream());
+                throw new IOException("request " + urlStr + " failed, response code: " + code);
+            }
+            inputStream = new PooledInputStream(conn.getInputStream(), pool, startNanos, maxIdlePerHost);
+            return inputStream;
+        } finally {
+            if (inputStream == null) {
+                // 任何异常都要归还名额，交给PooledInputStream之后由它在关闭时归还
+                pool.errors.increment();
+                pool.release(reusable, startNanos, maxIdlePerHost);
+            }
+        }
+    }
+
+    /**
+     * GET请求，响应体写入outputStream
+     *
+     * @param urlStr       url
+     * @param outputStream 输出流，不会被关闭
+     * @return 响应体字节数
+     * @throws IOException IOException
+     */
+    public long get(String urlStr, OutputStream outputStream) throws IOException {
+        byte[] buffer = BufferPool.acquireBytes(BUFFER_SIZE);
+        try (InputStream inputStream = open(urlStr)) {
+            long total = 0L;
+            int count;
+            while ((count = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, count);
+                total += count;
+            }
+            return total;
+        } finally {
+            BufferPool.release(buffer);
+        }
+    }
+
+    /**
+     * GET请求，返回响应体的字节
+     *
+     * @param urlStr url
+     * @return 响应体
+     * @throws IOException IOException
+     */
+    public byte[] getBytes(String urlStr) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        get(urlStr, outputStream);
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * GET请求，按charset解码响应体
+     *
+     * @param urlStr  url
+     * @param charset 字符集
+     * @return 响应体
+     * @throws IOException IOException
+     */
+    public String getString(String urlStr, Charset charset) throws IOException {
+        return new String(getBytes(urlStr), charset);
+    }
+
+    /**
+     * 各host的统计快照，key为protocol://host:port
+     *
+     * @return metrics
+     */
+    public Map<String, HostMetrics> getMetrics() {
+        Map<String, HostMetrics> metrics = new TreeMap<>();
+        hostPools.forEach((host, pool) -> metrics.put(host, pool.snapshot()));
+        return metrics;
+    }
+
+    /**
+     * 清空统计数据
+     */
+    public void resetMetrics() {
+        hostPools.values().forEach(HostPool::resetMetrics);
+    }
+
+    private HttpURLConnection openConnection(URL url) throws IOException {
+        URLConnection urlConnection = url.openConnection();
+        if (!(urlConnection instanceof HttpURLConnection)) {
+            throw new IOException(url + " is not a http connection");
+        }
+        HttpURLConnection conn = (HttpURLConnection) urlConnection;
+        conn.setRequestProperty(CommonConstant.USER_AGENT, CommonConstant.USER_AGENT_VALUE);
+        conn.setConnectTimeout(connectTimeoutMillis);
+        conn.setReadTimeout(readTimeoutMillis);
+        conn.setUseCaches(false);
+        if (conn instanceof HttpsURLConnection) {
+            // 同一个SSLSocketFactory的连接才会被JDK复用
+            HttpsURLConnection httpsConn = (HttpsURLConnection) conn;
+            httpsConn.setSSLSocketFactory(HttpClientUtil.getTrustAllSocketFactory());
+            httpsConn.setHostnameVerifier(HttpClientUtil.getTrustAnyHostnameVerifier());
+        }
+        return conn;
+    }
+
+    private static boolean drain(InputStream inputStream) {
+        if (inputStream == null) {
+            return true;
+        }
+        byte[] buffer = BufferPool.acquireBytes(BUFFER_SIZE);
+        try (InputStream in = inputStream) {
+            while (in.read(buffer) != -1) {
+                // 丢弃
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            BufferPool.release(buffer);
+        }
+    }
+
+    private static String hostKey(URL url) {
+        int port = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+        return url.getProtocol() + "://" + url.getHost() + ":" + port;
+    }
+
+    /**
+     * 单个host的并发控制和统计
+     */
+    private static final class HostPool {
+        private final int maxConnections;
+
+        private final Semaphore permits;
+
+        /**
+         * 归还空闲连接的时间，毫秒，后进先出，与JDK的keep-alive缓存一致
+         */
+        private final ConcurrentLinkedDeque<Long> idle = new ConcurrentLinkedDeque<>();
+
+        private final LongAdder requests = new LongAdder();
+
+        private final LongAdder hits = new LongAdder();
+
+        private final LongAdder misses = new LongAdder();
+
+        private final LongAdder errors = new LongAdder();
+
+        private final LogHistogram latency = new LogHistogram();
+
+        HostPool(int maxConnections) {
+            this.maxConnections = maxConnections;
+            this.permits = new Semaphore(maxConnections);
+        }
+
+        boolean pollIdle(long keepAliveMillis) {
+            long now = System.currentTimeMillis();
+            Long since;
+            while ((since = idle.pollLast()) != null) {
+                if (now - since < keepAliveMillis) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void release(boolean reusable, long startNanos, int maxIdle) {
+            latency.record(System.nanoTime() - startNanos);
+            if (reusable) {
+                idle.addLast(System.currentTimeMillis());
+                while (idle.size() > maxIdle) {
+                    idle.pollFirst();
+                }
+            }
+            permits.release();
+        }
+
+        HostMetrics snapshot() {
+            HostMetrics metrics = new HostMetrics();
+            metrics.setRequests(requests.sum());
+            metrics.setPoolHits(hits.sum());
+            metrics.setPoolMisses(misses.sum());
+            metrics.setErrors(errors.sum());
+            long total = metrics.getPoolHits() + metrics.getPoolMisses();
+            metrics.setHitRate(total == 0 ? 0d : metrics.getPoolHits() * 1.0d / total);
+            metrics.setInFlight(maxConnections - permits.availablePermits());
+            metrics.setLatencyNanos(latency.snapshot());
+            return metrics;
+        }
+
+        void resetMetrics() {
+            requests.reset();
+            hits.reset();
+            misses.reset();
+            errors.reset();
+            latency.reset();
+        }
+    }
+
+    /**
+     * 响应体输入流，关闭时归还连接
+     */
+    private static final class PooledInputStream extends FilterInputStream {
+        private final HostPool pool;
+
+        private final long startNanos;
+
+        private final int maxIdle;
+
+        private boolean eof;
+
+        private boolean failed;
+
+        private boolean closed;
+
+        PooledInputStream(InputStream in, HostPool pool, long startNanos, int maxIdle) {
+            super(in);
+            this.pool = pool;
+            this.startNanos = startNanos;
+            this.maxIdle = maxIdle;
+        }
+
+        @Override
+        public int read() throws IOException {
+            try {
+                int b = super.read();
+                eof = b == -1;
+                return b;
+            } catch (IOException e) {
+                failed = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            try {
+                int count = super.read(b, off, len);
+                if (count == -1) {
+                    eof = true;
+                }
+                return count;
+            } catch (IOException e) {
+                failed = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                super.close();
+            } finally {
+                // 没有读完的响应体JDK不一定会复用连接
+                pool.release(eof && !failed, startNanos, maxIdle);
+            }
+        }
+    }
+
+    /**
+     * 单个host的统计快照
+     */
+    @Data
+    public static class HostMetrics {
+        private long requests;
+
+        /**
+         * 估算的连接复用次数
+         */
+        private long poolHits;
+
+        /**
+         * 估算的新建连接次数
+         */
+        private long poolMisses;
+
+        private double hitRate;
+
+        private long errors;
+
+        /**
+         * 进行中的请求数
+         */
+        private int inFlight;
+
+        /**
+         * 请求耗时，从发起请求到响应体关闭，纳秒
+         */
+        private LogHistogram.HistogramSnapshot latencyNanos;
+    }
+
+    /**
+     * PooledHttpClient的构建器
+     */
+    public static final class PooledHttpClientBuilder implements Builder<PooledHttpClient> {
+        private static final long serialVersionUID = 1L;
+
+        private int connectTimeoutMillis = DEFAULT_CONNECT_TIMEOUT_MILLIS;
+
+        private int readTimeoutMillis = DEFAULT_READ_TIMEOUT_MILLIS;
+
+        private int maxConnectionsPerHost = DEFAULT_MAX_CONNECTIONS_PER_HOST;
+
+        private long keepAliveMillis = DEFAULT_KEEP_ALIVE_MILLIS;
+
+        private PooledHttpClientBuilder() {
+        }
+
+        public PooledHttpClientBuilder connectTimeoutMillis(int connectTimeoutMillis) {
+            this.connectTimeoutMillis = connectTimeoutMillis;
+            return this;
+        }
+
+        public PooledHttpClientBuilder readTimeoutMillis(int readTimeoutMillis) {
+            this.readTimeoutMillis = readTimeoutMillis;
+            return this;
+        }
+
+        public PooledHttpClientBuilder maxConnectionsPerHost(int maxConnectionsPerHost) {
+            this.maxConnectionsPerHost = maxConnectionsPerHost;
+            return this;
+        }
+
+        public PooledHttpClientBuilder keepAliveMillis(long keepAliveMillis) {
+            this.keepAliveMillis = keepAliveMillis;
+            return this;
+        }
+
+        @Override
+        public PooledHttpClient build() {
+            if (connectTimeoutMillis < 0 || readTimeoutMillis < 0) {
+                throw new IllegalArgumentException("timeout can't be negative");
+            }
+            if (maxConnectionsPerHost <= 0) {
+                throw new IllegalArgumentException("maxConnectionsPerHost must be greater than 0");
+            }
+            if (keepAliveMillis < 0) {
+                throw new IllegalArgumentException("keepAliveMillis can't be negative");
+            }
+            return new PooledHttpClient(connectTimeoutMillis, readTimeoutMillis, maxConnectionsPerHost, keepAliveMillis);
+        }
+    }
+
+    private static final class DefaultHolder {
+        private static final PooledHttpClient INSTANCE = builder().build();
+    }
+}
@@ -0,0 +1,355 @@
+package cn.lyf.tools.io.http;
+
+import cn.lyf.tools.io.IoUtil;
+import cn.lyf.tools.io.ProgressListener;
+import cn.lyf.tools.io.TransferStats;
+import cn.lyf.tools.str.StringUtil;
+import cn.lyf.tools.thread.ThreadPoolUtils;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author lyf
+ * @description 多连接分段下载，支持断点续传
+ * <pre>
+ *     1. 先发送Range: bytes=0-0探测，206且Content-Range中带有总长度时按rangeSize分段，否则回退为单连接流式下载；
+ *        200时直接使用探测的响应，总长度未知(bytes 0-0/*)或者空资源返回416时不带Range重新请求
+ *     2. 数据写入预分配的"目标文件.part"，connections个连接并发拉取各段，按位置写入
+ *     3. 每完成一段记录到"目标文件.part.meta"(Properties)，下载中断后再次调用时跳过已完成的段；
+ *        长度、ETag或者Last-Modified变化时从头开始
+ *     4. 每段失败重试maxRetries次，全部完成后重命名为目标文件并删除.meta
+ * </pre>
+ * 注意: 进度回调会在多个下载线程中调用
+ * @since 2023/5/16 16:12:40
+ */
+@Slf4j
+public final class RangeDownloader {
+    /**
+     * 默认的连接数
+     */
+    public static final int DEFAULT_CONNECTIONS = 4;
+
+    /**
+     * 默认的分段大小，4M
+     */
+    public static final long DEFAULT_RANGE_SIZE = 4L * 1024 * 1024;
+
+    /**
+     * 默认每段的重试次数
+     */
+    public static final int DEFAULT_MAX_RETRIES = 3;
+
+    private static final String PART_SUFFIX = ".part";
+
+    private static final String META_SUFFIX = ".part.meta";
+
+    private static final String RANGE_KEY_PREFIX = "range.";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * HttpURLConnection中没有定义416
+     */
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+
+    private final int connections;
+
+    private final long rangeSize;
+
+    private final int maxRetries;
+
+    private final Executor executor;
+
+    public RangeDownloader() {
+        this(DEFAULT_CONNECTIONS, DEFAULT_RANGE_SIZE, DEFAULT_MAX_RETRIES, ThreadPoolUtils.getBlockingIoExecutor());
+    }
+
+    /**
+     * @param connections 并发连接数
+     * @param rangeSize   分段大小
+     * @param maxRetries  每段的重试次数
+     * @param executor    执行下载任务的线程池，需要至少能同时运行connections个任务
+     */
+    public RangeDownloader(int connections, long rangeSize, int maxRetries, Executor executor) {
+        if (connections <= 0) {
+            throw new IllegalArgumentException("connections must be greater than 0");
+        }
+        if (rangeSize <= 0) {
+            throw new IllegalArgumentException("rangeSize must be greater than 0");
+        }
+        if (maxRetries < 0) {
+            throw new IllegalArgumentException("maxRetries can't be negative");
+        }
+        if (executor == null) {
+            throw new IllegalArgumentException("executor can't be null");
+        }
+        this.connections = connections;
+        this.rangeSize = rangeSize;
+        this.maxRetries = maxRetries;
+        this.executor = executor;
+    }
+
+    /**
+     * 下载资源
+     *
+     * @param url      资源路径
+     * @param destFile 目标文件，已存在时会被覆盖
+     * @param listener 进度回调，可以为null
+     * @return 本次传输的统计，续传时只包含本次下载的字节数
+     * @throws IOException IOException
+     */
+    public TransferStats download(String url, File destFile, ProgressListener listener) throws IOException {
+        if (StringUtil.isEmpty(url) || destFile == null) {
+            throw new IllegalArgumentException("url and destFile can't be null");
+        }
+        long startNanos = System.nanoTime();
+        File partFile = new File(destFile.getAbsoluteFile().getParentFile(), destFile.getName() + PART_SUFFIX);
+        File metaFile = new File(destFile.getAbsoluteFile().getParentFile(), destFile.getName() + META_SUFFIX);
+
+        HttpURLConnection probe = HttpClientUtil.openConnection(url);
+        probe.setRequestProperty("Range", "bytes=0-0");
+        long length;
+        Properties meta;
+        try {
+            int code = probe.getResponseCode();
+            length = code == HttpURLConnection.HTTP_PARTIAL ? parseTotalLength(probe.getHeaderField("Content-Range")) : -1L;
+            if (length <= 0) {
+                if (code != HttpURLConnection.HTTP_OK && code != HttpURLConnection.HTTP_PARTIAL
+                        && code != HTTP_RANGE_NOT_SATISFIABLE) {
+                    throw new IOException("download " + url + " failed, response code: " + code);
+                }
+                log.info("{} does not support range requests, fall back to single stream", url);
+                Files.deleteIfExists(metaFile.toPath());
+                if (code != HttpURLConnection.HTTP_OK) {
+                    // 总长度未知或者空资源，探测的响应不是完整内容，不带Range重新请求
+                    return downloadWithoutRange(url, destFile, listener);
+                }
+                // 不支持Range，直接使用探测的响应流式下载
+                try (InputStream inputStream = probe.getInputStream()) {
+                    return IoUtil.download(inputStream, destFile, probe.getContentLengthLong(), listener);
+                }
+            }
+            meta = new Properties();
+            meta.setProperty("url", url);
+            meta.setProperty("length", String.valueOf(length));
+            meta.setProperty("rangeSize", String.valueOf(rangeSize));
+            meta.setProperty("etag", Objects.toString(probe.getHeaderField("ETag"), ""));
+            meta.setProperty("lastModified", Objects.toString(probe.getHeaderField("Last-Modified"), ""));
+        } finally {
+            probe.disconnect();
+        }
+
+        Properties existing = partFile.isFile() ? readMeta(metaFile) : null;
+        if (isSameResource(meta, existing)) {
+            meta = existing;
+        } else {
+            Files.deleteIfExists(partFile.toPath());
+            storeMeta(meta, metaFile);
+        }
+
+        int rangeCount = (int) ((length + rangeSize - 1) / rangeSize);
+        List<Integer> pending = new ArrayList<>();
+        long completedBytes = 0L;
+        for (int i = 0; i < rangeCount; i++) {
+            if (meta.getProperty(RANGE_KEY_PREFIX + i) != null) {
+                completedBytes += rangeLength(i, length);
+            } else {
+                pending.add(i);
+            }
+        }
+        log.info("download {}, {} bytes, {} ranges, {} ranges left", url, length, rangeCount, pending.size());
+
+        AtomicLong transferred = new AtomicLong(completedBytes);
+        AtomicInteger cursor = new AtomicInteger();
+        Properties finalMeta = meta;
+        try (RandomAccessFile raf = new RandomAccessFile(partFile, "rw");
+             FileChannel channel = raf.getChannel()) {
+            if (raf.length() != length) {
+                raf.setLength(length);
+            }
+            List<CompletableFuture<Void>> workers = new ArrayList<>();
+            for (int i = 0, n = Math.min(connections, pending.size()); i < n; i++) {
+                workers.add(CompletableFuture.runAsync(() -> {
+                    ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+                    int next;
+                    while ((next = cursor.getAndIncrement()) < pending.size()) {
+                        int rangeIndex = pending.get(next);
+                        try {
+                            fetchRangeWithRetry(url, channel, rangeIndex, length, buffer, transferred, listener);
+                            // 先落盘再记录，避免断电后.meta中记录了未落盘的段
+                            channel.force(false);
+                            synchronized (finalMeta) {
+                                finalMeta.setProperty(RANGE_KEY_PREFIX + rangeIndex, "1");
+                                storeMeta(finalMeta, metaFile);
+                            }
+                        } catch (IOException e) {
+                            // 让其他连接尽快停下，已完成的段已经记录在.meta中
+                            cursor.set(pending.size());
+                            throw new CompletionException(e);
+                        }
+                    }
+                }, executor));
+            }
+            try {
+                CompletableFuture.allOf(workers.toArray(new CompletableFuture<?>[0])).join();
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof IOException ? (IOException) cause : new IOException("download " + url + " failed", cause);
+            }
+            channel.force(false);
+        }
+
+        Files.move(partFile.toPath(), destFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        Files.deleteIfExists(metaFile.toPath());
+        TransferStats stats = new TransferStats();
+        stats.setBytes(transferred.get() - completedBytes);
+        stats.setElapsedNanos(System.nanoTime() - startNanos);
+        log.info("{} download is success, {} bytes, {} connections, {} bytes/s", destFile.getName(), length,
+                connections, (long) stats.getBytesPerSecond());
+        return stats;
+    }
+
+    private static TransferStats downloadWithoutRange(String url, File destFile, ProgressListener listener) throws IOException {
+        HttpURLConnection conn = HttpClientUtil.openConnection(url);
+        try {
+            int code = conn.getResponseCode();
+            if (code != HttpURLConnection.HTTP_OK) {
+                throw new IOException("download " + url + " failed, response code: " + code);
+            }
+            try (InputStream inputStream = conn.getInputStream()) {
+                return IoUtil.download(inputStream, destFile, conn.getContentLengthLong(), listener);
+            }
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    private void fetchRangeWithRetry(String url, FileChannel channel, int rangeIndex, long length, ByteBuffer buffer,
+                                     AtomicLong transferred, ProgressListener listener) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                fetchRange(url, channel, rangeIndex, length, buffer, transferred, listener);
+                return;
+            } catch (IOException e) {
+                if (attempt >= maxRetries) {
+                    throw e;
+                }
+                log.warn("download {} range {} failed, retry {}: {}", url, rangeIndex, attempt + 1, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 下载一段，失败时回退已经计入进度的字节数
+     */
+    private void fetchRange(String url, FileChannel channel, int rangeIndex, long length, ByteBuffer buffer,
+                            AtomicLong transferred, ProgressListener listener) throws IOException {
+        long start = rangeIndex * rangeSize;
+        long end = start + rangeLength(rangeIndex, length);
+        HttpURLConnection conn = HttpClientUtil.openConnection(url);
+        conn.setRequestProperty("Range", "bytes=" + start + "-" + (end - 1));
+        long position = start;
+        try {
+            int code = conn.getResponseCode();
+            if (code != HttpURLConnection.HTTP_PARTIAL) {
+                throw new IOException("range request " + url + " failed, response code: " + code);
+            }
+            try (InputStream inputStream = conn.getInputStream();
+                 ReadableByteChannel inChannel = Channels.newChannel(inputStream)) {
+                while (position < end) {
+                    buffer.clear();
+                    buffer.limit((int) Math.min(buffer.capacity(), end - position));
+                    int count = inChannel.read(buffer);
+                    if (count < 0) {
+                        throw new EOFException("range " + rangeIndex + " ended early at " + position);
+                    }
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        position += channel.write(buffer, position);
+                    }
+                    long total = transferred.addAndGet(count);
+                    if (listener != null) {
+                        listener.onProgress(total, length);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            transferred.addAndGet(start - position);
+            throw e;
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    private long rangeLength(int rangeIndex, long length) {
+        return Math.min(rangeSize, length - rangeIndex * rangeSize);
+    }
+
+    /**
+     * 解析Content-Range: bytes 0-0/12345中的总长度
+     *
+     * @param contentRange Content-Range
+     * @return 总长度，未知时返回-1
+     */
+    private static long parseTotalLength(String contentRange) {
+        if (StringUtil.isEmpty(contentRange)) {
+            return -1L;
+        }
+        int slash = contentRange.lastIndexOf('/');
+        if (slash < 0 || slash == contentRange.length() - 1 || contentRange.charAt(slash + 1) == '*') {
+            return -1L;
+        }
+        try {
+            return Long.parseLong(contentRange.substring(slash + 1).trim());
+        } catch (NumberFormatException e) {
+            return -1L;
+        }
+    }
+
+    private static boolean isSameResource(Properties meta, Properties existing) {
+        if (existing == null) {
+            return false;
+        }
+        for (String key : new String[]{"url", "length", "rangeSize", "etag", "lastModified"}) {
+            if (!Objects.equals(meta.getProperty(key), existing.getProperty(key))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Properties readMeta(File metaFile) {
+        if (!metaFile.isFile()) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try (InputStream inputStream = new FileInputStream(metaFile)) {
+            properties.load(inputStream);
+            return properties;
+        } catch (IOException e) {
+            log.warn("read download meta failed: {}", metaFile, e);
+            return null;
+        }
+    }
+
+    private static void storeMeta(Properties meta, File metaFile) throws IOException {
+        IoUtil.writeAtomically(metaFile, outputStream -> meta.store(outputStream, null));
+    }
+}
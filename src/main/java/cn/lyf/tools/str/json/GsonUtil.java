@@ -1,12 +1,11 @@
 package cn.lyf.tools.str.json;
 
 
+import cn.lyf.tools.io.IoUtil;
 import com.google.gson.*;
 import com.google.gson.internal.$Gson$Types;
 import lombok.extern.slf4j.Slf4j;
 
-import java.io.BufferedInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.Type;
@@ -22,11 +21,6 @@ import java.util.List;
  */
 @Slf4j
 public final class GsonUtil {
-    /**
-     * byte buffer 默认缓冲区大小
-     */
-    private static final int BYTE_BUFFER_SIZE = 8 * 1024;
-
     /**
      * 私有构造器
      */
@@ -159,15 +153,9 @@ public final class GsonUtil {
             return null;
         }
 
-        try (BufferedInputStream bis = new BufferedInputStream(inputStream);
-             ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
-            byte[] byteBuf = new byte[BYTE_BUFFER_SIZE];
-            int length;
-            while ((length = bis.read(byteBuf)) != -1) {
-                baos.write(byteBuf, 0, length);
-            }
-
-            return baos.toByteArray();
+        try {
+            // 读缓冲区从BufferPool借用，输出按available()预估大小
+            return IoUtil.toByteArray(inputStream);
         } catch (IOException e) {
             log.error("inputStream to Json String error", e);
             return null;
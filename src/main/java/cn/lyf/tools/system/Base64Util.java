@@ -7,7 +7,6 @@ import cn.lyf.tools.io.IoUtil;
 import cn.lyf.tools.str.ObjectUtil;
 import cn.lyf.tools.str.StringUtil;
 
-import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
@@ -69,8 +68,9 @@ public final class Base64Util {
      * @return 文件转成base64编码
      */
     public static String encode(InputStream inputStream) {
-        try (BufferedInputStream bis = new BufferedInputStream(inputStream)) {
-            byte[] bytes = IoUtil.toByteArray(bis);
+        try {
+            // IoUtil.toByteArray使用池化的读缓冲区并关闭输入流，不需要再套BufferedInputStream
+            byte[] bytes = IoUtil.toByteArray(inputStream);
             return encode(bytes);
         } catch (IOException e) {
             throw new IllegalArgumentException("获取图片失败：" + e.getMessage());
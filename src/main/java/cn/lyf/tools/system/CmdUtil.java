@@ -2,6 +2,7 @@ package cn.lyf.tools.system;
 
 import cn.lyf.tools.collection.CollectionUtil;
 import cn.lyf.tools.core.constant.CharsetEnum;
+import cn.lyf.tools.thread.ThreadPoolUtils;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.BufferedReader;
@@ -9,6 +10,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * @author lyf
@@ -113,6 +115,26 @@ public final class CmdUtil {
         return result;
     }
 
+    /**
+     * 异步执行命令集，等待进程结束的阻塞发生在ThreadPoolUtils.getBlockingIoExecutor()中
+     *
+     * @param commandList 命令集
+     * @return 结果
+     */
+    public static CompletableFuture<String> invokeCommandAsync(List<String> commandList) {
+        return invokeCommandAsync(commandList, CharsetEnum.UTF_8.getCharsetName());
+    }
+
+    /**
+     * 异步执行命令集，等待进程结束的阻塞发生在ThreadPoolUtils.getBlockingIoExecutor()中
+     *
+     * @param commandList 命令集
+     * @param charsetName 结果的字符编码集
+     * @return 结果
+     */
+    public static CompletableFuture<String> invokeCommandAsync(List<String> commandList, String charsetName) {
+        return CompletableFuture.supplyAsync(() -> invokeCommand(commandList, charsetName), ThreadPoolUtils.getBlockingIoExecutor());
+    }
 
     /**
      * 保存进程执行信息
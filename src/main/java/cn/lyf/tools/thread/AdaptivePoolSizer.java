@@ -0,0 +1,230 @@
+package cn.lyf.tools.thread;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author lyf
+ * @description 根据实测的排队时间、吞吐量和等待时间占比，在[minPoolSize, maxPoolSize]之间自动调整核心线程数
+ * <pre>
+ *     每个采样周期:
+ *     1. 周期内平均排队时间超过目标值，或者队列积压却没有任务出队时扩容:
+ *        正在执行的线程大部分时间在等待(IO型任务)时一次扩容一半，否则扩容1个；
+ *        几乎没有等待且线程数已经不少于CPU核数(CPU型任务)时，继续加线程无济于事，不扩容
+ *     2. 平均排队时间低于目标值的1/4、队列为空且活跃线程不足核心线程数一半时，缩容1个
+ *     3. 每次调整都会打印日志，包含调整原因和采样数据
+ *     4. 等待时间占比 = 1 - 线程CPU时间 / 墙上时间，按两次采样之间都在执行任务的线程计算，
+ *        阻塞在socket、文件读写上的线程状态是RUNNABLE，但不消耗CPU时间，同样计为等待；
+ *        JVM不支持线程CPU时间时退回到按线程状态统计，此时读写IO的线程会被低估
+ * </pre>
+ * @since 2023/5/12 9:31:40
+ */
+@Slf4j
+public final class AdaptivePoolSizer implements Runnable {
+    /**
+     * 默认的采样周期，毫秒
+     */
+    public static final long DEFAULT_SAMPLE_INTERVAL_MILLIS = 1000L;
+
+    /**
+     * 等待时间占比超过该值时按IO型任务处理
+     */
+    private static final double IO_BOUND_WAIT_RATIO = 0.5d;
+
+    /**
+     * 等待时间占比低于该值时按CPU型任务处理
+     */
+    private static final double CPU_BOUND_WAIT_RATIO = 0.1d;
+
+    /**
+     * 本周期没有可用的采样，无法判断任务类型
+     */
+    private static final double UNKNOWN_WAIT_RATIO = -1d;
+
+    private static final int CPU_COUNT = Runtime.getRuntime().availableProcessors();
+
+    private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+
+    private final InstrumentedThreadPoolExecutor executor;
+
+    private final int minPoolSize;
+
+    private final int maxPoolSize;
+
+    private final long targetQueueWaitNanos;
+
+    private long lastQueueWaitCount;
+
+    private long lastQueueWaitSum;
+
+    private long lastCompletedCount;
+
+    private long lastSampleNanos = System.nanoTime();
+
+    /**
+     * 上次采样时正在执行任务的线程的CPU时间，线程id -> {CPU时间, 采样时间}，只在采样线程中访问
+     */
+    private Map<Long, long[]> lastCpuSamples = new HashMap<>();
+
+    private ScheduledFuture<?> future;
+
+    /**
+     * @param executor              带运行指标的线程池
+     * @param minPoolSize           最小核心线程数
+     * @param maxPoolSize           最大核心线程数
+     * @param targetQueueWaitMillis 目标平均排队时间，毫秒
+     */
+    public AdaptivePoolSizer(InstrumentedThreadPoolExecutor executor, int minPoolSize, int maxPoolSize, long targetQueueWaitMillis) {
+        if (executor == null) {
+            throw new IllegalArgumentException("executor can't be null");
+        }
+        if (minPoolSize < 1 || maxPoolSize < minPoolSize) {
+            throw new IllegalArgumentException("pool size must satisfy 1 <= minPoolSize <= maxPoolSize");
+        }
+        if (targetQueueWaitMillis <= 0) {
+            throw new IllegalArgumentException("targetQueueWaitMillis must be greater than 0");
+        }
+        this.executor = executor;
+        this.minPoolSize = minPoolSize;
+        this.maxPoolSize = maxPoolSize;
+        this.targetQueueWaitNanos = TimeUnit.MILLISECONDS.toNanos(targetQueueWaitMillis);
+        executor.enableRunningThreadTracking();
+    }
+
+    /**
+     * 在ThreadPoolUtils.getScheduledThreadPool()上周期性采样，线程池关闭后自动停止
+     *
+     * @param intervalMillis 采样周期，毫秒
+     * @return this
+     */
+    public synchronized AdaptivePoolSizer start(long intervalMillis) {
+        if (future == null) {
+            future = ThreadPoolUtils.getScheduledThreadPool()
+                    .scheduleWithFixedDelay(this, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+        return this;
+    }
+
+    /**
+     * 停止采样
+     */
+    public synchronized void stop() {
+        if (future != null) {
+            future.cancel(false);
+            future = null;
+        }
+    }
+
+    @Override
+    public void run() {
+        if (executor.isShutdown()) {
+            stop();
+            return;
+        }
+        try {
+            sample();
+        } catch (RuntimeException e) {
+            log.error("adaptive pool sizing failed", e);
+        }
+    }
+
+    private void sample() {
+        ThreadPoolMetrics metrics = executor.snapshot();
+        long now = System.nanoTime();
+        long waitCount = metrics.getQueueWait().getCount() - lastQueueWaitCount;
+        long waitSum = metrics.getQueueWait().getSum() - lastQueueWaitSum;
+        long completed = metrics.getCompletedCount() - lastCompletedCount;
+        double seconds = Math.max(1L, now - lastSampleNanos) / 1e9d;
+        lastQueueWaitCount = metrics.getQueueWait().getCount();
+        lastQueueWaitSum = metrics.getQueueWait().getSum();
+        lastCompletedCount = metrics.getCompletedCount();
+        lastSampleNanos = now;
+
+        long meanWaitNanos = waitCount > 0 ? waitSum / waitCount : 0L;
+        double throughput = completed / seconds;
+        double waitRatio = waitRatio(now);
+        int queueSize = metrics.getQueueSize();
+        int active = metrics.getActiveCount();
+        int core = executor.getCorePoolSize();
+
+        boolean congested = meanWaitNanos > targetQueueWaitNanos || (queueSize > 0 && waitCount == 0 && active >= core);
+        if (congested && core < maxPoolSize) {
+            if (waitRatio != UNKNOWN_WAIT_RATIO && waitRatio < CPU_BOUND_WAIT_RATIO && core >= CPU_COUNT) {
+                log.debug("skip grow, cpu bound, core: {}, active: {}, queue: {}, meanWait: {}ms, wait: {}",
+                        core, active, queueSize, meanWaitNanos / 1_000_000d, waitRatio);
+                return;
+            }
+            int step = waitRatio >= IO_BOUND_WAIT_RATIO ? Math.max(1, core / 2) : 1;
+            resize(core, Math.min(maxPoolSize, core + step), "grow", active, queueSize, meanWaitNanos, throughput, waitRatio);
+        } else if (meanWaitNanos < targetQueueWaitNanos / 4 && queueSize == 0 && active < core / 2 && core > minPoolSize) {
+            resize(core, core - 1, "shrink", active, queueSize, meanWaitNanos, throughput, waitRatio);
+        }
+    }
+
+    private void resize(int core, int newCore, String reason, int active, int queueSize, long meanWaitNanos,
+                        double throughput, double waitRatio) {
+        if (newCore > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(newCore);
+        }
+        executor.setCorePoolSize(newCore);
+        log.info("{} core pool size {} -> {}, active: {}, queue: {}, meanWait: {}ms, throughput: {}/s, wait: {}",
+                reason, core, newCore, active, queueSize, meanWaitNanos / 1_000_000d, String.format("%.1f", throughput),
+                String.format("%.2f", waitRatio));
+    }
+
+    /**
+     * 正在执行任务的线程在本周期内不占用CPU的时间占比
+     *
+     * @param now 本次采样时间
+     * @return waitRatio，没有可用的采样时返回UNKNOWN_WAIT_RATIO
+     */
+    private double waitRatio(long now) {
+        if (!THREAD_MX_BEAN.isThreadCpuTimeSupported() || !THREAD_MX_BEAN.isThreadCpuTimeEnabled()) {
+            return blockedRatio();
+        }
+        Map<Long, long[]> samples = new HashMap<>();
+        double waitSum = 0d;
+        int measured = 0;
+        for (Thread thread : executor.getRunningThreads()) {
+            long cpuNanos = THREAD_MX_BEAN.getThreadCpuTime(thread.getId());
+            if (cpuNanos < 0) {
+                // 线程已经结束
+                continue;
+            }
+            samples.put(thread.getId(), new long[]{cpuNanos, now});
+            long[] last = lastCpuSamples.get(thread.getId());
+            if (last == null || now <= last[1]) {
+                continue;
+            }
+            double busy = Math.min(1d, Math.max(0L, cpuNanos - last[0]) / (double) (now - last[1]));
+            waitSum += 1d - busy;
+            measured++;
+        }
+        lastCpuSamples = samples;
+        return measured == 0 ? UNKNOWN_WAIT_RATIO : waitSum / measured;
+    }
+
+    /**
+     * 正在执行任务的线程中处于阻塞、等待状态的占比，不支持线程CPU时间时使用
+     *
+     * @return blockedRatio，没有正在执行任务的线程时返回UNKNOWN_WAIT_RATIO
+     */
+    private double blockedRatio() {
+        int running = 0;
+        int blocked = 0;
+        for (Thread thread : executor.getRunningThreads()) {
+            running++;
+            Thread.State state = thread.getState();
+            if (state == Thread.State.BLOCKED || state == Thread.State.WAITING || state == Thread.State.TIMED_WAITING) {
+                blocked++;
+            }
+        }
+        return running == 0 ? UNKNOWN_WAIT_RATIO : blocked * 1.0d / running;
+    }
+}
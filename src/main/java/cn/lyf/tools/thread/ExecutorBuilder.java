@@ -1,7 +1,9 @@
 package cn.lyf.tools.thread;
 
 import cn.lyf.tools.core.builder.Builder;
+import lombok.extern.slf4j.Slf4j;
 
+import java.lang.reflect.Method;
 import java.util.concurrent.*;
 
 /**
@@ -9,6 +11,7 @@ import java.util.concurrent.*;
  * @description 线程池构建器
  * @since 2023/5/4 9:39:19
  */
+@Slf4j
 public final class ExecutorBuilder implements Builder<ThreadPoolExecutor> {
     private static final long serialVersionUID = 1L;
 
@@ -57,6 +60,31 @@ public final class ExecutorBuilder implements Builder<ThreadPoolExecutor> {
      */
     private Boolean allowCoreThreadTimeOut;
 
+    /**
+     * 是否记录运行指标，为true时构建InstrumentedThreadPoolExecutor
+     */
+    private Boolean metrics;
+
+    /**
+     * 自适应模式下的最小核心线程数，为null时不开启自适应
+     */
+    private Integer adaptiveMinPoolSize;
+
+    /**
+     * 执行器类型，只对buildExecutorService()生效
+     */
+    private Profile profile;
+
+    /**
+     * 自适应模式下的最大核心线程数
+     */
+    private Integer adaptiveMaxPoolSize;
+
+    /**
+     * 自适应模式下的目标平均排队时间，毫秒
+     */
+    private Long targetQueueWaitMillis;
+
     private ExecutorBuilder() {
     }
 
@@ -100,6 +128,33 @@ public final class ExecutorBuilder implements Builder<ThreadPoolExecutor> {
         return this;
     }
 
+    public ExecutorBuilder metrics(boolean metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+
+    /**
+     * 开启自适应模式: 根据排队时间、吞吐量和阻塞线程占比在[minPoolSize, maxPoolSize]之间调整核心线程数，
+     * 会同时开启运行指标，corePoolSize和maximumPoolSize的设置以此为准
+     *
+     * @param minPoolSize           最小核心线程数
+     * @param maxPoolSize           最大核心线程数
+     * @param targetQueueWaitMillis 目标平均排队时间，毫秒
+     * @return ExecutorBuilder
+     */
+    public ExecutorBuilder adaptive(int minPoolSize, int maxPoolSize, long targetQueueWaitMillis) {
+        this.adaptiveMinPoolSize = minPoolSize;
+        this.adaptiveMaxPoolSize = maxPoolSize;
+        this.targetQueueWaitMillis = targetQueueWaitMillis;
+        this.metrics = true;
+        return this;
+    }
+
+    public ExecutorBuilder profile(Profile profile) {
+        this.profile = profile;
+        return this;
+    }
+
     /**
      * 创建构建器对象
      *
@@ -111,6 +166,11 @@ public final class ExecutorBuilder implements Builder<ThreadPoolExecutor> {
 
     @Override
     public ThreadPoolExecutor build() {
+        if (adaptiveMinPoolSize != null) {
+            corePoolSize = adaptiveMinPoolSize;
+            maximumPoolSize = maximumPoolSize == null ? adaptiveMaxPoolSize : Math.max(maximumPoolSize, adaptiveMaxPoolSize);
+        }
+
         if (corePoolSize == null) {
             corePoolSize = 1;
         }
@@ -138,6 +198,91 @@ public final class ExecutorBuilder implements Builder<ThreadPoolExecutor> {
         if (handler == null) {
             handler = new ThreadPoolExecutor.CallerRunsPolicy();
         }
-        return new ThreadPoolExecutor(this.corePoolSize, this.maximumPoolSize, this.keepAliveTime, this.unit, this.workQueue, this.threadFactory, this.handler);
+        if (Boolean.TRUE.equals(metrics)) {
+            InstrumentedThreadPoolExecutor executor = new InstrumentedThreadPoolExecutor(this.corePoolSize, this.maximumPoolSize, this.keepAliveTime, this.unit, this.workQueue, this.threadFactory, this.handler);
+            applyCoreThreadTimeOut(executor);
+            if (adaptiveMinPoolSize != null) {
+                new AdaptivePoolSizer(executor, adaptiveMinPoolSize, adaptiveMaxPoolSize, targetQueueWaitMillis)
+                        .start(AdaptivePoolSizer.DEFAULT_SAMPLE_INTERVAL_MILLIS);
+            }
+            return executor;
+        }
+        return applyCoreThreadTimeOut(new ThreadPoolExecutor(this.corePoolSize, this.maximumPoolSize, this.keepAliveTime, this.unit, this.workQueue, this.threadFactory, this.handler));
+    }
+
+    private ThreadPoolExecutor applyCoreThreadTimeOut(ThreadPoolExecutor executor) {
+        if (Boolean.TRUE.equals(allowCoreThreadTimeOut)) {
+            executor.allowCoreThreadTimeOut(true);
+        }
+        return executor;
+    }
+
+    /**
+     * 按profile构建执行器
+     * <pre>
+     *     THREAD_POOL: 与build()相同
+     *     WORK_STEALING: ForkJoinPool(asyncMode)，并行度为corePoolSize，未设置时为CPU核数，适合细粒度的CPU型任务
+     *     VIRTUAL_THREAD: 每个任务一个虚拟线程，适合阻塞IO，运行时通过反射探测，不支持时回退为THREAD_POOL
+     * </pre>
+     * WORK_STEALING和VIRTUAL_THREAD总是带运行指标，已提交未完成的任务数上限为队列容量 + maximumPoolSize，超出时触发拒绝策略
+     *
+     * @return ExecutorService
+     */
+    public ExecutorService buildExecutorService() {
+        Profile current = profile == null ? Profile.THREAD_POOL : profile;
+        if (current == Profile.THREAD_POOL) {
+            return build();
+        }
+
+        ExecutorService delegate;
+        if (current == Profile.WORK_STEALING) {
+            int parallelism = corePoolSize == null ? Runtime.getRuntime().availableProcessors() : corePoolSize;
+            delegate = new ForkJoinPool(parallelism, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+        } else {
+            delegate = newVirtualThreadPerTaskExecutor();
+            if (delegate == null) {
+                log.warn("virtual thread is not supported in java {}, fallback to thread pool", System.getProperty("java.version"));
+                return build();
+            }
+        }
+
+        int capacity = workQueue == null ? DEFAULT_QUEUE_CAPACITY : workQueue.remainingCapacity();
+        int maxPoolSize = maximumPoolSize == null ? Runtime.getRuntime().availableProcessors() * 2 : maximumPoolSize;
+        int maxInFlight = (int) Math.min(Integer.MAX_VALUE, (long) capacity + maxPoolSize);
+        return new InstrumentedExecutorService(delegate, maxInFlight,
+                handler == null ? new ThreadPoolExecutor.CallerRunsPolicy() : handler);
+    }
+
+    /**
+     * 通过反射调用Executors.newVirtualThreadPerTaskExecutor()，编译目标仍然是java8
+     *
+     * @return 不支持虚拟线程时返回null
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            // java21以下没有该方法，java19/20未开启preview时调用会失败
+            return null;
+        }
+    }
+
+    /**
+     * 执行器类型
+     */
+    public enum Profile {
+        /**
+         * ThreadPoolExecutor + 共享的阻塞队列
+         */
+        THREAD_POOL,
+        /**
+         * ForkJoinPool工作窃取
+         */
+        WORK_STEALING,
+        /**
+         * 每个任务一个虚拟线程
+         */
+        VIRTUAL_THREAD
     }
 }
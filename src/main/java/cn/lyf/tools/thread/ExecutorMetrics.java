@@ -0,0 +1,112 @@
+package cn.lyf.tools.thread;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author lyf
+ * @description 执行器运行指标的记录器，ExecutorBuilder构建的各种执行器共用
+ * @since 2023/5/12 15:20:11
+ */
+final class ExecutorMetrics {
+    private final LongAdder submittedCount = new LongAdder();
+
+    private final LongAdder completedCount = new LongAdder();
+
+    private final LongAdder failedCount = new LongAdder();
+
+    private final ConcurrentMap<String, LongAdder> rejectedCount = new ConcurrentHashMap<>();
+
+    private final LogHistogram queueWait = new LogHistogram();
+
+    private final LogHistogram execution = new LogHistogram();
+
+    void onSubmit() {
+        submittedCount.increment();
+    }
+
+    /**
+     * 任务开始执行
+     *
+     * @param enqueueNanos 入队时间
+     * @return 开始执行的时间
+     */
+    long onStart(long enqueueNanos) {
+        long now = System.nanoTime();
+        queueWait.record(now - enqueueNanos);
+        return now;
+    }
+
+    /**
+     * 任务执行结束
+     *
+     * @param startNanos 开始执行的时间
+     * @param failed     是否抛出了异常
+     */
+    void onComplete(long startNanos, boolean failed) {
+        execution.record(System.nanoTime() - startNanos);
+        if (failed) {
+            failedCount.increment();
+        } else {
+            completedCount.increment();
+        }
+    }
+
+    void onReject(String policy) {
+        rejectedCount.computeIfAbsent(policy, key -> new LongAdder()).increment();
+    }
+
+    /**
+     * 填充计数和耗时分布，线程数等由具体的执行器填充
+     *
+     * @param metrics 快照
+     * @return metrics
+     */
+    ThreadPoolMetrics fill(ThreadPoolMetrics metrics) {
+        metrics.setSubmittedCount(submittedCount.sum());
+        metrics.setCompletedCount(completedCount.sum());
+        metrics.setFailedCount(failedCount.sum());
+        Map<String, Long> rejected = new HashMap<>();
+        rejectedCount.forEach((policy, count) -> rejected.put(policy, count.sum()));
+        metrics.setRejectedCount(rejected);
+        metrics.setQueueWait(queueWait.snapshot());
+        metrics.setExecution(execution.snapshot());
+        return metrics;
+    }
+
+    /**
+     * submit提交的任务被包装为FutureTask，异常不会抛出到执行线程，参考ThreadPoolExecutor.afterExecute的javadoc取出异常
+     *
+     * @param task 执行完的任务，不含执行器自己的包装
+     * @return 是否是以异常或者取消结束的Future
+     */
+    static boolean isFailedFuture(Runnable task) {
+        if (!(task instanceof Future<?>) || !((Future<?>) task).isDone()) {
+            return false;
+        }
+        try {
+            ((Future<?>) task).get();
+            return false;
+        } catch (CancellationException | ExecutionException e) {
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    void reset() {
+        submittedCount.reset();
+        completedCount.reset();
+        failedCount.reset();
+        rejectedCount.clear();
+        queueWait.reset();
+        execution.reset();
+    }
+}
@@ -0,0 +1,420 @@
+package cn.lyf.tools.thread;
+
+import cn.lyf.tools.time.TimeUtil;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * @author lyf
+ * @description 分层时间轮，适合注册大量的超时任务
+ * <pre>
+ *     1. 第0层每格tickMillis，共wheelSize格；第k层每格为第k-1层一整圈的时长，超出当前层范围的任务放入上一层，上层按需创建
+ *     2. 每个格子是一个双向链表，schedule和cancel都是O(1)
+ *     3. 单个tick线程按TimeUtil.getCurrentTimeMillis()推进时间，上层格子到期时把任务降级到下层，第0层到期的任务先收集起来，释放锁之后再交给executor执行
+ *        executor拒绝时由当前线程执行，到期任务不会被丢弃
+ *     4. 与ScheduledThreadPoolExecutor的堆相比，不需要O(log n)的入队出队，代价是到期精度为tickMillis
+ * </pre>
+ * @since 2023/5/10 15:02:48
+ */
+@Slf4j
+public final class HashedTimingWheel implements AutoCloseable {
+    /**
+     * 默认的tick间隔，毫秒
+     */
+    public static final long DEFAULT_TICK_MILLIS = 10L;
+
+    /**
+     * 默认的每层格数
+     */
+    public static final int DEFAULT_WHEEL_SIZE = 512;
+
+    private final long tickMillis;
+
+    private final int wheelSize;
+
+    private final Executor executor;
+
+    /**
+     * 第0层时间轮，上层通过overflow链接
+     */
+    private final Wheel root;
+
+    /**
+     * 添加任务时加读锁，推进时间时加写锁，保证推进过程中不会有任务落入已经处理过的格子
+     */
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final AtomicInteger pending = new AtomicInteger();
+
+    private final Thread tickThread;
+
+    private volatile boolean running = true;
+
+    public HashedTimingWheel() {
+        this(DEFAULT_TICK_MILLIS, DEFAULT_WHEEL_SIZE, ThreadPoolUtils.getThreadPool());
+    }
+
+    /**
+     * @param tickMillis tick间隔，毫秒
+     * @param wheelSize  每层格数，会向上取整为2的幂
+     * @param executor   执行到期任务的线程池
+     */
+    public HashedTimingWheel(long tickMillis, int wheelSize, Executor executor) {
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("tickMillis must be greater than 0");
+        }
+        if (wheelSize < 2 || wheelSize > (1 << 20)) {
+            throw new IllegalArgumentException("wheelSize must be in [2, 2^20]");
+        }
+        if (executor == null) {
+            throw new IllegalArgumentException("executor can't be null");
+        }
+        this.tickMillis = tickMillis;
+        this.wheelSize = Integer.highestOneBit(wheelSize - 1) << 1;
+        this.executor = executor;
+
+        long now = TimeUtil.getCurrentTimeMillis();
+        this.root = new Wheel(tickMillis, this.wheelSize, now - now % tickMillis);
+
+        tickThread = new Thread(this::tickLoop);
+        tickThread.setDaemon(true);
+        tickThread.setName("timing-wheel-tick");
+        tickThread.start();
+    }
+
+    /**
+     * 注册一个延时任务
+     *
+     * @param task  任务
+     * @param delay 延迟时间
+     * @param unit  延迟时间单位
+     * @return Timeout，可用于取消
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        if (task == null || unit == null) {
+            throw new IllegalArgumentException("task and unit can't be null");
+        }
+        if (!running) {
+            throw new RejectedExecutionException("timing wheel is closed");
+        }
+        long now = TimeUtil.getCurrentTimeMillis();
+        long delayMillis = Math.max(0L, unit.toMillis(delay));
+        // 延迟过大时饱和为Long.MAX_VALUE，避免溢出成负数后立即到期
+        long deadline = delayMillis > Long.MAX_VALUE - now ? Long.MAX_VALUE : now + delayMillis;
+        Timeout timeout = new Timeout(this, task, deadline);
+        pending.incrementAndGet();
+        boolean expired;
+        lock.readLock().lock();
+        try {
+            expired = addOrExpire(timeout);
+        } catch (RuntimeException e) {
+            if (timeout.state.compareAndSet(Timeout.ST_PENDING, Timeout.ST_CANCELLED)) {
+                pending.decrementAndGet();
+            }
+            throw e;
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (expired) {
+            run(timeout);
+        }
+        return timeout;
+    }
+
+    /**
+     * 尚未到期也未取消的任务数
+     *
+     * @return pending
+     */
+    public int pendingTimeouts() {
+        return pending.get();
+    }
+
+    /**
+     * 停止tick线程，未到期的任务不再执行
+     */
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(tickThread);
+    }
+
+    /**
+     * 添加任务，已经到期的任务不在这里执行，由调用方在释放锁之后执行
+     *
+     * @param timeout 任务
+     * @return true表示任务已经到期并且抢到了执行权
+     */
+    private boolean addOrExpire(Timeout timeout) {
+        if (timeout.isCancelled() || root.add(timeout)) {
+            return false;
+        }
+        // 已经到期，与cancel竞争状态
+        if (!timeout.state.compareAndSet(Timeout.ST_PENDING, Timeout.ST_EXPIRED)) {
+            return false;
+        }
+        pending.decrementAndGet();
+        return true;
+    }
+
+    /**
+     * 把到期任务交给executor，被拒绝时在当前线程执行
+     *
+     * @param timeout 已到期的任务
+     */
+    private void run(Timeout timeout) {
+        try {
+            executor.execute(timeout.task);
+            return;
+        } catch (RejectedExecutionException e) {
+            log.warn("timeout task rejected by executor, run it in {}", Thread.currentThread().getName());
+        }
+        try {
+            timeout.task.run();
+        } catch (Throwable t) {
+            log.error("timeout task failed", t);
+        }
+    }
+
+    private void tickLoop() {
+        long tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        List<Timeout> expired = new ArrayList<>();
+        while (running) {
+            long now = TimeUtil.getCurrentTimeMillis();
+            lock.writeLock().lock();
+            try {
+                // 逐格推进，tick线程落后时也不会漏掉格子
+                while (running && root.currentTime + tickMillis <= now) {
+                    advance(root.currentTime + tickMillis, expired);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+            // 在锁外执行，executor拒绝后由tick线程执行时也不会阻塞schedule
+            for (Timeout timeout : expired) {
+                run(timeout);
+            }
+            expired.clear();
+            LockSupport.parkNanos(tickNanos);
+        }
+    }
+
+    /**
+     * 推进到time(tickMillis的整数倍)，各层到期的格子中的任务重新添加: 降级到下层或者收集到expired中
+     *
+     * @param time    目标时间
+     * @param expired 收集已到期的任务
+     */
+    private void advance(long time, List<Timeout> expired) {
+        for (Wheel wheel = root; wheel != null; wheel = wheel.overflow) {
+            if (time % wheel.tickMillis != 0) {
+                // 上层的格子更粗，本层没有跨过格子边界时上层也不会跨过
+                break;
+            }
+            wheel.currentTime = time;
+            Bucket bucket = wheel.buckets[(int) ((time / wheel.tickMillis) & wheel.mask)];
+            Timeout timeout = bucket.removeAll();
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                timeout.next = null;
+                timeout.prev = null;
+                if (addOrExpire(timeout)) {
+                    expired.add(timeout);
+                }
+                timeout = next;
+            }
+        }
+    }
+
+    /**
+     * 单层时间轮
+     */
+    private final class Wheel {
+        private final long tickMillis;
+
+        private final long interval;
+
+        private final int mask;
+
+        private final Bucket[] buckets;
+
+        /**
+         * 当前时间，tickMillis的整数倍
+         */
+        private volatile long currentTime;
+
+        private volatile Wheel overflow;
+
+        Wheel(long tickMillis, int wheelSize, long currentTime) {
+            this.tickMillis = tickMillis;
+            this.interval = tickMillis * wheelSize;
+            this.mask = wheelSize - 1;
+            this.currentTime = currentTime;
+            this.buckets = new Bucket[wheelSize];
+            for (int i = 0; i < wheelSize; i++) {
+                buckets[i] = new Bucket();
+            }
+        }
+
+        /**
+         * 添加任务
+         *
+         * @param timeout 任务
+         * @return false表示已经到期
+         */
+        boolean add(Timeout timeout) {
+            long current = currentTime;
+            // 用差值比较，避免current + interval溢出
+            long offset = timeout.deadline - current;
+            if (offset < tickMillis) {
+                return false;
+            }
+            if (offset < interval) {
+                buckets[(int) ((timeout.deadline / tickMillis) & mask)].add(timeout);
+                return true;
+            }
+            if (interval > Long.MAX_VALUE / wheelSize) {
+                // 最上层无法再创建上一层，放入最远的格子，到期时重新添加
+                buckets[(int) ((current / tickMillis + mask) & mask)].add(timeout);
+                return true;
+            }
+            return getOverflow().add(timeout);
+        }
+
+        private Wheel getOverflow() {
+            Wheel wheel = overflow;
+            if (wheel == null) {
+                synchronized (this) {
+                    wheel = overflow;
+                    if (wheel == null) {
+                        wheel = new Wheel(interval, wheelSize, currentTime - currentTime % interval);
+                        overflow = wheel;
+                    }
+                }
+            }
+            return wheel;
+        }
+    }
+
+    /**
+     * 时间轮中的一格，双向链表
+     */
+    private static final class Bucket {
+        private Timeout head;
+
+        synchronized void add(Timeout timeout) {
+            timeout.bucket = this;
+            timeout.next = head;
+            if (head != null) {
+                head.prev = timeout;
+            }
+            head = timeout;
+        }
+
+        synchronized boolean remove(Timeout timeout) {
+            if (timeout.bucket != this) {
+                return false;
+            }
+            if (timeout.prev != null) {
+                timeout.prev.next = timeout.next;
+            } else {
+                head = timeout.next;
+            }
+            if (timeout.next != null) {
+                timeout.next.prev = timeout.prev;
+            }
+            timeout.next = null;
+            timeout.prev = null;
+            timeout.bucket = null;
+            return true;
+        }
+
+        /**
+         * 取出全部任务
+         *
+         * @return 链表头
+         */
+        synchronized Timeout removeAll() {
+            Timeout timeout = head;
+            head = null;
+            for (Timeout t = timeout; t != null; t = t.next) {
+                t.bucket = null;
+            }
+            return timeout;
+        }
+    }
+
+    /**
+     * 已注册的延时任务
+     */
+    public static final class Timeout {
+        private final HashedTimingWheel wheel;
+
+        private final Runnable task;
+
+        private final long deadline;
+
+        private static final int ST_PENDING = 0;
+
+        private static final int ST_CANCELLED = 1;
+
+        private static final int ST_EXPIRED = 2;
+
+        private final AtomicInteger state = new AtomicInteger(ST_PENDING);
+
+        private volatile Bucket bucket;
+
+        private Timeout prev;
+
+        private Timeout next;
+
+        private Timeout(HashedTimingWheel wheel, Runnable task, long deadline) {
+            this.wheel = wheel;
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * 到期时间，毫秒
+         *
+         * @return deadline
+         */
+        public long getDeadline() {
+            return deadline;
+        }
+
+        public boolean isCancelled() {
+            return state.get() == ST_CANCELLED;
+        }
+
+        public boolean isExpired() {
+            return state.get() == ST_EXPIRED;
+        }
+
+        /**
+         * 取消任务，O(1)从所在格子中移除
+         *
+         * @return 是否取消成功，任务已经到期或者已经取消时返回false
+         */
+        public boolean cancel() {
+            if (!state.compareAndSet(ST_PENDING, ST_CANCELLED)) {
+                return false;
+            }
+            wheel.pending.decrementAndGet();
+            // 任务正在被降级时不在任何格子中，降级时会检查取消状态并丢弃
+            Bucket current = bucket;
+            if (current != null) {
+                current.remove(this);
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package cn.lyf.tools.thread;
+
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * @author lyf
+ * @description 给ForkJoinPool、虚拟线程执行器等非ThreadPoolExecutor的执行器加上与InstrumentedThreadPoolExecutor一致的运行指标和拒绝策略
+ * <pre>
+ *     1. 这类执行器的队列是无界的，通过maxInFlight限制已提交未完成的任务数，超出时触发拒绝策略
+ *     2. 拒绝策略支持CallerRunsPolicy、DiscardPolicy、DiscardOldestPolicy(无法定位最老的任务，按丢弃当前任务处理)，
+ *        其他策略一律抛出RejectedExecutionException
+ *     3. submit提交的任务异常被FutureTask捕获，执行结束后从已完成的Future中取出异常，计入失败次数
+ * </pre>
+ * @since 2023/5/12 15:48:26
+ */
+public class InstrumentedExecutorService extends AbstractExecutorService {
+    private final ExecutorService delegate;
+
+    private final ExecutorMetrics metrics = new ExecutorMetrics();
+
+    private final Semaphore inFlight;
+
+    private final int maxInFlight;
+
+    private final RejectedExecutionHandler handler;
+
+    private final String policy;
+
+    /**
+     * @param delegate    实际执行任务的执行器
+     * @param maxInFlight 最多允许已提交未完成的任务数
+     * @param handler     拒绝策略
+     */
+    public InstrumentedExecutorService(ExecutorService delegate, int maxInFlight, RejectedExecutionHandler handler) {
+        if (delegate == null || handler == null) {
+            throw new IllegalArgumentException("delegate and handler can't be null");
+        }
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("maxInFlight must be greater than 0");
+        }
+        this.delegate = delegate;
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.handler = handler;
+        this.policy = handler.getClass().getSimpleName();
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if (command == null) {
+            throw new NullPointerException();
+        }
+        metrics.onSubmit();
+        if (!inFlight.tryAcquire()) {
+            reject(command);
+            return;
+        }
+        try {
+            delegate.execute(new TimedRunnable(command));
+        } catch (RejectedExecutionException e) {
+            inFlight.release();
+            reject(command);
+        } catch (RuntimeException | Error e) {
+            inFlight.release();
+            throw e;
+        }
+    }
+
+    /**
+     * 获取当前的运行指标快照
+     *
+     * @return ThreadPoolMetrics
+     */
+    public ThreadPoolMetrics snapshot() {
+        ThreadPoolMetrics snapshot = new ThreadPoolMetrics();
+        int running = maxInFlight - inFlight.availablePermits();
+        if (delegate instanceof ForkJoinPool) {
+            ForkJoinPool pool = (ForkJoinPool) delegate;
+            snapshot.setPoolSize(pool.getPoolSize());
+            snapshot.setCorePoolSize(pool.getParallelism());
+            snapshot.setMaximumPoolSize(pool.getParallelism());
+            snapshot.setActiveCount(pool.getActiveThreadCount());
+            snapshot.setQueueSize((int) Math.min(Integer.MAX_VALUE, pool.getQueuedSubmissionCount() + pool.getQueuedTaskCount()));
+        } else {
+            // 每个任务一个线程，没有排队
+            snapshot.setPoolSize(running);
+            snapshot.setCorePoolSize(0);
+            snapshot.setMaximumPoolSize(maxInFlight);
+            snapshot.setActiveCount(running);
+            snapshot.setQueueSize(0);
+        }
+        return metrics.fill(snapshot);
+    }
+
+    /**
+     * 清空耗时分布和计数
+     */
+    public void resetMetrics() {
+        metrics.reset();
+    }
+
+    /**
+     * 被包装的执行器
+     *
+     * @return delegate
+     */
+    public ExecutorService getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public void shutdown() {
+        delegate.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        return delegate.shutdownNow();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return delegate.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return delegate.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return delegate.awaitTermination(timeout, unit);
+    }
+
+    private void reject(Runnable command) {
+        metrics.onReject(policy);
+        if (handler instanceof ThreadPoolExecutor.CallerRunsPolicy) {
+            if (!isShutdown()) {
+                command.run();
+            }
+        } else if (!(handler instanceof ThreadPoolExecutor.DiscardPolicy)
+                && !(handler instanceof ThreadPoolExecutor.DiscardOldestPolicy)) {
+            throw new RejectedExecutionException("Task " + command + " rejected from " + this);
+        }
+    }
+
+    /**
+     * 记录了入队时间的任务，执行结束后释放在途名额
+     */
+    private final class TimedRunnable implements Runnable {
+        private final Runnable delegate;
+
+        private final long enqueueNanos = System.nanoTime();
+
+        private TimedRunnable(Runnable delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void run() {
+            long startNanos = metrics.onStart(enqueueNanos);
+            boolean failed = true;
+            try {
+                delegate.run();
+                failed = ExecutorMetrics.isFailedFuture(delegate);
+            } finally {
+                metrics.onComplete(startNanos, failed);
+                inFlight.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package cn.lyf.tools.thread;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.*;
+
+/**
+ * @author lyf
+ * @description 带运行指标的线程池，由ExecutorBuilder.metrics(true)创建
+ * <pre>
+ *     1. execute时用TimedRunnable包装任务并记录入队时间，beforeExecute记录排队时间，afterExecute记录执行时间
+ *     2. 计数器使用LongAdder，耗时使用LogHistogram，记录开销很低
+ *     3. 拒绝策略被包装一层，按策略类名统计拒绝次数
+ *     4. submit提交的任务异常被FutureTask捕获，afterExecute从已完成的Future中取出异常，计入失败次数
+ * </pre>
+ * 注意: 队列中的元素是包装后的TimedRunnable，直接对getQueue()中的元素做remove(原始任务)不会生效
+ * @since 2023/5/11 11:05:37
+ */
+public class InstrumentedThreadPoolExecutor extends ThreadPoolExecutor {
+    private final ExecutorMetrics metrics = new ExecutorMetrics();
+
+    /**
+     * 当前线程正在执行的任务的开始时间
+     */
+    private final ThreadLocal<long[]> startNanos = ThreadLocal.withInitial(() -> new long[1]);
+
+    /**
+     * 正在执行任务的线程，只有开启跟踪时才记录，供AdaptivePoolSizer计算等待时间占比
+     */
+    private final Set<Thread> runningThreads = ConcurrentHashMap.newKeySet();
+
+    private volatile boolean trackRunningThreads;
+
+    public InstrumentedThreadPoolExecutor(int corePoolSize, int maximumPoolSize, long keepAliveTime, TimeUnit unit,
+                                          BlockingQueue<Runnable> workQueue, ThreadFactory threadFactory,
+                                          RejectedExecutionHandler handler) {
+        super(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue, threadFactory, handler);
+        super.setRejectedExecutionHandler(new CountingRejectedExecutionHandler(handler));
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if (command == null) {
+            throw new NullPointerException();
+        }
+        if (command instanceof TimedRunnable) {
+            // DiscardOldestPolicy等拒绝策略会把已包装的任务重新提交
+            super.execute(command);
+            return;
+        }
+        metrics.onSubmit();
+        super.execute(new TimedRunnable(command));
+    }
+
+    @Override
+    public void setRejectedExecutionHandler(RejectedExecutionHandler handler) {
+        super.setRejectedExecutionHandler(new CountingRejectedExecutionHandler(handler));
+    }
+
+    @Override
+    public RejectedExecutionHandler getRejectedExecutionHandler() {
+        RejectedExecutionHandler handler = super.getRejectedExecutionHandler();
+        if (handler instanceof CountingRejectedExecutionHandler) {
+            return ((CountingRejectedExecutionHandler) handler).delegate;
+        }
+        return handler;
+    }
+
+    @Override
+    protected void beforeExecute(Thread t, Runnable r) {
+        long now = r instanceof TimedRunnable ? metrics.onStart(((TimedRunnable) r).enqueueNanos) : System.nanoTime();
+        startNanos.get()[0] = now;
+        if (trackRunningThreads) {
+            runningThreads.add(t);
+        }
+        super.beforeExecute(t, r);
+    }
+
+    @Override
+    protected void afterExecute(Runnable r, Throwable t) {
+        super.afterExecute(r, t);
+        if (trackRunningThreads) {
+            runningThreads.remove(Thread.currentThread());
+        }
+        Runnable task = r instanceof TimedRunnable ? ((TimedRunnable) r).delegate : r;
+        metrics.onComplete(startNanos.get()[0], t != null || ExecutorMetrics.isFailedFuture(task));
+    }
+
+    /**
+     * 获取当前的运行指标快照
+     *
+     * @return ThreadPoolMetrics
+     */
+    public ThreadPoolMetrics snapshot() {
+        ThreadPoolMetrics metrics = new ThreadPoolMetrics();
+        metrics.setPoolSize(getPoolSize());
+        metrics.setCorePoolSize(getCorePoolSize());
+        metrics.setMaximumPoolSize(getMaximumPoolSize());
+        metrics.setActiveCount(getActiveCount());
+        metrics.setQueueSize(getQueue().size());
+        return this.metrics.fill(metrics);
+    }
+
+    /**
+     * 开启正在执行任务的线程的跟踪
+     */
+    void enableRunningThreadTracking() {
+        trackRunningThreads = true;
+    }
+
+    /**
+     * 正在执行任务的线程
+     *
+     * @return 只读视图
+     */
+    Set<Thread> getRunningThreads() {
+        return Collections.unmodifiableSet(runningThreads);
+    }
+
+    /**
+     * 清空耗时分布和计数
+     */
+    public void resetMetrics() {
+        metrics.reset();
+    }
+
+    /**
+     * 记录了入队时间的任务
+     */
+    private static final class TimedRunnable implements Runnable {
+        private final Runnable delegate;
+
+        private final long enqueueNanos = System.nanoTime();
+
+        private TimedRunnable(Runnable delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void run() {
+            delegate.run();
+        }
+    }
+
+    /**
+     * 统计拒绝次数的拒绝策略包装
+     */
+    private final class CountingRejectedExecutionHandler implements RejectedExecutionHandler {
+        private final RejectedExecutionHandler delegate;
+
+        private final String policy;
+
+        private CountingRejectedExecutionHandler(RejectedExecutionHandler delegate) {
+            if (delegate == null) {
+                throw new NullPointerException();
+            }
+            this.delegate = delegate;
+            this.policy = delegate.getClass().getSimpleName();
+        }
+
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            metrics.onReject(policy);
+            delegate.rejectedExecution(r, executor);
+        }
+    }
+}
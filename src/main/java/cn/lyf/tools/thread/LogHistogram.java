@@ -0,0 +1,143 @@
+package cn.lyf.tools.thread;
+
+import lombok.Data;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author lyf
+ * @description 对数分桶的直方图，用于记录耗时等非负数值的分布
+ * <pre>
+ *     1. 按2的幂分段，每段再均分为8个子桶，相对误差不超过12.5%，桶数固定为488个
+ *     2. 每个桶是一个LongAdder，多线程并发记录时竞争被分散到不同的cell上
+ *     3. 快照只是近似一致，记录与快照并发时各统计值之间可能有少量偏差
+ * </pre>
+ * @since 2023/5/11 10:08:55
+ */
+public final class LogHistogram {
+    /**
+     * 每段的子桶数的位数，2^3 = 8
+     */
+    private static final int SUB_BUCKET_BITS = 3;
+
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    private static final int BUCKET_COUNT = (63 - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKET_COUNT];
+
+    private final LongAdder count = new LongAdder();
+
+    private final LongAdder sum = new LongAdder();
+
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0L);
+
+    public LogHistogram() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * 记录一个数值，负数按0处理
+     *
+     * @param value 数值
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        buckets[bucketIndex(value)].increment();
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * 清空已记录的数据
+     */
+    public void reset() {
+        for (LongAdder bucket : buckets) {
+            bucket.reset();
+        }
+        count.reset();
+        sum.reset();
+        max.reset();
+    }
+
+    /**
+     * 获取当前的统计快照
+     *
+     * @return HistogramSnapshot
+     */
+    public HistogramSnapshot snapshot() {
+        long[] counts = new long[BUCKET_COUNT];
+        long total = 0L;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = buckets[i].sum();
+            total += counts[i];
+        }
+
+        HistogramSnapshot snapshot = new HistogramSnapshot();
+        snapshot.setCount(total);
+        snapshot.setSum(sum.sum());
+        snapshot.setMax(max.get());
+        snapshot.setMean(total == 0 ? 0d : snapshot.getSum() * 1.0d / total);
+        snapshot.setP50(percentile(counts, total, 0.50d));
+        snapshot.setP90(percentile(counts, total, 0.90d));
+        snapshot.setP99(percentile(counts, total, 0.99d));
+        snapshot.setP999(percentile(counts, total, 0.999d));
+        return snapshot;
+    }
+
+    private static long percentile(long[] counts, long total, double percentile) {
+        if (total == 0) {
+            return 0L;
+        }
+        long rank = (long) Math.ceil(total * percentile);
+        long seen = 0L;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return bucketUpperBound(i);
+            }
+        }
+        return bucketUpperBound(BUCKET_COUNT - 1);
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) ((value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1));
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKET_COUNT + SUB_BUCKET_BITS - 1;
+        int subBucket = index % SUB_BUCKET_COUNT;
+        long lower = ((long) (SUB_BUCKET_COUNT + subBucket)) << (exponent - SUB_BUCKET_BITS);
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return lower + width - 1;
+    }
+
+    /**
+     * 直方图快照，百分位数为所在桶的上界
+     */
+    @Data
+    public static class HistogramSnapshot {
+        private long count;
+        private long sum;
+        private long max;
+        private double mean;
+        private long p50;
+        private long p90;
+        private long p99;
+        private long p999;
+    }
+}
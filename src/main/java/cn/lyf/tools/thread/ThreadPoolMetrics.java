@@ -0,0 +1,78 @@
+package cn.lyf.tools.thread;
+
+import cn.lyf.tools.str.json.GsonUtil;
+import lombok.Data;
+
+import java.util.Map;
+
+/**
+ * @author lyf
+ * @description 线程池运行指标快照，耗时单位均为纳秒
+ * @since 2023/5/11 10:40:12
+ */
+@Data
+public class ThreadPoolMetrics {
+    /**
+     * 当前线程数
+     */
+    private int poolSize;
+
+    /**
+     * 核心线程数
+     */
+    private int corePoolSize;
+
+    /**
+     * 最大线程数
+     */
+    private int maximumPoolSize;
+
+    /**
+     * 正在执行任务的线程数
+     */
+    private int activeCount;
+
+    /**
+     * 队列中等待的任务数
+     */
+    private int queueSize;
+
+    /**
+     * 已提交的任务数
+     */
+    private long submittedCount;
+
+    /**
+     * 已执行完成的任务数
+     */
+    private long completedCount;
+
+    /**
+     * 执行时抛出异常的任务数
+     */
+    private long failedCount;
+
+    /**
+     * 按拒绝策略统计的拒绝次数，key为拒绝策略的类名
+     */
+    private Map<String, Long> rejectedCount;
+
+    /**
+     * 任务在队列中的等待时间分布
+     */
+    private LogHistogram.HistogramSnapshot queueWait;
+
+    /**
+     * 任务的执行时间分布
+     */
+    private LogHistogram.HistogramSnapshot execution;
+
+    /**
+     * 转成json字符串
+     *
+     * @return json
+     */
+    public String toJson() {
+        return GsonUtil.toJsonStr(this);
+    }
+}
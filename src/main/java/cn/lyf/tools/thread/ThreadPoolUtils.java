@@ -16,7 +16,7 @@ public final class ThreadPoolUtils {
     /**
      * 普通的线程池
      */
-    private static final ExecutorService THREAD_POOL;
+    private static final InstrumentedThreadPoolExecutor THREAD_POOL;
 
     /**
      * 关于时间任务的线程池
@@ -33,8 +33,16 @@ public final class ThreadPoolUtils {
                 .setNameFormat("simple-pool-%d")
                 .setDaemon(true)
                 .build();
-        THREAD_POOL = new ThreadPoolExecutor(corePoolSize, maxPoolSize, keepAliveTime,
-                keepAliveTimeUnit, new LinkedBlockingQueue<>(queSize), threadFactory, new ThreadPoolExecutor.AbortPolicy());
+        THREAD_POOL = (InstrumentedThreadPoolExecutor) ExecutorBuilder.create()
+                .corePoolSize(corePoolSize)
+                .maximumPoolSize(maxPoolSize)
+                .keepAliveTime(keepAliveTime)
+                .unit(keepAliveTimeUnit)
+                .workQueue(new LinkedBlockingQueue<>(queSize))
+                .threadFactory(threadFactory)
+                .handler(new ThreadPoolExecutor.AbortPolicy())
+                .metrics(true)
+                .build();
 
         SCHEDULED_THREAD_POOL = new ScheduledThreadPoolExecutor(1,
                 new ThreadFactoryBuilder().setNameFormat("time-scheduled-pool-%d").setDaemon(true).build());
@@ -44,10 +52,45 @@ public final class ThreadPoolUtils {
         return THREAD_POOL;
     }
 
+    /**
+     * 普通线程池的运行指标：排队时间、执行时间、活跃线程数、队列长度、拒绝次数
+     *
+     * @return ThreadPoolMetrics
+     */
+    public static ThreadPoolMetrics getThreadPoolMetrics() {
+        return THREAD_POOL.snapshot();
+    }
+
+    /**
+     * 用于阻塞IO(下载、等待外部进程)的执行器，支持虚拟线程时每个任务一个虚拟线程，首次调用时才创建
+     * 否则为核心线程数=最大线程数=CPU核数*8的普通线程池，空闲的线程1分钟后回收，
+     * ThreadPoolExecutor只有队列满了才会超过核心线程数创建线程，核心线程数太小时并发度就只有CPU核数
+     *
+     * @return ExecutorService
+     */
+    public static ExecutorService getBlockingIoExecutor() {
+        return BlockingIoExecutorHolder.BLOCKING_IO_EXECUTOR;
+    }
+
     public static ScheduledExecutorService getScheduledThreadPool() {
         return SCHEDULED_THREAD_POOL;
     }
 
+    private static final class BlockingIoExecutorHolder {
+        private static final ExecutorService BLOCKING_IO_EXECUTOR = ExecutorBuilder.create()
+                .profile(ExecutorBuilder.Profile.VIRTUAL_THREAD)
+                .corePoolSize(Runtime.getRuntime().availableProcessors() * 8)
+                .maximumPoolSize(Runtime.getRuntime().availableProcessors() * 8)
+                .keepAliveTime(1L)
+                .unit(TimeUnit.MINUTES)
+                .allowCoreThreadTimeOut(true)
+                .workQueue(new LinkedBlockingQueue<>(ExecutorBuilder.DEFAULT_QUEUE_CAPACITY))
+                .threadFactory(new ThreadFactoryBuilder().setNameFormat("blocking-io-pool-%d").setDaemon(true).build())
+                .handler(new ThreadPoolExecutor.CallerRunsPolicy())
+                .metrics(true)
+                .buildExecutorService();
+    }
+
     public static void main(String[] args) {
 
     }
@@ -0,0 +1,78 @@
+package cn.lyf.tools.thread;
+
+import cn.lyf.tools.core.function.ConsumerFunction;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+
+/**
+ * @author lyf
+ * @description 限制同时运行任务数的提交器，适合遍历大量文件时逐个提交IO任务
+ * <pre>
+ *     1. 同时运行的任务达到parallelism时submit阻塞提交线程，不会一次把全部任务堆进executor的队列
+ *     2. executor拒绝时在提交线程中直接执行
+ *     3. 任务抛出的异常交给onFailure处理，onFailure在执行任务的线程中调用，需要是线程安全的
+ *     4. await等待已提交的任务全部结束，之后可以继续提交
+ * </pre>
+ * @since 2023/5/23 10:05:41
+ */
+public final class ThrottledSubmitter {
+    private final Executor executor;
+
+    private final int parallelism;
+
+    private final Semaphore running;
+
+    private final Consumer<Exception> onFailure;
+
+    /**
+     * @param executor    执行任务的线程池
+     * @param parallelism 最多同时运行的任务数
+     * @param onFailure   任务异常的处理
+     */
+    public ThrottledSubmitter(Executor executor, int parallelism, Consumer<Exception> onFailure) {
+        if (executor == null || onFailure == null) {
+            throw new IllegalArgumentException("executor and onFailure can't be null");
+        }
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("parallelism must be greater than 0");
+        }
+        this.executor = executor;
+        this.parallelism = parallelism;
+        this.running = new Semaphore(parallelism);
+        this.onFailure = onFailure;
+    }
+
+    /**
+     * 提交任务，同时运行的任务达到parallelism时阻塞
+     *
+     * @param task 任务
+     */
+    public void submit(ConsumerFunction task) {
+        running.acquireUninterruptibly();
+        Runnable runnable = () -> {
+            try {
+                task.run();
+            } catch (Exception e) {
+                onFailure.accept(e);
+            } finally {
+                running.release();
+            }
+        };
+        try {
+            executor.execute(runnable);
+        } catch (RejectedExecutionException e) {
+            runnable.run();
+        }
+    }
+
+    /**
+     * 等待已提交的任务全部结束
+     */
+    public void await() {
+        running.acquireUninterruptibly(parallelism);
+        running.release(parallelism);
+    }
+}
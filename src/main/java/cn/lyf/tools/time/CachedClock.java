@@ -0,0 +1,209 @@
+package cn.lyf.tools.time;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * @author lyf
+ * @description 缓存的系统时钟，支持超高并发读取当前时间
+ * <pre>
+ *     1. 首次读取时才启动后台tick线程，tick间隔可配置(1ms、10ms或者更粗)
+ *     2. 每次tick同时缓存System.currentTimeMillis()和System.nanoTime()
+ *     3. 记录相邻两次tick的最大实际间隔，即读数的最大误差，可通过getMaxErrorNanos()获取
+ *     4. 超过idleTimeout没有读取时tick线程自动退出，下次读取时重新启动
+ *     5. close之后不再启动tick线程，读取直接回退为System.currentTimeMillis()/System.nanoTime()，不再加锁
+ *     6. getDefault()返回的共享实例不可关闭，close()为空操作，避免一处关闭影响所有使用者
+ * </pre>
+ * @since 2023/5/10 10:16:33
+ */
+public final class CachedClock implements AutoCloseable {
+    /**
+     * 默认的tick间隔，毫秒
+     */
+    public static final long DEFAULT_TICK_MILLIS = 1L;
+
+    /**
+     * 默认的空闲超时时间，毫秒
+     */
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 60_000L;
+
+    private static final CachedClock DEFAULT = new CachedClock(DEFAULT_TICK_MILLIS, DEFAULT_IDLE_TIMEOUT_MILLIS, false);
+
+    private final long tickNanos;
+
+    private final long idleTimeoutNanos;
+
+    /**
+     * 是否允许close，共享的默认实例为false
+     */
+    private final boolean closeable;
+
+    private volatile long currentTimeMillis;
+
+    private volatile long nanoTime;
+
+    /**
+     * 自上次tick以来是否被读取过，读取方只在false时写入，避免每次读取都写volatile
+     */
+    private volatile boolean accessed;
+
+    private volatile boolean running;
+
+    private volatile boolean closed;
+
+    /**
+     * 相邻两次tick的最大实际间隔，纳秒
+     */
+    private volatile long maxErrorNanos;
+
+    /**
+     * @param tickMillis        tick间隔，毫秒
+     * @param idleTimeoutMillis 空闲超时时间，毫秒
+     */
+    public CachedClock(long tickMillis, long idleTimeoutMillis) {
+        this(tickMillis, idleTimeoutMillis, true);
+    }
+
+    private CachedClock(long tickMillis, long idleTimeoutMillis, boolean closeable) {
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("tickMillis must be greater than 0");
+        }
+        if (idleTimeoutMillis < tickMillis) {
+            throw new IllegalArgumentException("idleTimeoutMillis can't be less than tickMillis");
+        }
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+        this.closeable = closeable;
+    }
+
+    /**
+     * 默认的缓存时钟，tick间隔1ms，共享实例，不可关闭
+     *
+     * @return CachedClock
+     */
+    public static CachedClock getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * 获取缓存的当前时间毫秒值，误差不超过getMaxErrorNanos()
+     *
+     * @return currentTimeMillis
+     */
+    public long currentTimeMillis() {
+        if (!running) {
+            if (!closed) {
+                start();
+            }
+            return System.currentTimeMillis();
+        }
+        if (!accessed) {
+            accessed = true;
+        }
+        return currentTimeMillis;
+    }
+
+    /**
+     * 获取缓存的System.nanoTime()，只能用于计算时间间隔
+     *
+     * @return nanoTime
+     */
+    public long nanoTime() {
+        if (!running) {
+            if (!closed) {
+                start();
+            }
+            return System.nanoTime();
+        }
+        if (!accessed) {
+            accessed = true;
+        }
+        return nanoTime;
+    }
+
+    /**
+     * 已观测到的读数最大误差，即相邻两次tick的最大实际间隔，纳秒
+     *
+     * @return maxErrorNanos
+     */
+    public long getMaxErrorNanos() {
+        return maxErrorNanos;
+    }
+
+    /**
+     * 重置已观测到的最大误差
+     */
+    public void resetMaxError() {
+        maxErrorNanos = 0L;
+    }
+
+    public long getTickNanos() {
+        return tickNanos;
+    }
+
+    /**
+     * tick线程是否在运行
+     *
+     * @return running
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * 停止tick线程，之后的读取回退为直接读取系统时钟，对getDefault()返回的共享实例无效
+     */
+    @Override
+    public void close() {
+        if (!closeable) {
+            return;
+        }
+        closed = true;
+        running = false;
+    }
+
+    private synchronized void start() {
+        if (running || closed) {
+            return;
+        }
+        currentTimeMillis = System.currentTimeMillis();
+        nanoTime = System.nanoTime();
+        accessed = true;
+        running = true;
+
+        Thread thread = new Thread(this::tick);
+        thread.setDaemon(true);
+        thread.setName("time-tick-thead");
+        thread.start();
+    }
+
+    private void tick() {
+        long lastAccessNanos = System.nanoTime();
+        long lastTickNanos = lastAccessNanos;
+        while (running) {
+            LockSupport.parkNanos(tickNanos);
+            long now = System.nanoTime();
+            nanoTime = now;
+            currentTimeMillis = System.currentTimeMillis();
+
+            long error = now - lastTickNanos;
+            if (error > maxErrorNanos) {
+                maxErrorNanos = error;
+            }
+            lastTickNanos = now;
+
+            if (accessed) {
+                accessed = false;
+                lastAccessNanos = now;
+            } else if (now - lastAccessNanos > idleTimeoutNanos) {
+                synchronized (this) {
+                    // 加锁后再确认一次，避免与start并发时丢掉刚刚的读取
+                    if (!accessed) {
+                        running = false;
+                        return;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -8,32 +8,16 @@ import java.util.concurrent.TimeUnit;
  * @since 2023/5/4 14:34:34
  */
 public class TimeUtil {
-    private static volatile long currentTimeMillis;
-
     private TimeUtil() {
     }
 
-    static {
-        currentTimeMillis = System.currentTimeMillis();
-        Thread thread = new Thread(() -> {
-            while (true) {
-                currentTimeMillis = System.currentTimeMillis();
-                sleepAndIgnoreException(1, TimeUnit.MILLISECONDS);
-            }
-        });
-
-        thread.setDaemon(true);
-        thread.setName("time-tick-thead");
-        thread.start();
-    }
-
     /**
-     * 获取当前时间的毫秒值
+     * 获取当前时间的毫秒值，由CachedClock.getDefault()缓存，首次调用时才启动tick线程，空闲后自动停止
      *
      * @return currentTimeMillis
      */
     public static long getCurrentTimeMillis() {
-        return currentTimeMillis;
+        return CachedClock.getDefault().currentTimeMillis();
     }
 
     /**
@@ -42,7 +26,7 @@ public class TimeUtil {
      * @return currentTimeMillis
      */
     public static long getCurrentTimeSeconds() {
-        return TimeUnit.MILLISECONDS.toSeconds(currentTimeMillis);
+        return TimeUnit.MILLISECONDS.toSeconds(getCurrentTimeMillis());
     }
 
     /**